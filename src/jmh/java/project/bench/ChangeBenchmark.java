@@ -0,0 +1,138 @@
+package project.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import project.object.Fleet;
+import project.object.Jukebox;
+import project.object.NameDictionary;
+import project.service.ChangeFeed;
+import project.service.CompatibilityDelta;
+import project.service.JukeboxAPI;
+import project.service.SettingsAPI;
+import project.service.Snapshot;
+/**
+ * This benchmark measures how fast the changes of setting compatibility are found between two snapshots of a generated database,
+ * and pushed to subscribers by a {@link ChangeFeed}. The size is set with -p size=N, the share of Jukeboxes changed by a reload with -p changed=F.
+ * <br>It has the following methods:
+ * <br><br>{@link ChangeBenchmark#setup()}
+ * <br>{@link ChangeBenchmark#diffPatch()}
+ * <br>{@link ChangeBenchmark#diffReload()}
+ * <br>{@link ChangeBenchmark#diffReordered()}
+ * <br>{@link ChangeBenchmark#publish()}
+ * @author Shuzhao Feng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ChangeBenchmark {
+    @Param({"100000", "1000000"})
+    public int size; // number of Jukeboxes
+    @Param({"0.01"})
+    public double changed; // share of Jukeboxes whose components change between two reloads
+    private static final int SUBSCRIBERS = 10_000; // devices subscribed to their own Jukebox
+    private Snapshot before, patched, reloaded, reordered; // the snapshots compared
+    private JukeboxAPI api; // swaps the snapshots, listened to by the feed
+    private boolean flip; // which snapshot is swapped in next
+    private long bytes; // bytes of events received, so that sending is not optimized away
+    /**
+     * This method generates the database and its next versions once per size, and subscribes the devices.
+     * @author Shuzhao Feng
+     */
+    @Setup
+    public void setup() {
+        FleetGenerator generator = new FleetGenerator(42);
+        SettingsAPI settings = generator.settings(8);
+        Fleet fleet = generator.fleet(size);
+        before = new Snapshot(settings, fleet);
+        Random random = new Random(7);
+        patched = before.patch(rows(random, 10), components(random, 10)); // a PATCH of a few Jukeboxes
+        int n = (int) (size * changed);
+        reloaded = new Snapshot(settings, fleet.patch(rows(random, n), components(random, n)).compact()); // the same feed, a few Jukeboxes changed
+        ArrayList<Jukebox> shuffled = new ArrayList<>(fleet.asList());
+        Collections.shuffle(shuffled, random);
+        reordered = new Snapshot(settings, Fleet.of(shuffled)); // the same Jukeboxes, all moved
+        api = new JukeboxAPI(before);
+        ChangeFeed feed = new ChangeFeed(api, Runnable::run); // compared and sent on the benchmark thread
+        ChangeFeed.Sink sink = new ChangeFeed.Sink() {
+            @Override
+            public void send(String name, long version, byte[] data) {
+                bytes += data.length;
+            }
+            @Override
+            public void ping() {
+            }
+        };
+        for (int i = 0; i < SUBSCRIBERS; i++) feed.subscribe(List.of(generator.id(random.nextInt(size))), null, null, sink);
+        for (String model : FleetGenerator.MODELS) feed.subscribe(null, List.of(model), null, sink); // a few dashboards
+    }
+    /**
+     * This method draws distinct sorted rows.
+     * @author Shuzhao Feng
+     */
+    private int[] rows(Random random, int n) {
+        return random.ints(0, size).distinct().limit(n).sorted().toArray();
+    }
+    /**
+     * This method draws random components for some rows.
+     * @author Shuzhao Feng
+     */
+    private static int[][] components(Random random, int n) {
+        int[][] out = new int[n][];
+        for (int i = 0; i < n; i++) {
+            out[i] = new int[random.nextInt(6)];
+            for (int j = 0; j < out[i].length; j++) out[i][j] = NameDictionary.encode(FleetGenerator.COMPONENTS[random.nextInt(FleetGenerator.COMPONENTS.length)]);
+        }
+        return out;
+    }
+    /**
+     * Compare a snapshot with its patched version, only the bitmaps copied by the patch are compared.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public int diffPatch() {
+        return CompatibilityDelta.of(before, patched).getChanges().size();
+    }
+    /**
+     * Compare a snapshot with the next load of the same feed, the rows did not move.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public int diffReload() {
+        return CompatibilityDelta.of(before, reloaded).getChanges().size();
+    }
+    /**
+     * Compare a snapshot with a feed where every Jukebox moved, the bitmaps are moved by ID first.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public int diffReordered() {
+        return CompatibilityDelta.of(before, reordered).getChanges().size();
+    }
+    /**
+     * Swap the next load of the feed in, or back, and push the changes to every subscriber.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public long publish() {
+        flip = !flip;
+        api.swap(flip ? reloaded : before);
+        return bytes;
+    }
+}
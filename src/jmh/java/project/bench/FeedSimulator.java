@@ -0,0 +1,114 @@
+package project.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+/**
+ * This class serves a synthetic Jukebox feed and setting feed over http, on localhost only, in place of the online feeds.
+ * The feeds are generated by a {@link FleetGenerator} while they are sent, so a feed of any size is served without holding it,
+ * and every request gets the same data. Point the application to it with
+ * --jukebox.feed.jukes-url=http://localhost:PORT/jukes and --jukebox.feed.settings-url=http://localhost:PORT/settings.
+ * <br>Options, all optional: --port (8081), --size (number of Jukeboxes, 100000), --settings (number of settings, 8),
+ * --max-components (maximum number of components of a Jukebox, 6), --skew (0 if all components are as frequent, see
+ * {@link FleetGenerator#FleetGenerator(long, int, double)}), --seed (42).
+ * <br>It has the following methods:
+ * <br><br>{@link FeedSimulator#FeedSimulator(FleetGenerator, int, int)}
+ * <br>{@link FeedSimulator#start(int)}
+ * <br>{@link FeedSimulator#stop()}
+ * <br>{@link FeedSimulator#main(String[])}
+ * @author Shuzhao Feng
+ */
+public class FeedSimulator {
+    private final FleetGenerator generator; // source of the feeds
+    private final int size, settings; // number of Jukeboxes and of settings served
+    private HttpServer server; // null until started
+    /**
+     * This is the constructor of {@link FeedSimulator}. It does not serve anything until started.
+     * @param generator The generator of the feeds.
+     * @param size The number of Jukeboxes of the Jukebox feed.
+     * @param settings The number of settings of the setting feed.
+     * @author Shuzhao Feng
+     */
+    public FeedSimulator(FleetGenerator generator, int size, int settings) {
+        this.generator = generator;
+        this.size = size;
+        this.settings = settings;
+    }
+    /**
+     * A feed writer, either of the Jukeboxes or of the settings.
+     * @author Shuzhao Feng
+     */
+    private interface Feed {
+        void write(OutputStream output) throws IOException;
+    }
+    /**
+     * This method starts serving the feeds at /jukes and /settings, on the loopback address.
+     * @param port The port to listen to, 0 for any free port.
+     * @return The port listened to.
+     * @throws IOException may occur if the port cannot be used.
+     * @author Shuzhao Feng
+     */
+    public int start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/jukes", exchange -> send(exchange, output -> generator.writeJukeboxes(size, output)));
+        server.createContext("/settings", exchange -> send(exchange, output -> generator.writeSettings(settings, output)));
+        server.setExecutor(Executors.newCachedThreadPool()); // a slow feed reader does not hold the others
+        server.start();
+        return server.getAddress().getPort();
+    }
+    /**
+     * This method sends a feed, chunked since its length is only known once written.
+     * @author Shuzhao Feng
+     */
+    private static void send(HttpExchange exchange, Feed feed) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream output = exchange.getResponseBody()) {
+                feed.write(output);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+    /**
+     * This method stops serving the feeds, without waiting for the feeds being sent.
+     * @author Shuzhao Feng
+     */
+    public void stop() {
+        if (server != null) server.stop(0);
+    }
+    /**
+     * This method starts a simulator from the command line, until the process is killed.
+     * @param args The options, see {@link FeedSimulator}.
+     * @throws IOException may occur if the port cannot be used.
+     * @author Shuzhao Feng
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 8081, size = 100_000, settings = 8, maxComponents = 6;
+        double skew = 0;
+        long seed = 42;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port" -> port = Integer.parseInt(args[i + 1]);
+                case "--size" -> size = Integer.parseInt(args[i + 1]);
+                case "--settings" -> settings = Integer.parseInt(args[i + 1]);
+                case "--max-components" -> maxComponents = Integer.parseInt(args[i + 1]);
+                case "--skew" -> skew = Double.parseDouble(args[i + 1]);
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        port = new FeedSimulator(new FleetGenerator(seed, maxComponents, skew), size, settings).start(port);
+        System.out.printf("Serving %d jukeboxes at http://localhost:%d/jukes and %d settings at http://localhost:%d/settings%n",
+                size, port, settings, port);
+    }
+}
@@ -0,0 +1,167 @@
+package project.bench;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import project.object.Fleet;
+import project.service.SettingsAPI;
+/**
+ * This class generates a synthetic Jukebox database and its settings, with the models and components of the real feeds.
+ * Everything only depends on the seed: the Jukebox at row N is the same whatever the size of the database,
+ * so results are reproducible offline and databases of different sizes can be compared.
+ * <br>It has the following methods:
+ * <br><br>{@link FleetGenerator#FleetGenerator(long)}
+ * <br>{@link FleetGenerator#FleetGenerator(long, int, double)}
+ * <br>{@link FleetGenerator#id(int)}
+ * <br>{@link FleetGenerator#fleet(int)}
+ * <br>{@link FleetGenerator#settings(int)}
+ * <br>{@link FleetGenerator#writeJukeboxes(int, OutputStream)}
+ * <br>{@link FleetGenerator#writeSettings(int, OutputStream)}
+ * @author Shuzhao Feng
+ */
+public class FleetGenerator {
+    public static final String[] MODELS = new String[]{"angelina", "virtuo", "niagara", "saturn", "fusion"}; // models of the real feed
+    public static final String[] COMPONENTS = new String[]{"camera", "pcb", "touchscreen", "led_matrix", "led_panel", "amplifier",
+            "money_receiver", "speaker"}; // components of the real feed
+    private final long seed; // everything is derived from it
+    private final int maxComponents; // maximum number of components of a Jukebox
+    private final double skew; // 0 if every component is as frequent, the larger the more the first components are frequent
+    /**
+     * This is the constructor of {@link FleetGenerator}, for 1 to 6 components per Jukebox, all as frequent.
+     * @param seed The seed, two generators with the same seed generate the same data.
+     * @author Shuzhao Feng
+     */
+    public FleetGenerator(long seed) {
+        this(seed, 6, 0);
+    }
+    /**
+     * This is the constructor of {@link FleetGenerator} for a given distribution of the components.
+     * @param seed The seed, two generators with the same seed generate the same data.
+     * @param maxComponents The maximum number of components of a Jukebox, each Jukebox has 1 to maxComponents.
+     * @param skew 0 if every component is as frequent, otherwise a component is picked at position
+     * length * u^(1 + skew) of {@link FleetGenerator#COMPONENTS} for a uniform u, so the first ones get more frequent as skew grows.
+     * @author Shuzhao Feng
+     */
+    public FleetGenerator(long seed, int maxComponents, double skew) {
+        if (maxComponents < 1) throw new IllegalArgumentException("A Jukebox has at least 1 component");
+        if (skew < 0) throw new IllegalArgumentException("The skew cannot be negative");
+        this.seed = seed;
+        this.maxComponents = maxComponents;
+        this.skew = skew;
+    }
+    /**
+     * This method mixes the bits of a number, so that close numbers give unrelated results (SplitMix64 finalizer).
+     * @author Shuzhao Feng
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    /**
+     * This method returns the ID of a row, 24 hexadecimal digits like the IDs of the real feed.
+     * @param row The row number.
+     * @return The ID of the Jukebox at this row.
+     * @author Shuzhao Feng
+     */
+    public String id(int row) {
+        return String.format("%08x%016x", row, mix(seed + row));
+    }
+    /**
+     * This method generates the model and components of a row.
+     * @param row The row number.
+     * @param components Receives the components, cleared first.
+     * @return The model.
+     * @author Shuzhao Feng
+     */
+    private String jukebox(int row, ArrayList<String> components) {
+        SplittableRandom random = new SplittableRandom(mix(seed ^ (0x9E3779B97F4A7C15L * (row + 1))));
+        components.clear();
+        for (int n = 1 + random.nextInt(maxComponents); n > 0; n--) { // repetitions allowed
+            components.add(COMPONENTS[skew == 0 ? random.nextInt(COMPONENTS.length)
+                    : (int) (COMPONENTS.length * Math.pow(random.nextDouble(), 1 + skew))]);
+        }
+        return MODELS[random.nextInt(MODELS.length)];
+    }
+    /**
+     * This method generates a database in memory.
+     * @param size The number of Jukeboxes.
+     * @return The fleet of the first size rows.
+     * @author Shuzhao Feng
+     */
+    public Fleet fleet(int size) {
+        Fleet.Builder builder = new Fleet.Builder();
+        ArrayList<String> components = new ArrayList<>();
+        for (int row = 0; row < size; row++) {
+            String model = jukebox(row, components);
+            builder.add(id(row), model, components);
+        }
+        return builder.build();
+    }
+    /**
+     * This method generates settings requiring 1 to 3 components each.
+     * @param count The number of settings.
+     * @return The setting api.
+     * @author Shuzhao Feng
+     */
+    public SettingsAPI settings(int count) {
+        HashMap<String, ArrayList<String>> settings = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            SplittableRandom random = new SplittableRandom(mix(~seed - i));
+            ArrayList<String> requires = new ArrayList<>();
+            for (int n = 1 + random.nextInt(3); n > 0; n--) {
+                requires.add(COMPONENTS[random.nextInt(COMPONENTS.length)]);
+            }
+            settings.put(new UUID(random.nextLong(), random.nextLong()).toString(), requires);
+        }
+        return new SettingsAPI(settings);
+    }
+    /**
+     * This method writes a database in the format of the Jukebox feed.
+     * @param size The number of Jukeboxes.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @throws IOException may occur while writing to the stream.
+     * @author Shuzhao Feng
+     */
+    public void writeJukeboxes(int size, OutputStream output) throws IOException {
+        JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16));
+        json.setIndent("  "); // like the real feed
+        ArrayList<String> components = new ArrayList<>();
+        json.beginArray();
+        for (int row = 0; row < size; row++) {
+            String model = jukebox(row, components);
+            json.beginObject().name("id").value(id(row)).name("model").value(model).name("components").beginArray();
+            for (String component : components) json.beginObject().name("name").value(component).endObject();
+            json.endArray().endObject();
+        }
+        json.endArray();
+        json.flush();
+    }
+    /**
+     * This method writes settings in the format of the setting feed.
+     * @param count The number of settings.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @throws IOException may occur while writing to the stream.
+     * @author Shuzhao Feng
+     */
+    public void writeSettings(int count, OutputStream output) throws IOException {
+        JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+        json.setIndent("  ");
+        json.beginObject().name("settings").beginArray();
+        for (Map.Entry<String, ArrayList<String>> e : settings(count).getSettings().entrySet()) {
+            json.beginObject().name("id").value(e.getKey()).name("requires").beginArray();
+            for (String requirement : e.getValue()) json.value(requirement);
+            json.endArray().endObject();
+        }
+        json.endArray().endObject();
+        json.flush();
+    }
+}
@@ -0,0 +1,122 @@
+package project.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import project.object.Fleet;
+import project.service.JukeboxAPI;
+import project.service.SettingsAPI;
+import project.service.Snapshot;
+import project.service.SnapshotFile;
+import project.service.SnapshotLoader;
+/**
+ * This benchmark measures how long a new version of the data takes to be ready: reading the Jukebox feed,
+ * building the indexes of a snapshot, and starting up either from the feed files or from a snapshot file.
+ * The size is set with -p size=N, the feeds are generated once per size.
+ * <br>It has the following methods:
+ * <br><br>{@link IngestionBenchmark#setup()}
+ * <br>{@link IngestionBenchmark#tearDown()}
+ * <br>{@link IngestionBenchmark#readFeed()}
+ * <br>{@link IngestionBenchmark#buildSnapshot()}
+ * <br>{@link IngestionBenchmark#loadFeeds()}
+ * <br>{@link IngestionBenchmark#readSnapshotFile()}
+ * @author Shuzhao Feng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class IngestionBenchmark {
+    @Param({"1000", "100000"})
+    public int size; // number of Jukeboxes
+    private byte[] feed; // the Jukebox feed
+    private SettingsAPI settings; // the settings
+    private Fleet fleet; // the feed, already read
+    private Path file; // a saved snapshot
+    private Path jukes, settingFeed; // the feeds, as files
+    /**
+     * This method generates the feeds and the snapshot file once per size.
+     * @throws IOException may occur while writing the files.
+     * @author Shuzhao Feng
+     */
+    @Setup
+    public void setup() throws IOException {
+        FleetGenerator generator = new FleetGenerator(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        generator.writeJukeboxes(size, out);
+        feed = out.toByteArray();
+        settings = generator.settings(8);
+        fleet = generator.fleet(size);
+        file = Files.createTempFile("jukebox-benchmark", ".bin");
+        SnapshotFile.write(new Snapshot(settings, fleet), file);
+        jukes = Files.createTempFile("jukebox-benchmark", ".json");
+        Files.write(jukes, feed);
+        settingFeed = Files.createTempFile("jukebox-benchmark-settings", ".json");
+        try (OutputStream output = Files.newOutputStream(settingFeed)) {
+            generator.writeSettings(8, output);
+        }
+    }
+    /**
+     * This method deletes the snapshot file and the feeds.
+     * @throws IOException may occur while deleting the files.
+     * @author Shuzhao Feng
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(jukes);
+        Files.deleteIfExists(settingFeed);
+    }
+    /**
+     * Read the Jukebox feed into a fleet.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public Fleet readFeed() throws IOException {
+        Fleet.Builder builder = new Fleet.Builder();
+        JukeboxAPI.readJukeboxes(new ByteArrayInputStream(feed), builder);
+        return builder.build();
+    }
+    /**
+     * Build the indexes and setting bitmaps of a snapshot.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public Snapshot buildSnapshot() {
+        return new Snapshot(settings, fleet);
+    }
+    /**
+     * Start up from the feed files: read both feeds and build the snapshot, as {@link SnapshotLoader} does without a snapshot file.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public Snapshot loadFeeds() throws IOException {
+        return SnapshotLoader.load(jukes.toUri().toURL(), settingFeed.toUri().toURL());
+    }
+    /**
+     * Read a saved snapshot back, as at startup.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public Snapshot readSnapshotFile() throws IOException {
+        return SnapshotFile.read(file);
+    }
+}
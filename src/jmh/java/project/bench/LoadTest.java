@@ -0,0 +1,161 @@
+package project.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+/**
+ * This class replays a mix of id, model and settingid queries against a running application and reports its throughput
+ * and latency percentiles, overall and per kind of query. The queries are drawn from the same {@link FleetGenerator} as the
+ * feeds of a {@link FeedSimulator}, so they ask for Jukeboxes and settings that exist: start the simulator and the application
+ * first, with the same --size, --settings and --seed.
+ * <br>Every thread sends a query, waits for the whole response, and sends the next one. Queries sent during the warmup are not measured.
+ * Only localhost is accepted, so a load test never reaches a shared instance.
+ * <br>Options, all optional: --url (http://localhost:8080/api), --size (100000), --settings (8), --seed (42), --threads (8),
+ * --warmup (seconds, 5), --duration (seconds, 30), --limit (page size of model and setting queries, 100),
+ * --mix (weights of the kinds of queries, id=50,model=30,settingid=20).
+ * <br>It has the following methods:
+ * <br><br>{@link LoadTest#main(String[])}
+ * @author Shuzhao Feng
+ */
+public class LoadTest {
+    private static final double[] PERCENTILES = new double[]{50, 90, 99, 99.9}; // reported for every kind of query
+    /**
+     * The latencies of the queries of one kind sent by one thread, in nanoseconds.
+     * @author Shuzhao Feng
+     */
+    private static class Latencies {
+        private long[] nanos = new long[1024];
+        private int count, errors; // queries measured, and those not answered with 200
+        void add(long latency, boolean ok) {
+            if (count == nanos.length) nanos = Arrays.copyOf(nanos, count * 2);
+            nanos[count++] = latency;
+            if (!ok) errors++;
+        }
+        void addAll(Latencies other) {
+            for (int i = 0; i < other.count; i++) add(other.nanos[i], true);
+            errors += other.errors;
+        }
+    }
+    /**
+     * This method runs a load test from the command line and prints its report.
+     * @param args The options, see {@link LoadTest}.
+     * @throws Exception may occur if a thread fails.
+     * @author Shuzhao Feng
+     */
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:8080/api", mix = "id=50,model=30,settingid=20";
+        int size = 100_000, settings = 8, threads = 8, warmup = 5, duration = 30, limit = 100;
+        long seed = 42;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--url" -> url = args[i + 1];
+                case "--size" -> size = Integer.parseInt(args[i + 1]);
+                case "--settings" -> settings = Integer.parseInt(args[i + 1]);
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                case "--threads" -> threads = Integer.parseInt(args[i + 1]);
+                case "--warmup" -> warmup = Integer.parseInt(args[i + 1]);
+                case "--duration" -> duration = Integer.parseInt(args[i + 1]);
+                case "--limit" -> limit = Integer.parseInt(args[i + 1]);
+                case "--mix" -> mix = args[i + 1];
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        URI base = URI.create(url);
+        if (base.getHost() == null || !InetAddress.getByName(base.getHost()).isLoopbackAddress()) {
+            throw new IllegalArgumentException("Load tests only run against localhost, not " + url);
+        }
+        LinkedHashMap<String, Integer> weights = new LinkedHashMap<>(); // kind of query -> weight
+        for (String entry : mix.split(",")) {
+            String[] pair = entry.split("=");
+            if (pair.length != 2 || !List.of("id", "model", "settingid").contains(pair[0])) {
+                throw new IllegalArgumentException("Invalid mix entry " + entry);
+            }
+            weights.put(pair[0], Integer.parseInt(pair[1]));
+        }
+        FleetGenerator generator = new FleetGenerator(seed);
+        String[] settingIds = generator.settings(settings).getSettings().keySet().toArray(new String[0]);
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        long start = System.nanoTime(), measured = start + warmup * 1_000_000_000L, end = measured + duration * 1_000_000_000L;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Map<String, Latencies>>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            SplittableRandom random = new SplittableRandom(seed + t);
+            int total = weights.values().stream().mapToInt(Integer::intValue).sum(), fleetSize = size, pageSize = limit;
+            futures.add(pool.submit(() -> {
+                LinkedHashMap<String, Latencies> out = new LinkedHashMap<>();
+                for (String kind : weights.keySet()) out.put(kind, new Latencies());
+                byte[] buffer = new byte[1 << 16];
+                while (true) {
+                    long now = System.nanoTime();
+                    if (now >= end) return out;
+                    String kind = null;
+                    for (int pick = random.nextInt(total); kind == null; ) { // draw a kind of query by weight
+                        for (Map.Entry<String, Integer> e : weights.entrySet()) {
+                            if (pick < e.getValue()) {
+                                kind = e.getKey();
+                                break;
+                            }
+                            pick -= e.getValue();
+                        }
+                    }
+                    String query = switch (kind) {
+                        case "id" -> "id=" + generator.id(random.nextInt(fleetSize));
+                        case "model" -> "model=" + FleetGenerator.MODELS[random.nextInt(FleetGenerator.MODELS.length)] + "&limit=" + pageSize;
+                        default -> "settingid=" + settingIds[random.nextInt(settingIds.length)] + "&limit=" + pageSize;
+                    };
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(base + "?" + query)).GET().build();
+                    boolean ok;
+                    try {
+                        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                        try (InputStream body = response.body()) {
+                            while (body.read(buffer) >= 0) ; // the query ends with the last byte of the response
+                        }
+                        ok = response.statusCode() == 200;
+                    } catch (IOException e) {
+                        ok = false;
+                    }
+                    if (now >= measured) out.get(kind).add(System.nanoTime() - now, ok);
+                }
+            }));
+        }
+        LinkedHashMap<String, Latencies> results = new LinkedHashMap<>();
+        Latencies all = new Latencies();
+        for (String kind : weights.keySet()) results.put(kind, new Latencies());
+        for (Future<Map<String, Latencies>> future : futures) {
+            for (Map.Entry<String, Latencies> e : future.get().entrySet()) {
+                results.get(e.getKey()).addAll(e.getValue());
+                all.addAll(e.getValue());
+            }
+        }
+        pool.shutdown();
+        results.put("all", all);
+        System.out.printf("%d threads for %d s against %s%n", threads, duration, url);
+        System.out.printf("%-10s %10s %8s %10s", "query", "count", "errors", "ops/s");
+        for (double p : PERCENTILES) System.out.printf(" %9s", "p" + (p == (int) p ? String.valueOf((int) p) : String.valueOf(p)));
+        System.out.printf(" %9s%n", "max");
+        for (Map.Entry<String, Latencies> e : results.entrySet()) {
+            Latencies latencies = e.getValue();
+            long[] sorted = Arrays.copyOf(latencies.nanos, latencies.count);
+            Arrays.sort(sorted);
+            System.out.printf("%-10s %10d %8d %10.1f", e.getKey(), latencies.count, latencies.errors, latencies.count / (double) duration);
+            for (double p : PERCENTILES) {
+                System.out.printf(" %7.2fms", sorted.length == 0 ? 0 : sorted[(int) Math.ceil(p / 100 * sorted.length) - 1] / 1e6);
+            }
+            System.out.printf(" %7.2fms%n", sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+        }
+    }
+}
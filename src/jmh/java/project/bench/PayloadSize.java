@@ -0,0 +1,62 @@
+package project.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import project.object.Jukebox;
+import project.service.BinaryFormat;
+import project.service.JukeboxAPI;
+/**
+ * This class prints the size of pages of a generated database in every response format, raw and compressed with gzip,
+ * to compare payloads; the time spent writing them is measured by {@link SerializationBenchmark}.
+ * <br>Options, all optional: --size (200000), --seed (42), --limit (page sizes, comma separated, 10,1000,100000).
+ * <br>It has the following methods:
+ * <br><br>{@link PayloadSize#main(String[])}
+ * @author Shuzhao Feng
+ */
+public class PayloadSize {
+    /**
+     * This method writes the pages from the command line and prints their sizes.
+     * @param args The options, see {@link PayloadSize}.
+     * @throws IOException never thrown by an array.
+     * @author Shuzhao Feng
+     */
+    public static void main(String[] args) throws IOException {
+        int size = 200_000;
+        long seed = 42;
+        String limits = "10,1000,100000";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--size" -> size = Integer.parseInt(args[i + 1]);
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                case "--limit" -> limits = args[i + 1];
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        List<Jukebox> result = new FleetGenerator(seed).fleet(size).asList();
+        System.out.printf("%8s %-8s %12s %12s %10s %10s%n", "limit", "format", "bytes", "gzip", "per box", "vs json");
+        for (String limit : limits.split(",")) {
+            List<Jukebox> page = result.subList(0, Math.min(Integer.parseInt(limit.trim()), result.size()));
+            ByteArrayOutputStream json = new ByteArrayOutputStream(), ndjson = new ByteArrayOutputStream(), binary = new ByteArrayOutputStream();
+            JukeboxAPI.writeJSON(page, json);
+            JukeboxAPI.writeNDJSON(page, ndjson);
+            BinaryFormat.writeList(page, binary);
+            print(page.size(), "json", json.toByteArray(), json.size());
+            print(page.size(), "ndjson", ndjson.toByteArray(), json.size());
+            print(page.size(), "binary", binary.toByteArray(), json.size());
+        }
+    }
+    /**
+     * This method prints the size of a response, raw and compressed.
+     * @author Shuzhao Feng
+     */
+    private static void print(int boxes, String format, byte[] body, int json) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(body);
+        }
+        System.out.printf("%8d %-8s %12d %12d %10.1f %9.0f%%%n", boxes, format, body.length, compressed.size(),
+                boxes == 0 ? 0 : body.length / (double) boxes, 100.0 * body.length / json);
+    }
+}
@@ -0,0 +1,161 @@
+package project.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import project.object.Jukebox;
+import project.query.Query;
+import project.query.QueryEngine;
+import project.query.QueryResult;
+import project.service.JukeboxAPI;
+import project.service.Snapshot;
+/**
+ * This benchmark measures the searches of {@link JukeboxAPI} and the {@link QueryEngine} over a generated database.
+ * The size is set with -p size=N, from 1000 to 10000000 (the largest sizes need -jvmArgs -Xmx4g).
+ * <br>It has the following methods:
+ * <br><br>{@link QueryBenchmark#setup()}
+ * <br>{@link QueryBenchmark#filterById()}
+ * <br>{@link QueryBenchmark#filterByModel()}
+ * <br>{@link QueryBenchmark#filterByComponent()}
+ * <br>{@link QueryBenchmark#filterByComponents()}
+ * <br>{@link QueryBenchmark#settingId()}
+ * <br>{@link QueryBenchmark#filter()}
+ * <br>{@link QueryBenchmark#query()}
+ * <br>{@link QueryBenchmark#batch()}
+ * <br>{@link QueryBenchmark#oneByOne()}
+ * @author Shuzhao Feng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class QueryBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size; // number of Jukeboxes
+    private JukeboxAPI api; // database under test
+    private QueryEngine engine; // planner under test
+    private String[] ids; // IDs looked up in turn, some of them unknown
+    private int next; // next ID to look up
+    private String setting; // setting looked up
+    private HashMap<String, Integer> requirement; // requirement looked up
+    private ArrayList<Jukebox> byModel, bySetting; // lists intersected
+    private Query query; // a typical query of the endpoint
+    private List<Query> batch; // a typical sync cycle
+    /**
+     * This method generates the database once per size.
+     * @author Shuzhao Feng
+     */
+    @Setup
+    public void setup() {
+        FleetGenerator generator = new FleetGenerator(42);
+        api = new JukeboxAPI(new Snapshot(generator.settings(8), generator.fleet(size)));
+        engine = new QueryEngine(api);
+        SplittableRandom random = new SplittableRandom(7);
+        ids = new String[1024];
+        for (int i = 0; i < ids.length; i++) ids[i] = i % 8 == 0 ? "unknown" + i : generator.id(random.nextInt(size));
+        setting = new TreeSet<>(api.getSettings().getSettings().keySet()).first();
+        requirement = new HashMap<>();
+        requirement.put("pcb", 2);
+        requirement.put("camera", 1);
+        byModel = api.filterByModel("fusion");
+        bySetting = api.settingId(setting);
+        query = new Query(null, new String[]{"fusion", "virtuo"}, setting, null, 20, 50);
+        batch = new ArrayList<>();
+        TreeSet<String> settings = new TreeSet<>(api.getSettings().getSettings().keySet());
+        for (String model : FleetGenerator.MODELS) {
+            for (String s : settings) batch.add(new Query(null, new String[]{model}, s, null, 0, 50));
+        }
+    }
+    /**
+     * Look up a Jukebox by ID.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public Jukebox filterById() {
+        return api.filterById(ids[next++ & 1023]);
+    }
+    /**
+     * List all Jukeboxes of a model.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public ArrayList<Jukebox> filterByModel() {
+        return api.filterByModel("fusion");
+    }
+    /**
+     * List all Jukeboxes owning a component, a full scan.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public ArrayList<Jukebox> filterByComponent() {
+        return api.filterByComponent("speaker");
+    }
+    /**
+     * List all Jukeboxes meeting a requirement.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public ArrayList<Jukebox> filterByComponents() {
+        return api.filterByComponents(requirement);
+    }
+    /**
+     * List all Jukeboxes supporting a setting.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public ArrayList<Jukebox> settingId() {
+        return api.settingId(setting);
+    }
+    /**
+     * Intersect two search results.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public ArrayList<Jukebox> filter() {
+        return JukeboxAPI.filter(byModel, bySetting);
+    }
+    /**
+     * Plan and run a query with two models, a setting and a page.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public int query() {
+        QueryResult result = engine.run(query);
+        return result.size() + result.page().size();
+    }
+    /**
+     * Plan and run a batch of queries, one per model and setting.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public List<QueryResult> batch() {
+        return engine.run(batch, api.getSnapshot());
+    }
+    /**
+     * Plan and run the queries of the batch one by one, without sharing any work.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public List<QueryResult> oneByOne() {
+        Snapshot snapshot = api.getSnapshot();
+        ArrayList<QueryResult> out = new ArrayList<>(batch.size());
+        for (Query q : batch) out.add(engine.run(q, snapshot));
+        return out;
+    }
+}
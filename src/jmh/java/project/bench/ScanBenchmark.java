@@ -0,0 +1,81 @@
+package project.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import project.object.Fleet;
+import project.object.NameDictionary;
+import project.service.FleetScan;
+/**
+ * This benchmark measures how a {@link FleetScan} of a generated database scales with its threads.
+ * The size is set with -p size=N, the threads with -p parallelism=T. Threads beyond the cores of the machine only show the cost of splitting.
+ * <br>It has the following methods:
+ * <br><br>{@link ScanBenchmark#setup()}
+ * <br>{@link ScanBenchmark#tearDown()}
+ * <br>{@link ScanBenchmark#scan()}
+ * <br>{@link ScanBenchmark#filter()}
+ * @author Shuzhao Feng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ScanBenchmark {
+    @Param({"1000000"})
+    public int size; // number of Jukeboxes
+    @Param({"1", "4", "16"})
+    public int parallelism; // threads of the scanner
+    private FleetScan scan; // scanner under test
+    private IntPredicate test; // a requirement no index answers alone
+    private int[] candidates; // every other row
+    /**
+     * This method generates the database once per size, and starts the scanner.
+     * @author Shuzhao Feng
+     */
+    @Setup
+    public void setup() {
+        Fleet fleet = new FleetGenerator(42).fleet(size);
+        int camera = NameDictionary.find("camera"), speaker = NameDictionary.find("speaker");
+        test = row -> fleet.count(row, camera) >= 1 && fleet.count(row, speaker) >= 1;
+        candidates = new int[size / 2];
+        for (int i = 0; i < candidates.length; i++) candidates[i] = 2 * i;
+        scan = new FleetScan(parallelism, 0);
+    }
+    /**
+     * This method stops the workers of the scanner.
+     * @author Shuzhao Feng
+     */
+    @TearDown
+    public void tearDown() {
+        scan.close();
+    }
+    /**
+     * Test every row of the database.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public int[] scan() {
+        return scan.scan(size, test);
+    }
+    /**
+     * Test a list of candidate rows.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public int[] filter() {
+        return scan.filter(candidates, test);
+    }
+}
@@ -0,0 +1,107 @@
+package project.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import project.object.Jukebox;
+import project.service.BinaryFormat;
+import project.service.JukeboxAPI;
+/**
+ * This benchmark measures pagination and serialization of search results, for pages of a generated database.
+ * The page size is set with -p limit=N. Sizes of the pages in every format are printed by {@link PayloadSize}.
+ * <br>It has the following methods:
+ * <br><br>{@link SerializationBenchmark#setup(Blackhole)}
+ * <br>{@link SerializationBenchmark#page()}
+ * <br>{@link SerializationBenchmark#toJSONString()}
+ * <br>{@link SerializationBenchmark#writeJSON()}
+ * <br>{@link SerializationBenchmark#writeNDJSON()}
+ * <br>{@link SerializationBenchmark#writeBinary()}
+ * @author Shuzhao Feng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int limit; // number of Jukeboxes of the page
+    private ArrayList<Jukebox> result; // search result to paginate
+    private ArrayList<Jukebox> page; // page to serialize
+    private OutputStream sink; // response stream, discards everything
+    /**
+     * This method generates a search result once per page size.
+     * @param blackhole Consumes the bytes written, so that writes are not optimized away.
+     * @author Shuzhao Feng
+     */
+    @Setup
+    public void setup(Blackhole blackhole) {
+        result = new ArrayList<>(new FleetGenerator(42).fleet(200_000).asList());
+        page = new ArrayList<>(JukeboxAPI.page(result, 50, limit));
+        sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+                blackhole.consume(b);
+            }
+            @Override
+            public void write(byte[] b, int off, int len) {
+                blackhole.consume(b);
+            }
+        };
+    }
+    /**
+     * Crop a search result to the page, what cropByLimit used to do.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public List<Jukebox> page() {
+        return JukeboxAPI.page(result, 50, limit);
+    }
+    /**
+     * Convert the page to Json strings, one per Jukebox.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public ArrayList<String> toJSONString() {
+        return JukeboxAPI.toJSONString(page);
+    }
+    /**
+     * Stream the page as a Json array.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public void writeJSON() throws IOException {
+        JukeboxAPI.writeJSON(page, sink);
+    }
+    /**
+     * Stream the page as newline-delimited Json.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public void writeNDJSON() throws IOException {
+        JukeboxAPI.writeNDJSON(page, sink);
+    }
+    /**
+     * Stream the page in the compact binary format.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public void writeBinary() throws IOException {
+        BinaryFormat.writeList(page, sink);
+    }
+}
@@ -0,0 +1,96 @@
+package project.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import project.object.Jukebox;
+import project.service.FleetIndex;
+import project.service.JukeboxAPI;
+import project.service.SettingsAPI;
+import project.service.Snapshot;
+/**
+ * This benchmark compares the three ways of finding the Jukeboxes supporting a setting over a generated database:
+ * a plain scan of the Jukeboxes, the posting lists of the component index, and the precomputed setting bitmaps.
+ * Every call looks up the next setting in turn. The size is set with -p size=N, the memory allocated per query is shown by -prof gc.
+ * <br>It has the following methods:
+ * <br><br>{@link SettingBenchmark#setup()}
+ * <br>{@link SettingBenchmark#scan()}
+ * <br>{@link SettingBenchmark#index()}
+ * <br>{@link SettingBenchmark#bitmap()}
+ * @author Shuzhao Feng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SettingBenchmark {
+    @Param({"200000"})
+    public int size; // number of Jukeboxes
+    private JukeboxAPI api; // database under test
+    private List<Jukebox> boxes; // the Jukeboxes, scanned in order
+    private FleetIndex index; // component index of the database
+    private SettingsAPI settings; // the settings looked up
+    private String[] ids; // setting IDs, looked up in turn
+    private int next; // next setting to look up
+    /**
+     * This method generates the database once per size.
+     * @author Shuzhao Feng
+     */
+    @Setup
+    public void setup() {
+        FleetGenerator generator = new FleetGenerator(11);
+        settings = generator.settings(16);
+        api = new JukeboxAPI(new Snapshot(settings, generator.fleet(size)));
+        boxes = api.getJukeboxes();
+        index = api.getIndex();
+        ids = settings.getSettings().keySet().toArray(new String[0]);
+    }
+    /**
+     * Find the Jukeboxes of a setting by comparing the components of every Jukebox with its requirements.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public ArrayList<Jukebox> scan() {
+        HashMap<String, Integer> whatWeNeed = settings.getHashedRequires(ids[next++ % ids.length]);
+        ArrayList<Jukebox> out = new ArrayList<>();
+        for (Jukebox box : boxes) {
+            HashMap<String, Integer> whatWeHave = box.getHashedComponents();
+            boolean valid = true;
+            for (String key : whatWeNeed.keySet()) {
+                if (whatWeHave.get(key) == null || whatWeHave.get(key) < whatWeNeed.get(key)) valid = false;
+            }
+            if (valid) out.add(box);
+        }
+        return out;
+    }
+    /**
+     * Find the Jukeboxes of a setting by intersecting the posting lists of its requirements.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public ArrayList<Jukebox> index() {
+        return index.toJukeboxes(index.match(settings.getHashedRequires(ids[next++ % ids.length])));
+    }
+    /**
+     * Find the Jukeboxes of a setting from its precomputed bitmap.
+     * @author Shuzhao Feng
+     */
+    @Benchmark
+    public ArrayList<Jukebox> bitmap() {
+        return api.settingId(ids[next++ % ids.length]);
+    }
+}
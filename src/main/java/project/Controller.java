@@ -1,153 +1,537 @@
 package project;
 
+import com.google.gson.stream.JsonWriter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import project.object.Jukebox;
+import project.query.Facets;
+import project.query.Query;
+import project.query.QueryCache;
+import project.query.QueryEngine;
+import project.query.QueryParameters;
+import project.query.QueryResult;
+import project.service.BinaryFormat;
+import project.service.ChangeFeed;
+import project.service.ComponentChange;
 import project.service.JukeboxAPI;
+import project.service.ShardCoordinator;
+import project.service.Snapshot;
+import javax.servlet.http.HttpServletResponse;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
 /**
  * The Controller class serves as the main controller for the API program.
- * All query parameters received will be taken by the controller and sent to {@link JukeboxAPI}
- * for processing result. The result will be returned to the controller who will send the result through the endpoint.
+ * All query parameters received will be taken by the controller, normalized into a {@link Query} and sent to {@link QueryEngine}
+ * for processing result. Results are cached by {@link QueryCache} until the data changes. The result will be returned to the controller who will stream the requested page of the result through the endpoint.
+ * Handlers are timed by Spring as http.server.requests, and the bytes of every response body are recorded in jukebox.response.size,
+ * tagged with the endpoint and whether the body came from the cache. Metrics are served at /actuator/prometheus.
+ * Query responses carry an entity tag made of the version of the data and the normalized query, so a client sending it back
+ * gets a 304 without the query being run, and cached responses are sent compressed to clients accepting gzip.
+ * Clients asking for {@link BinaryFormat#MEDIA_TYPE} in their Accept header get Jukeboxes in that compact format instead of Json.
+ * When the database is split between shards, every node answers its part of a query, and the {@link ShardCoordinator} answers the whole query.
+ * Devices can subscribe to the changes of the settings they support, pushed by the {@link ChangeFeed} as Server-Sent Events, instead of polling for them.
  * It contains the following methods:
- * <br><br>{@link Controller#Controller(JukeboxAPI)}
- * <br>{@link Controller#cropByLimit(String, int)}
- * <br>{@link Controller#init(Integer, Integer)}
- * <br>And a series of similar methods treating query parameters (I could've merged them into 1 big method, but I feel like it wouldn't be too readable)
+ * <br><br>{@link Controller#Controller(JukeboxAPI, QueryEngine, QueryCache, ShardCoordinator, ChangeFeed, MeterRegistry)}
+ * <br>{@link Controller#query(String[], String[], String[], String, String[], Integer, Integer, boolean, String, String, String, HttpServletResponse)}
+ * <br>{@link Controller#batch(List, String, HttpServletResponse)}
+ * <br>{@link Controller#export(String[], String[], String[], String, String[], Integer, Integer)}
+ * <br>{@link Controller#shard(String[], String[], String[], String, String[], Integer, Integer, HttpServletResponse)}
+ * <br>{@link Controller#cluster(String[], String[], String[], String, String[], Integer, Integer, HttpServletResponse)}
+ * <br>{@link Controller#facets(String[], String[], String[], String, String[], String[], HttpServletResponse)}
+ * <br>{@link Controller#patch(List, HttpServletResponse)}
+ * <br>{@link Controller#settings(String[], HttpServletResponse)}
+ * <br>{@link Controller#settings(List, HttpServletResponse)}
+ * <br>{@link Controller#changes(String[], String[], String[])}
  * @author Shuzhao Feng
  */
 @SpringBootApplication
+@EnableScheduling
 @RestController
 @RequestMapping(path="/api")
 public class Controller {
     private final JukeboxAPI api;
+    private final QueryEngine engine;
+    private final QueryCache cache;
+    private final ShardCoordinator coordinator;
+    private final ChangeFeed changes;
+    private final MeterRegistry registry; // where response sizes are recorded
+    private static final MediaType BINARY = MediaType.valueOf(BinaryFormat.MEDIA_TYPE);
     /**
      * This is the constructor for the {@link Controller} class.
-     * It is autowired with a JukeboxAPI object that will be automatically instantiated once started.
+     * It is autowired with a JukeboxAPI object, a QueryEngine object, a QueryCache object, a ShardCoordinator object, a ChangeFeed object and a MeterRegistry object that will be automatically instantiated once started.
      * @param api Jukebox API, used to manipulate data and do selections.
+     * @param engine Query engine, used to plan and run queries on the Jukebox API.
+     * @param cache Query cache, used to answer repeated queries without running them.
+     * @param coordinator Shard coordinator, used to answer queries over all shards.
+     * @param changes Change feed, used to push the changes of setting compatibility to subscribers.
+     * @param registry Meter registry, used to record the size of the responses.
      * @author Shuzhao Feng
      */
     @Autowired
-    public Controller(JukeboxAPI api) {
+    public Controller(JukeboxAPI api, QueryEngine engine, QueryCache cache, ShardCoordinator coordinator, ChangeFeed changes, MeterRegistry registry) {
         this.api = api;
+        this.cache = cache;
+        this.engine = engine;
+        this.coordinator = coordinator;
+        this.changes = changes;
+        this.registry = registry;
     }
     /**
-     * This method crops a String by a line number limit. Everything above the line limit will be deleted.
-     * @param s The initial String.
-     * @param limit Line limit.
-     * @return Lines 1 to limit of the initial String.
+     * This method finds the distribution of the response sizes of an endpoint.
      * @author Shuzhao Feng
      */
-    private static String cropByLimit(String s, int limit){
-        if (s.lines().count() > limit){ // if the number of lines exceeds the limit
-            Object[] obj = s.lines().toArray(); // separate the String into array
-            String[] temp = new String[obj.length]; // create a temporary array of Strings (as direct downcast is not allowed)
-            for (int i = 0; i < obj.length; i++) { // downcast every object into String
-                temp[i] = (String) obj[i];
-            }
-            s = ""; // empty String
-            for (int i =0; i < limit-1; i++){ // concatenate everything back to the String up to the limit
-                s = s.concat(temp[i]+"\n");
+    private DistributionSummary size(String endpoint, String cached) {
+        return DistributionSummary.builder("jukebox.response.size").description("Size of a response body").baseUnit("bytes")
+                .tag("endpoint", endpoint).tag("cache", cached).publishPercentileHistogram().register(registry);
+    }
+    /**
+     * A stream counting the bytes written through it, to record the size of a response without holding it.
+     * @author Shuzhao Feng
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count; // number of bytes written so far
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len); // not one byte at a time like FilterOutputStream
+            count += len;
+        }
+    }
+    /**
+     * This method checks whether an If-None-Match header holds an entity tag, comparing tags weakly.
+     * @author Shuzhao Feng
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(opaque)) return true;
+        }
+        return false;
+    }
+    /**
+     * This method checks whether an Accept-Encoding header accepts a content coding, i.e. names it (or *) without a zero quality.
+     * @author Shuzhao Feng
+     */
+    private static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) return false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] fields = part.split(";");
+            String name = fields[0].trim().toLowerCase(Locale.ROOT);
+            if (!name.equals(coding) && !name.equals("*")) continue;
+            for (int i = 1; i < fields.length; i++) {
+                if (fields[i].trim().matches("q=0(\\.0*)?")) return false; // explicitly refused
             }
-            s = s.concat(temp[limit-1]); // concatenate last line without line break
-        } // if the number of lines doesn't exceed the limit, do nothing
-        return s;
+            return true;
+        }
+        return false;
     }
     /**
-     * This method is one of the methods to support query parameters on the endpoint.
-     * @return A Json-format list of all Jukeboxes that satisfies the query parameters, converted to a single String.
+     * This method checks whether an Accept header prefers {@link BinaryFormat#MEDIA_TYPE} to Json. The binary format must be named,
+     * wildcards and invalid headers get Json, and among the types accepted the one of highest quality wins.
+     * @author Shuzhao Feng
+     */
+    private static boolean binary(String accept) {
+        if (accept == null || !accept.contains(BinaryFormat.MEDIA_TYPE)) return false; // usual case, not parsed
+        List<MediaType> types;
+        try {
+            types = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+        MediaType.sortByQualityValue(types);
+        for (MediaType type : types) {
+            if (type.getQualityValue() == 0) continue; // explicitly refused
+            if (type.equalsTypeAndSubtype(BINARY)) return true;
+            if (type.includes(MediaType.APPLICATION_JSON)) return false;
+        }
+        return false;
+    }
+    /**
+     * This method supports every combination of query parameters on the endpoint. All parameters are optional,
+     * and a Jukebox must meet all of them to be part of the result.
+     * The Json-format list of all Jukeboxes that satisfies the query parameters is streamed to the response,
+     * in the compact {@link BinaryFormat} if the client prefers it (binary responses are not cached, they are cheap to write),
+     * or, if explain is true, the plan chosen by the {@link QueryEngine} with the time spent in each stage.
+     * @param id IDs looking for.
+     * @param model Models looking for.
+     * @param settingId Setting IDs looking for.
+     * @param settingMatch "all" if a Jukebox must support all settings, "any" if one of them is enough, all if absent.
+     * @param component Components looking for, either "name" (at least one) or "name:count" (at least count).
+     * @param offset Number of Jukeboxes to skip, 0 if absent.
+     * @param limit Maximum number of Jukeboxes to send, no limit if absent.
+     * @param explain Whether to send the query plan instead of the Jukeboxes.
+     * @param ifNoneMatch Entity tags of the responses the client holds, see {@link Query#etag(String)}.
+     * @param acceptEncoding Content codings accepted by the client, cached responses are sent compressed if it accepts gzip.
+     * @param accept Media types accepted by the client, Json unless it prefers {@link BinaryFormat#MEDIA_TYPE}.
+     * @param response The response to write to.
+     * @throws IOException may occur while writing the response.
      * @author Shuzhao Feng
      */
     @GetMapping()
-    @ResponseBody
-    public String init(@RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit) {
-        if (offset == null) offset = 0; // prevent NPException
-        if (limit == null) limit = (int) Double.POSITIVE_INFINITY;
-        return Controller.cropByLimit("\n".repeat(offset)+JukeboxAPI.toJSONString(api.getJukeboxes()).toString(), limit);
+    public void query(@RequestParam(required = false) String[] id, @RequestParam(required = false) String[] model,
+                      @RequestParam(value = "settingid", required = false) String[] settingId,
+                      @RequestParam(value = "settingmatch", required = false) String settingMatch, @RequestParam(required = false) String[] component,
+                      @RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit,
+                      @RequestParam(defaultValue = "false") boolean explain, @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+                      @RequestHeader(value = "Accept-Encoding", required = false) String acceptEncoding,
+                      @RequestHeader(value = "Accept", required = false) String accept, HttpServletResponse response) throws IOException {
+        Query query;
+        try {
+            query = new Query(id, model, settingId, settingMatch, component, offset, limit); // normalize the parameters
+        } catch (IllegalArgumentException e) { // invalid component count or setting match
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        Snapshot snapshot = api.getSnapshot(); // read once, the whole request uses this version of the data
+        if (explain) { // send the plan only, never cached
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            engine.run(query, snapshot).writePlan(response.getOutputStream());
+            return;
+        }
+        long version = snapshot.getVersion(); // the result is tagged with the data it was computed from
+        boolean binary = binary(accept);
+        String etag = query.etag(snapshot.getTag(), binary ? "binary" : null);
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", "no-cache"); // clients may keep the response, but check it on every request
+        response.setHeader("Vary", "Accept, Accept-Encoding");
+        if (matches(ifNoneMatch, etag)) { // the client already holds this response, nothing is run
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            size("query", "not-modified").record(0);
+            return;
+        }
+        if (binary) { // compact response for devices, names are sent once
+            response.setContentType(BinaryFormat.MEDIA_TYPE);
+            CountingOutputStream counter = new CountingOutputStream(response.getOutputStream());
+            BinaryFormat.writeList(engine.run(query, snapshot).page(), counter);
+            size("query", "binary").record(counter.count);
+            return;
+        }
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        boolean gzip = accepts(acceptEncoding, "gzip");
+        byte[] body = gzip ? cache.getCompressed(query, version) : cache.get(query, version);
+        if (body != null) { // repeated query, send the cached response as it is
+            if (gzip) response.setHeader("Content-Encoding", "gzip");
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+            size("query", "hit").record(body.length);
+            return;
+        }
+        CountingOutputStream counter = new CountingOutputStream(response.getOutputStream());
+        try (OutputStream output = cache.record(query, version, counter)) {
+            JukeboxAPI.writeJSON(engine.run(query, snapshot).page(), output); // only the page is looked up and written
+        }
+        size("query", "miss").record(counter.count);
     }
     /**
-     * This method is one of the methods to support query parameters on the endpoint.
-     * @return A Json-format list of all Jukeboxes that satisfies the query parameters, converted to a single String.
+     * This method exports the result of a query as newline-delimited Json, one Jukebox per line, e.g. to dump the whole database.
+     * The query is run right away on the current snapshot, then the Jukeboxes are written one at a time
+     * on a thread of the Spring task executor, so the servlet thread is released for other requests.
+     * The writer waits for a slow client instead of buffering for it, so memory stays the same whatever the size of the export.
+     * @param id IDs looking for.
+     * @param model Models looking for.
+     * @param settingId Setting IDs looking for.
+     * @param settingMatch "all" if a Jukebox must support all settings, "any" if one of them is enough, all if absent.
+     * @param component Components looking for, either "name" (at least one) or "name:count" (at least count).
+     * @param offset Number of Jukeboxes to skip, 0 if absent.
+     * @param limit Maximum number of Jukeboxes to send, no limit if absent.
+     * @return The body, written once the servlet thread is released.
      * @author Shuzhao Feng
      */
-    @GetMapping(params = "id")
-    @ResponseBody
-    public String id(@RequestParam(value = "id") String[] id, @RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit){
-        if (offset == null) offset = 0; // prevent NPException
-        if (limit == null) limit = (int) Double.POSITIVE_INFINITY;
-        return Controller.cropByLimit("\n".repeat(offset)+api.filterById(new ArrayList<>(Arrays.asList(id))).toString(), limit);
+    @GetMapping(path="/export", produces="application/x-ndjson")
+    public StreamingResponseBody export(@RequestParam(required = false) String[] id, @RequestParam(required = false) String[] model,
+                                        @RequestParam(value = "settingid", required = false) String[] settingId,
+                                        @RequestParam(value = "settingmatch", required = false) String settingMatch, @RequestParam(required = false) String[] component,
+                                        @RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit) {
+        Query query;
+        try {
+            query = new Query(id, model, settingId, settingMatch, component, offset, limit); // normalize the parameters
+        } catch (IllegalArgumentException e) { // invalid component count or setting match
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        QueryResult result = engine.run(query, api.getSnapshot()); // the whole export uses this version of the data
+        return output -> {
+            CountingOutputStream counter = new CountingOutputStream(output);
+            try {
+                JukeboxAPI.writeNDJSON(result.page(), counter);
+            } finally { // also the part written before a client went away
+                size("export", "none").record(counter.count);
+            }
+        };
     }
     /**
-     * This method is one of the methods to support query parameters on the endpoint.
-     * @return A Json-format list of all Jukeboxes that satisfies the query parameters, converted to a single String.
+     * This method answers the part of a query held by this node, when the database is split between shards, for a {@link ShardCoordinator}.
+     * Jukeboxes are written one per line with their position in the feed, see {@link ShardCoordinator#writeShard(List, OutputStream)}.
+     * @param id IDs looking for.
+     * @param model Models looking for.
+     * @param settingId Setting IDs looking for.
+     * @param settingMatch "all" if a Jukebox must support all settings, "any" if one of them is enough, all if absent.
+     * @param component Components looking for, either "name" (at least one) or "name:count" (at least count).
+     * @param offset Number of Jukeboxes to skip, 0 if absent.
+     * @param limit Maximum number of Jukeboxes to send, no limit if absent.
+     * @param response The response to write to.
+     * @throws IOException may occur while writing the response.
      * @author Shuzhao Feng
      */
-    @GetMapping(params = "settingid")
-    @ResponseBody
-    public String settingId(@RequestParam(value = "settingid") String id, @RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit){
-        if (offset == null) offset = 0; // prevent NPException
-        if (limit == null) limit = (int) Double.POSITIVE_INFINITY;
-        return Controller.cropByLimit("\n".repeat(offset)+JukeboxAPI.toJSONString(api.settingId(id)).toString(), limit);
+    @GetMapping(path="/shard")
+    public void shard(@RequestParam(required = false) String[] id, @RequestParam(required = false) String[] model,
+                      @RequestParam(value = "settingid", required = false) String[] settingId,
+                      @RequestParam(value = "settingmatch", required = false) String settingMatch, @RequestParam(required = false) String[] component,
+                      @RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit,
+                      HttpServletResponse response) throws IOException {
+        Query query;
+        try {
+            query = new Query(id, model, settingId, settingMatch, component, offset, limit); // normalize the parameters
+        } catch (IllegalArgumentException e) { // invalid component count or setting match
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        response.setContentType(ShardCoordinator.MEDIA_TYPE);
+        CountingOutputStream counter = new CountingOutputStream(response.getOutputStream());
+        ShardCoordinator.writeShard(engine.run(query, api.getSnapshot()).page(), counter);
+        size("shard", "none").record(counter.count);
     }
     /**
-     * This method is one of the methods to support query parameters on the endpoint.
-     * @return A Json-format list of all Jukeboxes that satisfies the query parameters, converted to a single String.
+     * This method answers a query over all shards, when the database is split between several nodes: the query is sent to the shards
+     * that may hold part of its result, and their results are merged in feed order, see {@link ShardCoordinator}.
+     * The response is the Json-format list a single node holding the whole database would send to {@link Controller#query}.
+     * It is not cached, and a shard that cannot answer fails the query with 502.
+     * @param id IDs looking for, only sent to the shards owning them.
+     * @param model Models looking for.
+     * @param settingId Setting IDs looking for.
+     * @param settingMatch "all" if a Jukebox must support all settings, "any" if one of them is enough, all if absent.
+     * @param component Components looking for, either "name" (at least one) or "name:count" (at least count).
+     * @param offset Number of Jukeboxes to skip, 0 if absent.
+     * @param limit Maximum number of Jukeboxes to send, no limit if absent.
+     * @param response The response to write to.
+     * @throws IOException may occur while writing the response.
      * @author Shuzhao Feng
      */
-    @GetMapping(params = "model")
-    @ResponseBody
-    public String model(@RequestParam(value = "model") String[] model, @RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit){
-        if (offset == null) offset = 0; // prevent NPException
-        if (limit == null) limit = (int) Double.POSITIVE_INFINITY;
-        return Controller.cropByLimit("\n".repeat(offset)+JukeboxAPI.toJSONString(api.filterByModel(new ArrayList<>(Arrays.asList(model)))).toString(), limit);
+    @GetMapping(path="/cluster")
+    public void cluster(@RequestParam(required = false) String[] id, @RequestParam(required = false) String[] model,
+                        @RequestParam(value = "settingid", required = false) String[] settingId,
+                        @RequestParam(value = "settingmatch", required = false) String settingMatch, @RequestParam(required = false) String[] component,
+                        @RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit,
+                        HttpServletResponse response) throws IOException {
+        if (!coordinator.isEnabled()) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No shard is set, see jukebox.shard.nodes");
+        Query query;
+        try {
+            query = new Query(id, model, settingId, settingMatch, component, offset, limit); // normalize the parameters
+        } catch (IllegalArgumentException e) { // invalid component count or setting match
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        List<InputStream> shards;
+        try {
+            shards = coordinator.scatter(query); // nothing is written before every shard answers
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, e.getMessage());
+        }
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        CountingOutputStream counter = new CountingOutputStream(response.getOutputStream());
+        ShardCoordinator.gather(shards, query.getOffset(), query.getLimit(), counter);
+        size("cluster", "none").record(counter.count);
+    }
+    /**
+     * This method counts the Jukeboxes that satisfy the query parameters by model, by component and by supported setting,
+     * without sending any Jukebox. The counts are computed from row numbers and from the index, see {@link Facets}.
+     * @param id IDs looking for.
+     * @param model Models looking for.
+     * @param settingId Setting IDs looking for.
+     * @param settingMatch "all" if a Jukebox must support all settings, "any" if one of them is enough, all if absent.
+     * @param component Components looking for, either "name" (at least one) or "name:count" (at least count).
+     * @param facet Facets to count, among model, component and setting, all of them if absent.
+     * @param response The response to write to.
+     * @throws IOException may occur while writing the response.
+     * @author Shuzhao Feng
+     */
+    @GetMapping(path="/facets")
+    public void facets(@RequestParam(required = false) String[] id, @RequestParam(required = false) String[] model,
+                       @RequestParam(value = "settingid", required = false) String[] settingId,
+                       @RequestParam(value = "settingmatch", required = false) String settingMatch, @RequestParam(required = false) String[] component,
+                       @RequestParam(required = false) String[] facet, HttpServletResponse response) throws IOException {
+        Snapshot snapshot = api.getSnapshot(); // read once, the counts use this version of the data
+        Facets facets;
+        try {
+            Query query = new Query(id, model, settingId, settingMatch, component, null, null); // normalize the parameters
+            facets = new Facets(snapshot, engine.run(query, snapshot), facet == null ? Facets.FACETS : new LinkedHashSet<>(Arrays.asList(facet)));
+        } catch (IllegalArgumentException e) { // invalid component count, setting match or facet
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        CountingOutputStream counter = new CountingOutputStream(response.getOutputStream());
+        facets.writeJSON(counter);
+        size("facets", "none").record(counter.count);
+    }
+    /**
+     * This method answers a batch of queries at once, on a single version of the data. Queries are run together by the
+     * {@link QueryEngine}, so predicates shared by several queries are evaluated once.
+     * The response is a Json object mapping the key of every query to the requested page of its result,
+     * or named lists in the compact {@link BinaryFormat} if the client prefers it.
+     * @param batch The queries, each with the parameters of {@link Controller#query}. See {@link QueryParameters}.
+     * @param accept Media types accepted by the client, Json unless it prefers {@link BinaryFormat#MEDIA_TYPE}.
+     * @param response The response to write to.
+     * @throws IOException may occur while writing the response.
+     * @author Shuzhao Feng
+     */
+    @PostMapping()
+    public void batch(@RequestBody List<QueryParameters> batch, @RequestHeader(value = "Accept", required = false) String accept,
+                      HttpServletResponse response) throws IOException {
+        LinkedHashMap<String, Query> queries = new LinkedHashMap<>(); // key -> query, in request order
+        try {
+            for (QueryParameters parameters : batch) {
+                if (parameters == null) throw new IllegalArgumentException("Missing query");
+                Query query = parameters.toQuery(); // normalize the parameters
+                String key = parameters.key() == null ? query.key() : parameters.key();
+                Query other = queries.putIfAbsent(key, query);
+                if (other != null && !other.equals(query)) throw new IllegalArgumentException("Two different queries share the key " + key);
+            }
+        } catch (IllegalArgumentException e) { // invalid component count or key
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        Snapshot snapshot = api.getSnapshot(); // read once, the whole batch uses this version of the data
+        List<QueryResult> results = engine.run(new ArrayList<>(queries.values()), snapshot);
+        LinkedHashMap<String, List<Jukebox>> pages = new LinkedHashMap<>();
+        int i = 0;
+        for (String key : queries.keySet()) {
+            pages.put(key, results.get(i++).page()); // only the pages are looked up
+        }
+        response.setHeader("Vary", "Accept");
+        if (binary(accept)) {
+            response.setContentType(BinaryFormat.MEDIA_TYPE);
+            CountingOutputStream counter = new CountingOutputStream(response.getOutputStream());
+            BinaryFormat.writePages(pages, counter);
+            size("batch", "binary").record(counter.count);
+            return;
+        }
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        CountingOutputStream counter = new CountingOutputStream(response.getOutputStream());
+        JukeboxAPI.writeJSON(pages, counter);
+        size("batch", "none").record(counter.count);
     }
     /**
-     * This method is one of the methods to support query parameters on the endpoint.
-     * @return A Json-format list of all Jukeboxes that satisfies the query parameters, converted to a single String.
+     * This method changes the components of some Jukeboxes, as a whole: either every change is applied, or none.
+     * Indexes, setting bitmaps and cached results are updated for the changed Jukeboxes only,
+     * and requests already running keep reading the previous data.
+     * A summary is sent back: the new version of the data, the number of Jukeboxes changed and the number of cached results kept.
+     * Names too long, or too many names never seen, are refused with 400, see {@link JukeboxAPI#MAX_NEW_NAMES} and {@link JukeboxAPI#MAX_PATCHED_NAMES}.
+     * @param changes The changes, in order. See {@link ComponentChange}.
+     * @param response The response to write to.
+     * @throws IOException may occur while writing the response.
      * @author Shuzhao Feng
      */
-    @GetMapping(params = {"model","settingid"})
-    @ResponseBody
-    public String modelAndSettingId(@RequestParam(value = "model") String[] model, @RequestParam(value = "settingid") String id, @RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit){
-        if (offset == null) offset = 0; // prevent NPException
-        if (limit == null) limit = (int) Double.POSITIVE_INFINITY;
-        return Controller.cropByLimit("\n".repeat(offset)+JukeboxAPI.toJSONString(JukeboxAPI.filter(api.filterByModel(new ArrayList<>(Arrays.asList(model))), api.settingId(id))).toString(), limit);
+    @PatchMapping(path="/components")
+    public void patch(@RequestBody List<ComponentChange> changes, HttpServletResponse response) throws IOException {
+        long start = System.nanoTime();
+        JukeboxAPI.Patch patch;
+        try {
+            patch = api.patch(changes);
+        } catch (NoSuchElementException e) { // unknown Jukebox
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (IllegalArgumentException e) { // invalid change
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        int carried = cache.revalidate(patch.before(), patch.after(), patch.rows()); // results the changes did not affect
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        writer.beginObject().name("version").value(patch.after().getVersion()).name("updated").value(patch.rows().length)
+                .name("cached").value(carried).name("micros").value((System.nanoTime() - start) / 1000).endObject();
+        writer.flush();
     }
     /**
-     * This method is one of the methods to support query parameters on the endpoint.
-     * @return A Json-format list of all Jukeboxes that satisfies the query parameters, converted to a single String.
+     * This method finds the settings supported by some Jukeboxes, e.g. for a device asking what it can enable when it boots.
+     * Every Jukebox is compared with the requirements of every setting, without going through the database, see {@link JukeboxAPI#supportedSettings(List)}.
+     * The response is a Json object mapping the ID of every Jukebox to the IDs of the settings it supports.
+     * @param id IDs of the Jukeboxes.
+     * @param response The response to write to.
+     * @throws IOException may occur while writing the response.
      * @author Shuzhao Feng
      */
-    @GetMapping(params = {"id","settingid"})
-    @ResponseBody
-    public String idAndSettingId(@RequestParam(value = "id") String[] id, @RequestParam(value = "settingid") String sid, @RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit){
-        if (offset == null) offset = 0; // prevent NPException
-        if (limit == null) limit = (int) Double.POSITIVE_INFINITY;
-        return Controller.cropByLimit("\n".repeat(offset)+JukeboxAPI.toJSONString(JukeboxAPI.filter(api.filterById(new ArrayList<>(Arrays.asList(id))), api.settingId(sid))).toString(), limit);
+    @GetMapping(path="/settings")
+    public void settings(@RequestParam String[] id, HttpServletResponse response) throws IOException {
+        settings(Arrays.asList(id), response);
     }
     /**
-     * This method is one of the methods to support query parameters on the endpoint.
-     * @return A Json-format list of all Jukeboxes that satisfies the query parameters, converted to a single String.
+     * This method finds the settings supported by many Jukeboxes, like {@link Controller#settings(String[], HttpServletResponse)}
+     * with the IDs sent as a Json list, so that their number is not limited by the length of a URL.
+     * @param ids IDs of the Jukeboxes.
+     * @param response The response to write to.
+     * @throws IOException may occur while writing the response.
      * @author Shuzhao Feng
      */
-    @GetMapping(params = {"id","model"})
-    @ResponseBody
-    public String idAndModel(@RequestParam(value = "id") String[] id, @RequestParam(value = "model") String[] model, @RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit){
-        if (offset == null) offset = 0; // prevent NPException
-        if (limit == null) limit = (int) Double.POSITIVE_INFINITY;
-        return Controller.cropByLimit("\n".repeat(offset)+JukeboxAPI.toJSONString(JukeboxAPI.filter(api.filterById(new ArrayList<>(Arrays.asList(id))), api.filterByModel(new ArrayList<>(Arrays.asList(model))))).toString(), limit);
+    @PostMapping(path="/settings")
+    public void settings(@RequestBody List<String> ids, HttpServletResponse response) throws IOException {
+        LinkedHashMap<String, List<String>> settings;
+        try {
+            settings = api.supportedSettings(ids);
+        } catch (NoSuchElementException e) { // unknown Jukebox
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        CountingOutputStream counter = new CountingOutputStream(response.getOutputStream());
+        JukeboxAPI.writeSettings(settings, counter);
+        size("settings", "none").record(counter.count);
     }
     /**
-     * This method is one of the methods to support query parameters on the endpoint.
-     * @return A Json-format list of all Jukeboxes that satisfies the query parameters, converted to a single String.
+     * This method subscribes to the changes of setting compatibility as Server-Sent Events, instead of polling /api?settingid=... for them.
+     * A "version" event gives the current version of the data, then a "changes" event is sent every time the data changes what was asked for:
+     * the Jukeboxes that gained or lost a setting since the previous version, see {@link ChangeFeed}. Every filter is optional.
+     * The connection stays open without holding a thread, until the client closes it.
+     * @param id IDs of the Jukeboxes, e.g. the ID of the device subscribing.
+     * @param model Models of the Jukeboxes.
+     * @param settingId IDs of the settings.
+     * @return The event stream.
      * @author Shuzhao Feng
      */
-    @GetMapping(params = {"id","model","settingid"})
-    @ResponseBody
-    public String idSettingIdAndModel(@RequestParam(value = "id") String[] id, @RequestParam(value = "model") String[] model, @RequestParam(value = "settingid") String sid, @RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit){
-        if (offset == null) offset = 0; // prevent NPException
-        if (limit == null) limit = (int) Double.POSITIVE_INFINITY;
-        return Controller.cropByLimit("\n".repeat(offset)+JukeboxAPI.toJSONString(JukeboxAPI.filter(api.settingId(sid),JukeboxAPI.filter(api.filterById(new ArrayList<>(Arrays.asList(id))), api.filterByModel(new ArrayList<>(Arrays.asList(model)))))).toString(), limit);
+    @GetMapping(path="/changes", produces="text/event-stream")
+    public SseEmitter changes(@RequestParam(required = false) String[] id, @RequestParam(required = false) String[] model,
+                              @RequestParam(value = "settingid", required = false) String[] settingId) {
+        SseEmitter emitter = new SseEmitter(0L); // never times out, subscribers gone are found by the heartbeat
+        ChangeFeed.Subscription subscription = changes.subscribe(id == null ? null : Arrays.asList(id), model == null ? null : Arrays.asList(model),
+                settingId == null ? null : Arrays.asList(settingId), new ChangeFeed.Sink() {
+                    @Override
+                    public void send(String name, long version, byte[] data) throws IOException {
+                        emitter.send(SseEmitter.event().name(name).id(String.valueOf(version)).data(data, MediaType.APPLICATION_JSON));
+                    }
+                    @Override
+                    public void ping() throws IOException {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    }
+                });
+        emitter.onCompletion(() -> changes.unsubscribe(subscription)); // also called after a timeout or an error
+        return emitter;
     }
 }
@@ -0,0 +1,478 @@
+package project.object;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+/**
+ * This class stores a whole Jukebox database column by column, with models and components numbered by {@link NameDictionary}.
+ * A Jukebox is a row number, and {@link Jukebox} objects are only lightweight views over a row,
+ * so the database holds a few primitive arrays instead of several objects per Jukebox.
+ * <br>Columns, for N Jukeboxes:
+ * <br> - ids: the ID of every row,
+ * <br> - positions: the position of every row in the feed it was read from, the row itself unless the feed was partitioned between shards,
+ * <br> - models: the model number of every row,
+ * <br> - start/sequence: the component numbers of every row, in feed order, row R spanning sequence[start[R]] to sequence[start[R+1]],
+ * <br> - countStart/names/counts: the distinct component numbers of every row in ascending order, each with its number of occurrences,
+ * <br> - jsonStart/json: the compact Json object of every row in UTF-8, rendered once when the row is added,
+ * row R spanning json[jsonStart[R]] to json[jsonStart[R+1]]. Writing a Jukebox to a response is a copy of these bytes.
+ * <br>A fleet never changes once built, new fleets are built with a {@link Fleet.Builder}.
+ * <br>A patched fleet shares the columns of its base fleet, and overrides the components of a few rows, kept in single-row fleets.
+ * Patching costs the number of patched rows instead of the size of the fleet. Once many rows are patched,
+ * {@link Fleet#compact()} copies everything into new columns.
+ * <br>It has the following methods:
+ * <br><br>{@link Fleet#of(List)}
+ * <br>{@link Fleet#empty()}
+ * <br>{@link Fleet#size()}
+ * <br>{@link Fleet#getId(int)}
+ * <br>{@link Fleet#getPosition(int)}
+ * <br>{@link Fleet#getModel(int)}
+ * <br>{@link Fleet#getComponents(int)}
+ * <br>{@link Fleet#count(int, int)}
+ * <br>{@link Fleet#distinct(int)}
+ * <br>{@link Fleet#nameAt(int, int)}
+ * <br>{@link Fleet#countAt(int, int)}
+ * <br>{@link Fleet#writeJSON(int, OutputStream)}
+ * <br>{@link Fleet#get(int)}
+ * <br>{@link Fleet#asList()}
+ * <br>{@link Fleet#patch(int[], int[][])}
+ * <br>{@link Fleet#getBase()}
+ * <br>{@link Fleet#getPatchedRows()}
+ * <br>{@link Fleet#compact()}
+ * @author Shuzhao Feng
+ */
+public class Fleet {
+    private final String[] ids; // row -> ID
+    private final int[] positions; // row -> position in the feed
+    private final int[] models; // row -> model number
+    private final int[] start, sequence; // row -> component numbers in feed order
+    private final int[] countStart, names, counts; // row -> distinct component numbers, ascending, and their counts
+    private final int[] jsonStart; // row -> start of its Json object
+    private final byte[] json; // Json objects of all rows, in row order
+    private final Fleet base; // fleet the columns were built for, this fleet if it is not patched
+    private final int[] patchedRows; // sorted rows whose components are overridden, empty if not patched
+    private final Fleet[] patchedData; // single-row fleets holding the components of the patched rows, same order
+    /**
+     * This is the constructor of {@link Fleet}, used by {@link Fleet.Builder} once all rows are read.
+     * @author Shuzhao Feng
+     */
+    private Fleet(String[] ids, int[] positions, int[] models, int[] start, int[] sequence, int[] countStart, int[] names, int[] counts,
+                  int[] jsonStart, byte[] json) {
+        this.ids = ids;
+        this.positions = positions;
+        this.models = models;
+        this.start = start;
+        this.sequence = sequence;
+        this.countStart = countStart;
+        this.names = names;
+        this.counts = counts;
+        this.jsonStart = jsonStart;
+        this.json = json;
+        this.base = this;
+        this.patchedRows = new int[0];
+        this.patchedData = new Fleet[0];
+    }
+    /**
+     * This is the constructor of a patched {@link Fleet}, sharing the columns of its base.
+     * @author Shuzhao Feng
+     */
+    private Fleet(Fleet base, int[] patchedRows, Fleet[] patchedData) {
+        this.ids = base.ids;
+        this.positions = base.positions;
+        this.models = base.models;
+        this.start = base.start;
+        this.sequence = base.sequence;
+        this.countStart = base.countStart;
+        this.names = base.names;
+        this.counts = base.counts;
+        this.jsonStart = base.jsonStart;
+        this.json = base.json;
+        this.base = base;
+        this.patchedRows = patchedRows;
+        this.patchedData = patchedData;
+    }
+    /**
+     * This method finds the overriding data of a row.
+     * @param row The row number of the Jukebox.
+     * @return The single-row fleet holding the components of the row, null if the row is not patched.
+     * @author Shuzhao Feng
+     */
+    private Fleet patched(int row) {
+        if (patchedRows.length == 0) return null; // usual case, nothing patched
+        int i = Arrays.binarySearch(patchedRows, row);
+        return i < 0 ? null : patchedData[i];
+    }
+    /**
+     * This method copies Jukeboxes into a new fleet, their positions in the feed following the order of the list.
+     * @param boxes The Jukeboxes, of any fleet.
+     * @return A fleet holding the Jukeboxes in the same order.
+     * @author Shuzhao Feng
+     */
+    public static Fleet of(List<Jukebox> boxes) {
+        Builder builder = new Builder();
+        for (Jukebox box : boxes) builder.add(box);
+        return builder.build();
+    }
+    /**
+     * This method creates a fleet without any Jukebox.
+     * @return An empty fleet.
+     * @author Shuzhao Feng
+     */
+    public static Fleet empty() {
+        return new Builder().build();
+    }
+    /**
+     * A simple size getter method.
+     * @return The number of Jukeboxes.
+     * @author Shuzhao Feng
+     */
+    public int size() {
+        return ids.length;
+    }
+    /**
+     * A simple ID getter method.
+     * @param row The row number of the Jukebox.
+     * @return The Jukebox's ID.
+     * @author Shuzhao Feng
+     */
+    public String getId(int row) {
+        return ids[row];
+    }
+    /**
+     * A simple feed position getter method. Shards of a partitioned feed keep the positions of the whole feed,
+     * so that the results of several shards can be merged back in feed order.
+     * @param row The row number of the Jukebox.
+     * @return The position of the Jukebox in the feed it was read from.
+     * @author Shuzhao Feng
+     */
+    public int getPosition(int row) {
+        return positions[row];
+    }
+    /**
+     * A simple model getter method.
+     * @param row The row number of the Jukebox.
+     * @return The Jukebox's model number, see {@link NameDictionary#decode(int)}.
+     * @author Shuzhao Feng
+     */
+    public int getModel(int row) {
+        return models[row];
+    }
+    /**
+     * A simple component getter method.
+     * @param row The row number of the Jukebox.
+     * @return A copy of the Jukebox's component numbers, in feed order.
+     * @author Shuzhao Feng
+     */
+    public int[] getComponents(int row) {
+        Fleet patched = patched(row);
+        if (patched != null) return patched.getComponents(0);
+        return Arrays.copyOfRange(sequence, start[row], start[row + 1]);
+    }
+    /**
+     * This method counts the occurrences of a component in a Jukebox, without decoding any name.
+     * @param row The row number of the Jukebox.
+     * @param name The component number.
+     * @return The number of occurrences, 0 if the Jukebox does not have the component.
+     * @author Shuzhao Feng
+     */
+    public int count(int row, int name) {
+        Fleet patched = patched(row);
+        if (patched != null) return patched.count(0, name);
+        for (int i = countStart[row]; i < countStart[row + 1]; i++) { // a handful of components, a scan beats a binary search
+            if (names[i] == name) return counts[i];
+            if (names[i] > name) break; // ascending, not found
+        }
+        return 0;
+    }
+    /**
+     * A simple getter method for the number of distinct components.
+     * @param row The row number of the Jukebox.
+     * @return The number of distinct components of the Jukebox.
+     * @author Shuzhao Feng
+     */
+    public int distinct(int row) {
+        Fleet patched = patched(row);
+        if (patched != null) return patched.distinct(0);
+        return countStart[row + 1] - countStart[row];
+    }
+    /**
+     * A simple getter method for a distinct component.
+     * @param row The row number of the Jukebox.
+     * @param i The position of the component, from 0 to {@link Fleet#distinct(int)} excluded, in ascending component number.
+     * @return The component number.
+     * @author Shuzhao Feng
+     */
+    public int nameAt(int row, int i) {
+        Fleet patched = patched(row);
+        if (patched != null) return patched.nameAt(0, i);
+        return names[countStart[row] + i];
+    }
+    /**
+     * A simple getter method for the occurrences of a distinct component.
+     * @param row The row number of the Jukebox.
+     * @param i The position of the component, as for {@link Fleet#nameAt(int, int)}.
+     * @return The number of occurrences of the component.
+     * @author Shuzhao Feng
+     */
+    public int countAt(int row, int i) {
+        Fleet patched = patched(row);
+        if (patched != null) return patched.countAt(0, i);
+        return counts[countStart[row] + i];
+    }
+    /**
+     * This method writes the Json object of a Jukebox, as rendered when the row was added, without any allocation:
+     * {"id":...,"model":...,"components":[{"name":...},...]}, components in feed order.
+     * @param row The row number of the Jukebox.
+     * @param output The stream to write to, preferably buffered.
+     * @throws IOException may occur while writing to the stream.
+     * @author Shuzhao Feng
+     */
+    public void writeJSON(int row, OutputStream output) throws IOException {
+        Fleet patched = patched(row);
+        if (patched != null) patched.writeJSON(0, output);
+        else output.write(json, jsonStart[row], jsonStart[row + 1] - jsonStart[row]);
+    }
+    /**
+     * This method creates a view over a row.
+     * @param row The row number of the Jukebox.
+     * @return A Jukebox reading this row.
+     * @author Shuzhao Feng
+     */
+    public Jukebox get(int row) {
+        return new Jukebox(this, row);
+    }
+    /**
+     * This method shows the fleet as a list of Jukeboxes, created as they are read.
+     * @return A read-only list of all Jukeboxes, in row order.
+     * @author Shuzhao Feng
+     */
+    public List<Jukebox> asList() {
+        return new Rows();
+    }
+    /**
+     * This method creates a new fleet where the components of some rows are replaced, without copying the columns.
+     * Rows patched before keep their patched components unless they are patched again.
+     * @param rows The rows to patch, sorted and distinct.
+     * @param components The new component numbers of every row, in the same order, in feed order.
+     * @return A new fleet sharing the columns of this one. This fleet does not change.
+     * @author Shuzhao Feng
+     */
+    public Fleet patch(int[] rows, int[][] components) {
+        int[] outRows = new int[patchedRows.length + rows.length];
+        Fleet[] outData = new Fleet[outRows.length];
+        int i = 0, j = 0, size = 0;
+        while (i < patchedRows.length || j < rows.length) { // merge both sorted lists, new data wins
+            if (j == rows.length || (i < patchedRows.length && patchedRows[i] < rows[j])) {
+                outRows[size] = patchedRows[i];
+                outData[size++] = patchedData[i++];
+            } else {
+                if (i < patchedRows.length && patchedRows[i] == rows[j]) i++; // patched again, drop the previous data
+                outRows[size] = rows[j];
+                outData[size++] = new Builder().add(ids[rows[j]], models[rows[j]], components[j]).build();
+                j++;
+            }
+        }
+        return new Fleet(base, Arrays.copyOf(outRows, size), Arrays.copyOf(outData, size));
+    }
+    /**
+     * A simple base getter method.
+     * @return The fleet the columns were built for, without any patch. This fleet itself if it is not patched.
+     * @author Shuzhao Feng
+     */
+    public Fleet getBase() {
+        return base;
+    }
+    /**
+     * A simple patched rows getter method.
+     * @return The sorted rows whose components differ from the base fleet's columns.
+     * The array is shared and must not be modified.
+     * @author Shuzhao Feng
+     */
+    public int[] getPatchedRows() {
+        return patchedRows;
+    }
+    /**
+     * This method copies the fleet, patches included, into new columns.
+     * @return A new fleet without patches, with the same rows and feed positions.
+     * @author Shuzhao Feng
+     */
+    public Fleet compact() {
+        Builder builder = new Builder();
+        for (int row = 0; row < size(); row++) builder.position(positions[row]).add(get(row)); // rows keep their place in the feed
+        return builder.build();
+    }
+    /**
+     * A read-only list over all rows of the fleet.
+     * @author Shuzhao Feng
+     */
+    private class Rows extends AbstractList<Jukebox> implements RandomAccess {
+        @Override
+        public Jukebox get(int row) {
+            return Fleet.this.get(row);
+        }
+        @Override
+        public int size() {
+            return Fleet.this.size();
+        }
+    }
+    /**
+     * This class builds a {@link Fleet} one Jukebox at a time, growing its columns as needed.
+     * <br>It has the following methods:
+     * <br><br>{@link Builder#add(String, String, List)}
+     * <br>{@link Builder#add(String, int, int[])}
+     * <br>{@link Builder#add(Jukebox)}
+     * <br>{@link Builder#position(int)}
+     * <br>{@link Builder#size()}
+     * <br>{@link Builder#build()}
+     * @author Shuzhao Feng
+     */
+    public static class Builder {
+        private String[] ids = new String[16];
+        private int[] positions = new int[16];
+        private int next; // feed position of the next Jukebox added
+        private int[] models = new int[16];
+        private int[] start = new int[17], sequence = new int[64];
+        private int[] countStart = new int[17], names = new int[64], counts = new int[64];
+        private int[] jsonStart = new int[17];
+        private byte[] json = new byte[1024];
+        private int size, length, distinct, jsonLength; // rows, components, distinct components and Json bytes added so far
+        private int[] temp = new int[16]; // sorted components of the row being added
+        private static final byte[] ID = "{\"id\":".getBytes(StandardCharsets.UTF_8), MODEL = ",\"model\":".getBytes(StandardCharsets.UTF_8),
+                COMPONENTS = ",\"components\":[".getBytes(StandardCharsets.UTF_8), NAME = "{\"name\":".getBytes(StandardCharsets.UTF_8);
+        /**
+         * This method adds a Jukebox, numbering its model and components.
+         * @param id The Jukebox's ID.
+         * @param model The Jukebox's model.
+         * @param components The Jukebox's components, in feed order.
+         * @return This builder.
+         * @author Shuzhao Feng
+         */
+        public Builder add(String id, String model, List<String> components) {
+            int[] comps = new int[components.size()];
+            for (int i = 0; i < comps.length; i++) comps[i] = NameDictionary.encode(components.get(i));
+            return add(id, NameDictionary.encode(model), comps);
+        }
+        /**
+         * This method adds a Jukebox whose model and components are already numbered.
+         * @param id The Jukebox's ID.
+         * @param model The Jukebox's model number.
+         * @param components The Jukebox's component numbers, in feed order. The array is copied.
+         * @return This builder.
+         * @author Shuzhao Feng
+         */
+        public Builder add(String id, int model, int[] components) {
+            if (size == ids.length) { // rows are full, double their capacity
+                ids = Arrays.copyOf(ids, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+                models = Arrays.copyOf(models, size * 2);
+                start = Arrays.copyOf(start, size * 2 + 1);
+                countStart = Arrays.copyOf(countStart, size * 2 + 1);
+                jsonStart = Arrays.copyOf(jsonStart, size * 2 + 1);
+            }
+            int n = components.length;
+            if (length + n > sequence.length) sequence = Arrays.copyOf(sequence, Math.max(sequence.length * 2, length + n));
+            if (distinct + n > names.length) { // at most n distinct components
+                names = Arrays.copyOf(names, Math.max(names.length * 2, distinct + n));
+                counts = Arrays.copyOf(counts, names.length);
+            }
+            if (n > temp.length) temp = new int[n];
+            ids[size] = id;
+            positions[size] = next++;
+            models[size] = model;
+            System.arraycopy(components, 0, sequence, length, n);
+            length += n;
+            System.arraycopy(components, 0, temp, 0, n);
+            Arrays.sort(temp, 0, n);
+            for (int i = 0; i < n; i++) { // count the runs of equal components
+                if (i > 0 && temp[i] == temp[i - 1]) counts[distinct - 1]++;
+                else {
+                    names[distinct] = temp[i];
+                    counts[distinct++] = 1;
+                }
+            }
+            render(id, model, components);
+            size++;
+            start[size] = length;
+            countStart[size] = distinct;
+            jsonStart[size] = jsonLength;
+            return this;
+        }
+        /**
+         * This method renders the Json object of the row being added, names are already quoted by {@link NameDictionary#json(int)}.
+         * @author Shuzhao Feng
+         */
+        private void render(String id, int model, int[] components) {
+            append(ID);
+            append(JsonBytes.quote(id));
+            append(MODEL);
+            append(NameDictionary.json(model));
+            append(COMPONENTS);
+            for (int i = 0; i < components.length; i++) {
+                if (i > 0) append((byte) ','); // by position, names may repeat
+                append(NAME);
+                append(NameDictionary.json(components[i]));
+                append((byte) '}');
+            }
+            append((byte) ']');
+            append((byte) '}');
+        }
+        /**
+         * This method appends bytes to the Json column, growing it as needed.
+         * @author Shuzhao Feng
+         */
+        private void append(byte[] bytes) {
+            if (jsonLength + bytes.length > json.length) json = Arrays.copyOf(json, Math.max(json.length * 2, jsonLength + bytes.length));
+            System.arraycopy(bytes, 0, json, jsonLength, bytes.length);
+            jsonLength += bytes.length;
+        }
+        /**
+         * This method appends a byte to the Json column, growing it as needed.
+         * @author Shuzhao Feng
+         */
+        private void append(byte b) {
+            if (jsonLength == json.length) json = Arrays.copyOf(json, json.length * 2);
+            json[jsonLength++] = b;
+        }
+        /**
+         * This method adds a copy of a Jukebox, of this or any other fleet, at the next position of this builder.
+         * @param box The Jukebox to copy.
+         * @return This builder.
+         * @author Shuzhao Feng
+         */
+        public Builder add(Jukebox box) {
+            return add(box.getId(), box.getFleet().getModel(box.getRow()), box.getFleet().getComponents(box.getRow()));
+        }
+        /**
+         * This method sets the feed position of the next Jukebox added, the following ones coming right after it.
+         * Positions start at 0 and follow the rows unless they are set, e.g. when the Jukeboxes of other shards are skipped.
+         * @param position The position in the feed.
+         * @return This builder.
+         * @author Shuzhao Feng
+         */
+        public Builder position(int position) {
+            this.next = position;
+            return this;
+        }
+        /**
+         * A simple size getter method.
+         * @return The number of Jukeboxes added so far.
+         * @author Shuzhao Feng
+         */
+        public int size() {
+            return size;
+        }
+        /**
+         * This method builds the fleet, trimming every column to its size. The builder must not be used afterwards.
+         * @return A new fleet holding all added Jukeboxes, in the order they were added.
+         * @author Shuzhao Feng
+         */
+        public Fleet build() {
+            return new Fleet(Arrays.copyOf(ids, size), Arrays.copyOf(positions, size), Arrays.copyOf(models, size), Arrays.copyOf(start, size + 1),
+                    Arrays.copyOf(sequence, length), Arrays.copyOf(countStart, size + 1), Arrays.copyOf(names, distinct), Arrays.copyOf(counts, distinct),
+                    Arrays.copyOf(jsonStart, size + 1), Arrays.copyOf(json, jsonLength));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package project.object;
+
+import java.nio.charset.StandardCharsets;
+/**
+ * This class turns text into Json string literals, encoded in UTF-8, ready to be copied into a response.
+ * It is used once per name and per ID when a {@link Fleet} is built, so that writing a Jukebox is a copy of bytes.
+ * <br>It has the following methods:
+ * <br><br>{@link JsonBytes#quote(String)}
+ * @author Shuzhao Feng
+ */
+public class JsonBytes {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /**
+     * This class only has static methods.
+     * @author Shuzhao Feng
+     */
+    private JsonBytes() {}
+    /**
+     * This method quotes a text as a Json string, escaping quotes, backslashes and control characters,
+     * and the line and paragraph separators that some Javascript parsers reject, as Gson does.
+     * @param text The text to quote.
+     * @return The quoted text, in UTF-8.
+     * @author Shuzhao Feng
+     */
+    public static byte[] quote(String text) {
+        StringBuilder str = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') str.append('\\').append(c);
+            else if (c < 0x20 || c == '\u2028' || c == '\u2029') { // unicode escape, valid for any character
+                str.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 15]).append(HEX[(c >> 4) & 15]).append(HEX[c & 15]);
+            }
+            else str.append(c);
+        }
+        return str.append('"').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -1,42 +1,63 @@
 package project.object;
 
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 /**
  * This class defines a Jukebox object (OOP!!!).
  * An unique Jukebox is defined by its ID, model and components.
  * While ID and model cannot be change once created, the Jukebox's components can be upgraded or compromised.
+ * <br>A Jukebox does not hold its data, it is a lightweight view over a row of a {@link Fleet}, where models and components
+ * are numbered by {@link NameDictionary}. Component names are matched as numbers, and decoded only when they are read.
  * <br>It has the following methods:
  * <br><br>{@link Jukebox#Jukebox(String, String, ArrayList)}
+ * <br>{@link Jukebox#Jukebox(Fleet, int)}
  * <br>{@link Jukebox#getId()}
  * <br>{@link Jukebox#getModel()}
  * <br>{@link Jukebox#getComponents()}
+ * <br>{@link Jukebox#getFleet()}
+ * <br>{@link Jukebox#getRow()}
  * <br>{@link Jukebox#getHashedComponents()}
  * <br>{@link Jukebox#getComponent(String)}
+ * <br>{@link Jukebox#countComponent(String)}
  * <br>{@link Jukebox#addComponent(String)}*
  * <br>{@link Jukebox#removeComponent(String)}*
  * <br>{@link Jukebox#componentToJSON()}
+ * <br>{@link Jukebox#toJSON(JsonWriter)}
+ * <br>{@link Jukebox#toJSON(OutputStream)}
  * <br>{@link Jukebox#equals(Object)}
+ * <br>{@link Jukebox#hashCode()}
  * <br>{@link Jukebox#toString()}
  * <br><br>* not used by this project, added for project overall completeness
  * @author Shuzhao Feng
  */
 public class Jukebox {
-    private final String id, model; // Once the Jukebox is created, its ID and model will likely never change again
-    private ArrayList<String> components; // components do not need to be final assuming a Jukebox can be upgraded or compromised
+    private Fleet fleet; // columns holding the data, not final assuming a Jukebox can be upgraded or compromised
+    private int row; // row of the Jukebox in the fleet
     /**
      * This is the object constructor for {@link Jukebox}.
-     * It takes three parameters: ID, model and components.
+     * It takes three parameters: ID, model and components, and stores them in a fleet of their own.
+     * Model and component names are normalized (trimmed, lower case).
      * @param id An unique ID for each Jukebox.
      * @param model Defines the Jukebox's model.
      * @param components Components available on the Jukebox, e.g. LED lights, money receivers, etc.
      * @author Shuzhao Feng
      */
     public Jukebox(String id, String model, ArrayList<String> components){
-        this.id = id;
-        this.model = model;
-        this.components = components;
+        this(new Fleet.Builder().add(id, model, components).build(), 0);
+    }
+    /**
+     * This is the view constructor for {@link Jukebox}, reading a row of a fleet.
+     * @param fleet The fleet holding the Jukebox.
+     * @param row The row of the Jukebox.
+     * @author Shuzhao Feng
+     */
+    public Jukebox(Fleet fleet, int row){
+        this.fleet = fleet;
+        this.row = row;
     }
     /**
      * A simple ID getter method.
@@ -44,7 +65,7 @@ public class Jukebox {
      * @author Shuzhao Feng
      */
     public String getId(){
-        return this.id;
+        return fleet.getId(row);
     }
     /**
      * A simple model getter method.
@@ -52,15 +73,34 @@ public class Jukebox {
      * @author Shuzhao Feng
      */
     public String getModel(){
-        return this.model;
+        return NameDictionary.decode(fleet.getModel(row));
     }
     /**
      * A simple component getter method.
-     * @return An arraylist of components.
+     * @return A new arraylist of components, in feed order. Modifying it does not modify the Jukebox.
      * @author Shuzhao Feng
      */
     public ArrayList<String> getComponents(){
-        return this.components;
+        int[] comps = fleet.getComponents(row);
+        ArrayList<String> out = new ArrayList<>(comps.length);
+        for (int comp : comps) out.add(NameDictionary.decode(comp)); // decode every component number
+        return out;
+    }
+    /**
+     * A simple fleet getter method.
+     * @return The fleet holding the Jukebox.
+     * @author Shuzhao Feng
+     */
+    public Fleet getFleet(){
+        return this.fleet;
+    }
+    /**
+     * A simple row getter method.
+     * @return The row of the Jukebox in its fleet.
+     * @author Shuzhao Feng
+     */
+    public int getRow(){
+        return this.row;
     }
     /**
      * This method return the Jukebox's components in form of a key/value pair to ease manipulation.
@@ -70,8 +110,8 @@ public class Jukebox {
      */
     public HashMap<String, Integer> getHashedComponents(){
         HashMap<String, Integer> out = new HashMap<>(); // create empty hashmap to store the result
-        for (String s : getComponents()){ // iterate over all components
-            out.computeIfAbsent(s, s1 -> Collections.frequency(getComponents(), s1)); // add key/value pair if not yet added
+        for (int i = 0; i < fleet.distinct(row); i++){ // iterate over all distinct components, already counted
+            out.put(NameDictionary.decode(fleet.nameAt(row, i)), fleet.countAt(row, i));
         }
         return out;
     }
@@ -83,26 +123,38 @@ public class Jukebox {
      * @author Shuzhao Feng
      */
     public String getComponent(String component){
-        for (String s : components){ // iterate through all components
-            if (component.trim().equalsIgnoreCase(s)){ // compare the two strings, ignore cases
-                return s; // component found, return and break method
-            }
-        } // component not found
-        return null;
+        int name = NameDictionary.find(component); // normalized once, then compared as a number
+        if (name < 0 || fleet.count(row, name) == 0) return null; // component not found
+        return NameDictionary.decode(name);
+    }
+    /**
+     * This method counts the occurrences of a component in the Jukebox, with the same matching as {@link Jukebox#getHashedComponents()}.
+     * @param component the component to count.
+     * @return the number of occurrences of the component, 0 if it is not found.
+     * @author Shuzhao Feng
+     */
+    public int countComponent(String component){
+        int name = NameDictionary.find(component);
+        if (name < 0) return 0; // no Jukebox has this component
+        return fleet.count(row, name);
     }
     /**
      * This method adds a component to an existing Jukebox.
+     * The Jukebox is copied into a fleet of its own first, the fleet it was read from never changes.
      * @param component The component to be added.
      * @return The component itself if it is successfully added, null if the input does not contain any valid character.
      * @author Shuzhao Feng
      */
     public String addComponent(String component){
         if (component == null || component.trim().isEmpty()) return null; // invalid input, unsuccessful exit
-        this.components.add(component.trim().toLowerCase()); // add component to the list
+        ArrayList<String> components = getComponents();
+        components.add(NameDictionary.normalize(component)); // add component to the list
+        detach(components);
         return getComponent(component); // check for successful exit
     }
     /**
      * This method removes the first component with the input component name to an existing Jukebox.
+     * The Jukebox is copied into a fleet of its own first, the fleet it was read from never changes.
      * @param component The component to be removed.
      * @return The component itself if it is successfully removed, null if:
      * <br> - the input does not contain any valid character.
@@ -114,9 +166,20 @@ public class Jukebox {
         if (getComponent(component) == null){ // component does not exist
             return null; // unsuccessful exit
         } // component already exists
-        this.components.remove(component); // remove component from the list
+        ArrayList<String> components = getComponents();
+        components.remove(getComponent(component)); // remove component from the list
+        detach(components);
         return component; // successful exit
     }
+    /**
+     * This method moves the Jukebox to a fleet of its own, with new components.
+     * @param components The new components.
+     * @author Shuzhao Feng
+     */
+    private void detach(ArrayList<String> components){
+        this.fleet = new Fleet.Builder().add(getId(), getModel(), components).build();
+        this.row = 0;
+    }
     /**
      * This method convert the Jukebox's components into a Json formatted String.
      * @return A list of all components in Json format, converted to String.
@@ -124,13 +187,41 @@ public class Jukebox {
      */
     public String componentToJSON() {
         StringBuilder str = new StringBuilder("[");
-        for (String comp : getComponents()) {
-            str.append("\n      {").append("\n        \"name\": \"").append(comp).append("\"").append("\n      }");
-            if (comp != this.components.get(this.components.size()-1)) str.append(","); // if not last item, append comma
+        int[] comps = fleet.getComponents(row);
+        for (int i = 0; i < comps.length; i++) {
+            if (i > 0) str.append(","); // if not first item, append comma, by position since names may repeat
+            str.append("\n      {").append("\n        \"name\": \"").append(NameDictionary.decode(comps[i])).append("\"").append("\n      }");
         }
         str.append("\n    ]");
         return str.toString();
     }
+    /**
+     * This method writes the Jukebox as a Json object to a streaming writer, with the same fields as {@link Jukebox#toString()}.
+     * @param writer The Json writer to write to.
+     * @throws IOException may occur while writing.
+     * @author Shuzhao Feng
+     */
+    public void toJSON(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(getId());
+        writer.name("model").value(getModel());
+        writer.name("components").beginArray();
+        for (int comp : fleet.getComponents(row)) {
+            writer.beginObject().name("name").value(NameDictionary.decode(comp)).endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+    /**
+     * This method writes the Jukebox as a compact Json object to a stream, with the same fields as {@link Jukebox#toJSON(JsonWriter)}.
+     * The object was rendered once when the Jukebox was added to its fleet, it is copied as is: nothing is allocated.
+     * @param output The stream to write to, preferably buffered.
+     * @throws IOException may occur while writing.
+     * @author Shuzhao Feng
+     */
+    public void toJSON(OutputStream output) throws IOException {
+        fleet.writeJSON(row, output);
+    }
     /**
      * This method checks whether the Jukebox is equivalent to another object.
      * @param obj The object to compare with.
@@ -142,8 +233,18 @@ public class Jukebox {
     public boolean equals(Object obj) {
         if (this == obj) return true; // true if they point to the same location
         if (!(obj instanceof Jukebox box)) return false; // false if the object is not a Jukebox object
-        return this.getId().equals(box.getId()) && this.getModel().equals(box.getModel()) && this.getComponents().equals(box.getComponents());
-        // compare ID, model and components
+        return this.getId().equals(box.getId()) && fleet.getModel(row) == box.fleet.getModel(box.row)
+                && Arrays.equals(fleet.getComponents(row), box.fleet.getComponents(box.row)); // compare ID, model and component numbers
+    }
+    /**
+     * This method returns a hash code consistent with {@link Jukebox#equals(Object)}, so that Jukeboxes can be used in hash sets.
+     * Only the ID is hashed, as it is unique to the Jukebox and never changes, even when components do.
+     * @return the hash code of the Jukebox's ID.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public int hashCode() {
+        return getId().hashCode();
     }
     /**
      * This method allows a Jukebox object to be printed out as an understandable message for a human.
@@ -153,8 +254,8 @@ public class Jukebox {
     @Override
     public String toString() {
         return "\n  {" +
-                "\n    \"id\": \"" + id + '\"' +
-                ",\n    \"model\": \"" + model + '\"' +
+                "\n    \"id\": \"" + getId() + '\"' +
+                ",\n    \"model\": \"" + getModel() + '\"' +
                 ",\n    \"components\": " + componentToJSON() +
                 "\n  }";
     }
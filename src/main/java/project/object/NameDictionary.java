@@ -0,0 +1,108 @@
+package project.object;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+/**
+ * This class is the global dictionary of model and component names. Every distinct name is normalized once,
+ * when it is first read, and numbered, so the {@link Fleet} only stores numbers and matching compares ints instead of strings.
+ * <br>Numbers never change and are shared by all snapshots, so a number found in one snapshot is valid in the next one.
+ * Names are few (a few models and a few dozen components), the dictionary is never cleared.
+ * <br>Every name is also kept as a quoted Json string, so that {@link Fleet} renders Jukeboxes without escaping names again.
+ * <br>Reads do not lock, new names are numbered one at a time.
+ * <br>It has the following methods:
+ * <br><br>{@link NameDictionary#normalize(String)}
+ * <br>{@link NameDictionary#encode(String)}
+ * <br>{@link NameDictionary#find(String)}
+ * <br>{@link NameDictionary#decode(int)}
+ * <br>{@link NameDictionary#json(int)}
+ * <br>{@link NameDictionary#size()}
+ * @author Shuzhao Feng
+ */
+public class NameDictionary {
+    private static final ConcurrentHashMap<String, Integer> NUMBERS = new ConcurrentHashMap<>(); // normalized name -> number
+    private static volatile String[] names = new String[64]; // number -> normalized name, published before its number
+    private static volatile byte[][] json = new byte[64][]; // number -> quoted name in UTF-8, published with the name
+    private static int size; // number of names, guarded by the class
+    /**
+     * This class only has static methods.
+     * @author Shuzhao Feng
+     */
+    private NameDictionary() {}
+    /**
+     * This method normalizes a name the way every name of the dictionary is normalized: trimmed and lower case.
+     * @param name The name to normalize.
+     * @return The normalized name.
+     * @author Shuzhao Feng
+     */
+    public static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+    /**
+     * This method finds the number of a name, and numbers it if it is new.
+     * @param name The name, normalized by this method.
+     * @return The number of the name.
+     * @author Shuzhao Feng
+     */
+    public static int encode(String name) {
+        Integer number = NUMBERS.get(name); // names are usually already normalized and known
+        if (number != null) return number;
+        String normalized = normalize(name);
+        number = NUMBERS.get(normalized);
+        if (number != null) return number;
+        synchronized (NameDictionary.class) {
+            number = NUMBERS.get(normalized);
+            if (number != null) return number; // numbered meanwhile
+            String[] temp = names;
+            byte[][] quoted = json;
+            if (size == temp.length) { // full, double its capacity
+                temp = Arrays.copyOf(temp, size * 2);
+                quoted = Arrays.copyOf(quoted, size * 2);
+            }
+            temp[size] = normalized;
+            quoted[size] = JsonBytes.quote(normalized);
+            json = quoted;
+            names = temp; // publish the name before its number
+            NUMBERS.put(normalized, size);
+            return size++;
+        }
+    }
+    /**
+     * This method finds the number of a name, without numbering it. Use it for names given by users, that may be anything.
+     * @param name The name, normalized by this method.
+     * @return The number of the name, -1 if the name was never read.
+     * @author Shuzhao Feng
+     */
+    public static int find(String name) {
+        if (name == null) return -1;
+        Integer number = NUMBERS.get(name);
+        if (number == null) number = NUMBERS.get(normalize(name));
+        return number == null ? -1 : number;
+    }
+    /**
+     * This method finds the name of a number.
+     * @param number The number, as returned by {@link NameDictionary#encode(String)}.
+     * @return The normalized name.
+     * @author Shuzhao Feng
+     */
+    public static String decode(int number) {
+        return names[number];
+    }
+    /**
+     * This method finds the Json string of a number.
+     * @param number The number, as returned by {@link NameDictionary#encode(String)}.
+     * @return The normalized name, quoted and encoded in UTF-8. The array is shared and must not be modified.
+     * @author Shuzhao Feng
+     */
+    public static byte[] json(int number) {
+        return json[number];
+    }
+    /**
+     * A simple size getter method.
+     * @return The number of names, all numbers are smaller.
+     * @author Shuzhao Feng
+     */
+    public static int size() {
+        return NUMBERS.size();
+    }
+}
@@ -0,0 +1,77 @@
+package project.query;
+
+import java.util.HashMap;
+import java.util.Map;
+import project.object.Fleet;
+import project.object.NameDictionary;
+import project.service.Snapshot;
+/**
+ * This predicate keeps the Jukeboxes owning at least a certain number of some components.
+ * <br>It has the following methods:
+ * <br><br>{@link ComponentPredicate#ComponentPredicate(Map)}
+ * <br>{@link ComponentPredicate#estimate(Snapshot)}
+ * <br>{@link ComponentPredicate#evaluate(Snapshot)}
+ * <br>{@link ComponentPredicate#test(Snapshot, int)}
+ * <br>{@link ComponentPredicate#toString()}
+ * @author Shuzhao Feng
+ */
+public class ComponentPredicate implements Predicate {
+    private final HashMap<String, Integer> whatWeNeed; // component -> minimum count
+    private final int[] names, needs; // the same requirement, as component numbers and minimum counts
+    /**
+     * This is the constructor of {@link ComponentPredicate}.
+     * @param whatWeNeed The full requirement in a map of {component, minimum count} pairs.
+     * @author Shuzhao Feng
+     */
+    public ComponentPredicate(Map<String, Integer> whatWeNeed) {
+        this.whatWeNeed = new HashMap<>(whatWeNeed);
+        this.names = new int[whatWeNeed.size()];
+        this.needs = new int[names.length];
+        int i = 0;
+        for (Map.Entry<String, Integer> e : whatWeNeed.entrySet()) { // number the components once, rows are tested on numbers
+            names[i] = NameDictionary.find(e.getKey()); // -1 if no Jukebox ever had it, no row will match
+            needs[i++] = e.getValue();
+        }
+    }
+    /**
+     * This method estimates the number of Jukeboxes kept, i.e. the size of the rarest requirement in the component index.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public int estimate(Snapshot snapshot) {
+        int min = snapshot.getIndex().size(); // an empty requirement keeps everything
+        for (Map.Entry<String, Integer> e : whatWeNeed.entrySet()) {
+            min = Math.min(min, snapshot.getIndex().count(e.getKey(), e.getValue()));
+        }
+        return min;
+    }
+    /**
+     * This method intersects the posting lists of the component index.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public int[] evaluate(Snapshot snapshot) {
+        return snapshot.getIndex().match(whatWeNeed);
+    }
+    /**
+     * This method checks whether a Jukebox meets every requirement.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public boolean test(Snapshot snapshot, int row) {
+        Fleet fleet = snapshot.getFleet();
+        for (int i = 0; i < names.length; i++) {
+            if (fleet.count(row, names[i]) < needs[i]) return false; // one requirement is not met
+        }
+        return true;
+    }
+    /**
+     * This method describes the predicate for query plans.
+     * @return A short description of the predicate.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public String toString() {
+        return "components at least " + whatWeNeed;
+    }
+}
@@ -0,0 +1,111 @@
+package project.query;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import com.google.gson.stream.JsonWriter;
+import project.object.NameDictionary;
+import project.service.FleetIndex;
+import project.service.Snapshot;
+/**
+ * This class counts the Jukeboxes of a {@link QueryResult} by model, by component and by supported setting, e.g. for dashboards.
+ * Counts are computed from row numbers and from the index, without creating or writing any Jukebox.
+ * When the result is the whole database, every count is read from the index: the length of a model list or of a posting list
+ * (see {@link FleetIndex#countModels(int[])} and {@link FleetIndex#countComponents(int[])}) and the size of a setting bitmap.
+ * Otherwise, the rows of the result are visited once per facet.
+ * <br>It has the following methods:
+ * <br><br>{@link Facets#Facets(Snapshot, QueryResult, Set)}
+ * <br>{@link Facets#size()}
+ * <br>{@link Facets#get(String)}
+ * <br>{@link Facets#writeJSON(OutputStream)}
+ * @author Shuzhao Feng
+ */
+public class Facets {
+    public static final Set<String> FACETS = Set.of("model", "component", "setting"); // facets that can be counted
+    private final int size; // number of Jukeboxes of the result
+    private final TreeMap<String, TreeMap<String, Integer>> counts = new TreeMap<>(); // facet -> value -> number of Jukeboxes
+    /**
+     * This is the constructor of {@link Facets}. It counts the requested facets right away, values without any Jukebox are left out.
+     * @param snapshot The snapshot the query was run on.
+     * @param result The result to count.
+     * @param facets The facets to count, among {@link Facets#FACETS}.
+     * @throws IllegalArgumentException if a facet is unknown.
+     * @author Shuzhao Feng
+     */
+    public Facets(Snapshot snapshot, QueryResult result, Set<String> facets) {
+        int[] rows = result.getRows(); // null for the whole database
+        this.size = result.size();
+        for (String facet : facets) {
+            if (!FACETS.contains(facet)) throw new IllegalArgumentException("Unknown facet: " + facet);
+        }
+        if (facets.contains("model")) counts.put("model", decode(snapshot.getIndex().countModels(rows)));
+        if (facets.contains("component")) counts.put("component", decode(snapshot.getIndex().countComponents(rows)));
+        if (facets.contains("setting")) {
+            TreeMap<String, Integer> settings = new TreeMap<>();
+            for (String id : snapshot.getSettings().getSettings().keySet()) {
+                BitSet bitmap = snapshot.getCompatibility(id);
+                int count = 0;
+                if (rows == null) { // the whole database
+                    count = bitmap.cardinality();
+                } else {
+                    for (int row : rows) if (bitmap.get(row)) count++;
+                }
+                if (count > 0) settings.put(id, count);
+            }
+            counts.put("setting", settings);
+        }
+    }
+    /**
+     * This method names the counts of an array indexed by {@link NameDictionary} numbers.
+     * @author Shuzhao Feng
+     */
+    private static TreeMap<String, Integer> decode(int[] counts) {
+        TreeMap<String, Integer> out = new TreeMap<>();
+        for (int name = 0; name < counts.length; name++) {
+            if (counts[name] > 0) out.put(NameDictionary.decode(name), counts[name]);
+        }
+        return out;
+    }
+    /**
+     * A simple size getter method.
+     * @return The number of Jukeboxes counted.
+     * @author Shuzhao Feng
+     */
+    public int size() {
+        return size;
+    }
+    /**
+     * A simple facet getter method.
+     * @param facet The facet, among {@link Facets#FACETS}.
+     * @return The number of Jukeboxes of every value of the facet, sorted by value, null if the facet was not counted.
+     * @author Shuzhao Feng
+     */
+    public Map<String, Integer> get(String facet) {
+        return counts.get(facet);
+    }
+    /**
+     * This method writes the counts as a Json object, with the number of Jukeboxes counted and an object of counts per facet.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @throws IOException may occur while writing to the stream.
+     * @author Shuzhao Feng
+     */
+    public void writeJSON(OutputStream output) throws IOException {
+        JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+        json.setIndent("  ");
+        json.beginObject();
+        json.name("results").value(size);
+        for (Map.Entry<String, TreeMap<String, Integer>> facet : counts.entrySet()) {
+            json.name(facet.getKey()).beginObject();
+            for (Map.Entry<String, Integer> e : facet.getValue().entrySet()) json.name(e.getKey()).value(e.getValue());
+            json.endObject();
+        }
+        json.endObject();
+        json.flush();
+    }
+}
@@ -0,0 +1,70 @@
+package project.query;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import project.service.FleetIndex;
+import project.service.Snapshot;
+/**
+ * This predicate keeps the Jukeboxes whose ID is one of a list of IDs.
+ * <br>It has the following methods:
+ * <br><br>{@link IdPredicate#IdPredicate(List)}
+ * <br>{@link IdPredicate#estimate(Snapshot)}
+ * <br>{@link IdPredicate#evaluate(Snapshot)}
+ * <br>{@link IdPredicate#test(Snapshot, int)}
+ * <br>{@link IdPredicate#toString()}
+ * @author Shuzhao Feng
+ */
+public class IdPredicate implements Predicate {
+    private final HashSet<String> ids; // IDs looking for
+    /**
+     * This is the constructor of {@link IdPredicate}.
+     * @param ids The IDs looking for.
+     * @author Shuzhao Feng
+     */
+    public IdPredicate(List<String> ids) {
+        this.ids = new HashSet<>(ids);
+    }
+    /**
+     * This method estimates the number of Jukeboxes kept, i.e. the number of distinct IDs as an ID is unique.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public int estimate(Snapshot snapshot) {
+        return ids.size();
+    }
+    /**
+     * This method finds the Jukeboxes of all IDs using the primary key of the index.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public int[] evaluate(Snapshot snapshot) {
+        FleetIndex index = snapshot.getIndex();
+        int[] rows = new int[ids.size()];
+        int size = 0;
+        for (String id : ids) { // look up each ID
+            int row = index.row(id);
+            if (row >= 0) rows[size++] = row; // keep the IDs that were found
+        }
+        rows = Arrays.copyOf(rows, size);
+        Arrays.sort(rows); // keep the database order
+        return rows;
+    }
+    /**
+     * This method checks whether the ID of a Jukebox is part of the ID set.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public boolean test(Snapshot snapshot, int row) {
+        return ids.contains(snapshot.getFleet().getId(row));
+    }
+    /**
+     * This method describes the predicate for query plans.
+     * @return A short description of the predicate.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public String toString() {
+        return "id in " + ids.size() + " ids";
+    }
+}
@@ -0,0 +1,83 @@
+package project.query;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import project.object.NameDictionary;
+import project.service.FleetIndex;
+import project.service.Snapshot;
+/**
+ * This predicate keeps the Jukeboxes whose model is one of a list of models.
+ * <br>It has the following methods:
+ * <br><br>{@link ModelPredicate#ModelPredicate(List)}
+ * <br>{@link ModelPredicate#estimate(Snapshot)}
+ * <br>{@link ModelPredicate#evaluate(Snapshot)}
+ * <br>{@link ModelPredicate#test(Snapshot, int)}
+ * <br>{@link ModelPredicate#toString()}
+ * @author Shuzhao Feng
+ */
+public class ModelPredicate implements Predicate {
+    private final HashSet<String> models; // models looking for
+    private final int[] numbers; // the same models as numbers, -1 for models that were never read
+    /**
+     * This is the constructor of {@link ModelPredicate}.
+     * @param models The models looking for.
+     * @author Shuzhao Feng
+     */
+    public ModelPredicate(List<String> models) {
+        this.models = new HashSet<>(models);
+        HashSet<Integer> found = new HashSet<>();
+        for (String model : this.models) found.add(NameDictionary.find(model)); // number the models once, spellings of a model share a number
+        this.numbers = found.stream().mapToInt(Integer::intValue).toArray();
+    }
+    /**
+     * This method counts the Jukeboxes kept, using the sizes of the model index.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public int estimate(Snapshot snapshot) {
+        int count = 0;
+        for (int model : numbers) {
+            count += snapshot.getIndex().rowsOfModel(model).length;
+        }
+        return count;
+    }
+    /**
+     * This method merges the rows of all models from the model index.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public int[] evaluate(Snapshot snapshot) {
+        FleetIndex index = snapshot.getIndex();
+        int[] rows = new int[estimate(snapshot)];
+        int size = 0;
+        for (int model : numbers) { // copy the rows of each model
+            int[] temp = index.rowsOfModel(model);
+            System.arraycopy(temp, 0, rows, size, temp.length);
+            size += temp.length;
+        }
+        if (numbers.length > 1) Arrays.sort(rows); // each model is sorted, but not their concatenation
+        return rows;
+    }
+    /**
+     * This method checks whether the model of a Jukebox is part of the model set.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public boolean test(Snapshot snapshot, int row) {
+        int model = snapshot.getFleet().getModel(row);
+        for (int number : numbers) {
+            if (number == model) return true;
+        }
+        return false;
+    }
+    /**
+     * This method describes the predicate for query plans.
+     * @return A short description of the predicate.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public String toString() {
+        return "model in " + models;
+    }
+}
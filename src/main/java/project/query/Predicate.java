@@ -0,0 +1,38 @@
+package project.query;
+
+import project.service.Snapshot;
+/**
+ * This interface defines a single condition of a query, e.g. "the model is fusion".
+ * Each predicate can estimate how many Jukeboxes it keeps from the index statistics, list them all using the index,
+ * or test a single Jukebox. {@link QueryEngine} evaluates the most selective predicate with the index,
+ * then tests the remaining candidates against the others.
+ * <br>It has the following methods:
+ * <br><br>{@link Predicate#estimate(Snapshot)}
+ * <br>{@link Predicate#evaluate(Snapshot)}
+ * <br>{@link Predicate#test(Snapshot, int)}
+ * @author Shuzhao Feng
+ */
+public interface Predicate {
+    /**
+     * This method estimates the number of Jukeboxes kept by the predicate, without visiting any of them.
+     * @param snapshot The snapshot holding the database and its index.
+     * @return An upper bound of the number of Jukeboxes kept.
+     * @author Shuzhao Feng
+     */
+    int estimate(Snapshot snapshot);
+    /**
+     * This method finds all Jukeboxes kept by the predicate using the index.
+     * @param snapshot The snapshot holding the database and its index.
+     * @return The sorted row numbers of all Jukeboxes kept, an empty array if none.
+     * @author Shuzhao Feng
+     */
+    int[] evaluate(Snapshot snapshot);
+    /**
+     * This method checks whether a single Jukebox is kept by the predicate.
+     * @param snapshot The snapshot holding the database and its index.
+     * @param row The row number of the Jukebox.
+     * @return true if the Jukebox is kept, false otherwise.
+     * @author Shuzhao Feng
+     */
+    boolean test(Snapshot snapshot, int row);
+}
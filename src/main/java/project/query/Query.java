@@ -0,0 +1,257 @@
+package project.query;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import project.object.NameDictionary;
+/**
+ * This class defines a normalized query on the Jukebox database, built from the query parameters of the endpoint.
+ * Lists are sorted and duplicates removed, and model and component names are normalized like {@link NameDictionary} names,
+ * so that two queries asking for the same thing are equal and share the same {@link Query#key()}.
+ * <br>It has the following methods:
+ * <br><br>{@link Query#Query(String[], String[], String, String[], Integer, Integer)}
+ * <br>{@link Query#Query(String[], String[], String[], String, String[], Integer, Integer)}
+ * <br>{@link Query#getIds()}
+ * <br>{@link Query#getOffset()}
+ * <br>{@link Query#getLimit()}
+ * <br>{@link Query#predicates()}
+ * <br>{@link Query#predicates(Map)}
+ * <br>{@link Query#shape()}
+ * <br>{@link Query#filterKey()}
+ * <br>{@link Query#key()}
+ * <br>{@link Query#toParameters(List, int, int)}
+ * <br>{@link Query#etag(String)}
+ * <br>{@link Query#etag(String, String)}
+ * <br>{@link Query#equals(Object)}
+ * <br>{@link Query#hashCode()}
+ * @author Shuzhao Feng
+ */
+public class Query {
+    private final List<String> ids, models; // sorted, distinct IDs and models, null if absent
+    private final List<String> settingIds; // sorted, distinct setting IDs, null if absent
+    private final boolean anySetting; // whether a Jukebox supporting one of the settings is enough, false for a single setting
+    private final TreeMap<String, Integer> components; // component -> minimum count, null if absent
+    private final int offset, limit; // page of the result
+    /**
+     * This is the constructor of {@link Query} for a single setting. Every parameter may be null when it is absent from the request.
+     * @param ids IDs looking for.
+     * @param models Models looking for.
+     * @param settingId Setting ID looking for.
+     * @param components Components looking for, either "name" (at least one) or "name:count" (at least count).
+     * @param offset Number of Jukeboxes to skip, 0 if absent.
+     * @param limit Maximum number of Jukeboxes to keep, no limit if absent.
+     * @throws IllegalArgumentException if a component count is not a positive number.
+     * @author Shuzhao Feng
+     */
+    public Query(String[] ids, String[] models, String settingId, String[] components, Integer offset, Integer limit) {
+        this(ids, models, settingId == null ? null : new String[]{settingId}, null, components, offset, limit);
+    }
+    /**
+     * This is the constructor of {@link Query}. Every parameter may be null when it is absent from the request.
+     * @param ids IDs looking for.
+     * @param models Models looking for.
+     * @param settingIds Setting IDs looking for.
+     * @param settingMatch "all" if a Jukebox must support all settings, "any" if one of them is enough, all if absent.
+     * @param components Components looking for, either "name" (at least one) or "name:count" (at least count).
+     * @param offset Number of Jukeboxes to skip, 0 if absent.
+     * @param limit Maximum number of Jukeboxes to keep, no limit if absent.
+     * @throws IllegalArgumentException if a component count is not a positive number, or the setting match is neither all nor any.
+     * @author Shuzhao Feng
+     */
+    public Query(String[] ids, String[] models, String[] settingIds, String settingMatch, String[] components, Integer offset, Integer limit) {
+        this.ids = normalize(ids);
+        this.models = models == null ? null : normalize(Arrays.stream(models).map(NameDictionary::normalize).toArray(String[]::new));
+        this.settingIds = settingIds == null || settingIds.length == 0 ? null : normalize(settingIds);
+        String match = settingMatch == null ? "all" : NameDictionary.normalize(settingMatch);
+        if (!match.equals("all") && !match.equals("any")) throw new IllegalArgumentException("Invalid setting match: " + settingMatch);
+        this.anySetting = match.equals("any") && this.settingIds != null && this.settingIds.size() > 1; // the same for a single setting
+        this.offset = offset == null ? 0 : Math.max(offset, 0); // prevent NPException
+        this.limit = limit == null ? Integer.MAX_VALUE : Math.max(limit, 0);
+        if (components == null) {
+            this.components = null;
+        } else {
+            this.components = new TreeMap<>();
+            for (String comp : components) { // parse "name" or "name:count"
+                int colon = comp.lastIndexOf(':');
+                String name = NameDictionary.normalize(colon < 0 ? comp : comp.substring(0, colon));
+                int count;
+                try {
+                    count = colon < 0 ? 1 : Integer.parseInt(comp.substring(colon + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid component count: " + comp);
+                }
+                if (count < 1) throw new IllegalArgumentException("Invalid component count: " + comp);
+                this.components.merge(name, count, Math::max); // the same component twice keeps the highest count
+            }
+        }
+    }
+    /**
+     * This method sorts an array and removes its duplicates.
+     * @param arr The array to normalize, may be null.
+     * @return An unmodifiable sorted list of distinct values, null if the input is null.
+     * @author Shuzhao Feng
+     */
+    private static List<String> normalize(String[] arr) {
+        if (arr == null) return null; // parameter is absent
+        return List.copyOf(new TreeSet<>(Arrays.asList(arr)));
+    }
+    /**
+     * A simple ID getter method.
+     * @return The sorted, distinct IDs looking for, null if the query does not filter on IDs.
+     * @author Shuzhao Feng
+     */
+    public List<String> getIds() {
+        return ids;
+    }
+    /**
+     * A simple offset getter method.
+     * @return The number of Jukeboxes to skip.
+     * @author Shuzhao Feng
+     */
+    public int getOffset() {
+        return offset;
+    }
+    /**
+     * A simple limit getter method.
+     * @return The maximum number of Jukeboxes to keep.
+     * @author Shuzhao Feng
+     */
+    public int getLimit() {
+        return limit;
+    }
+    /**
+     * This method converts the query into predicates for the {@link QueryEngine}.
+     * @return A list of predicates, all of which must be met, empty if the query keeps the whole database.
+     * @author Shuzhao Feng
+     */
+    public List<Predicate> predicates() {
+        return predicates(new HashMap<>());
+    }
+    /**
+     * This method converts the query into predicates, reusing the predicates of other queries of the same batch,
+     * so that a predicate shared by several queries is a single object and is evaluated once.
+     * @param shared Predicates already created, by their part of the key. New predicates are added to it.
+     * @return A list of predicates, all of which must be met, empty if the query keeps the whole database.
+     * @author Shuzhao Feng
+     */
+    public List<Predicate> predicates(Map<String, Predicate> shared) {
+        ArrayList<Predicate> out = new ArrayList<>();
+        if (ids != null) out.add(shared.computeIfAbsent("id=" + ids, k -> new IdPredicate(ids)));
+        if (models != null) out.add(shared.computeIfAbsent("model=" + models, k -> new ModelPredicate(models)));
+        if (components != null) out.add(shared.computeIfAbsent("component=" + components, k -> new ComponentPredicate(components)));
+        if (settingIds != null) out.add(shared.computeIfAbsent("settingid=" + settingIds + (anySetting ? "&any" : ""),
+                k -> new SettingPredicate(settingIds, anySetting)));
+        return out;
+    }
+    /**
+     * This method returns the shape of the query: the sorted names of the parameters it filters on, e.g. "component+model".
+     * Shapes are few (one per combination of parameters), unlike keys, so they can tag metrics.
+     * @return The parameters joined by "+", "all" if the query keeps the whole database.
+     * @author Shuzhao Feng
+     */
+    public String shape() {
+        TreeSet<String> names = new TreeSet<>();
+        if (ids != null) names.add("id");
+        if (models != null) names.add("model");
+        if (components != null) names.add("component");
+        if (settingIds != null) names.add("settingid");
+        return names.isEmpty() ? "all" : String.join("+", names);
+    }
+    /**
+     * This method returns a String identifying the Jukeboxes kept by the query, whatever the page.
+     * Two queries with the same filter key have the same result before pagination.
+     * @return The key of the query, without offset and limit.
+     * @author Shuzhao Feng
+     */
+    public String filterKey() {
+        return "id=" + ids + "&model=" + models + "&settingid=" + settingIds + (anySetting ? "&settingmatch=any" : "") + "&component=" + components;
+    }
+    /**
+     * This method returns a String identifying the query. Two equal queries have the same key.
+     * @return The key of the query.
+     * @author Shuzhao Feng
+     */
+    public String key() {
+        return filterKey() + "&offset=" + offset + "&limit=" + limit;
+    }
+    /**
+     * This method writes the query back as the parameters of the endpoint, e.g. to send it to another node.
+     * Parameters are normalized, so the query read back from them is equal to this one, with other IDs and page.
+     * @param ids The IDs to ask for instead of the IDs of the query, e.g. those owned by a shard. null if the query does not filter on IDs.
+     * @param offset The number of Jukeboxes to skip.
+     * @param limit The maximum number of Jukeboxes, no limit for Integer.MAX_VALUE.
+     * @return The URL-encoded parameters, joined by "&amp;".
+     * @author Shuzhao Feng
+     */
+    public String toParameters(List<String> ids, int offset, int limit) {
+        StringBuilder str = new StringBuilder();
+        if (ids != null) for (String id : ids) parameter(str, "id", id);
+        if (models != null) for (String model : models) parameter(str, "model", model);
+        if (settingIds != null) for (String settingId : settingIds) parameter(str, "settingid", settingId);
+        if (anySetting) parameter(str, "settingmatch", "any");
+        if (components != null) for (Map.Entry<String, Integer> e : components.entrySet()) parameter(str, "component", e.getKey() + ":" + e.getValue());
+        parameter(str, "offset", String.valueOf(offset));
+        if (limit != Integer.MAX_VALUE) parameter(str, "limit", String.valueOf(limit));
+        return str.toString();
+    }
+    /**
+     * This method appends a URL-encoded parameter.
+     * @author Shuzhao Feng
+     */
+    private static void parameter(StringBuilder str, String name, String value) {
+        if (str.length() > 0) str.append('&');
+        str.append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+    }
+    /**
+     * This method returns an entity tag for the response of the query on a version of the data, e.g. W/"5c1f....42-0f1e...".
+     * The response of a query only depends on the data, so a client holding the tag of the current version already has the response.
+     * The tag is weak, it is the same whether the response is compressed or not.
+     * @param tag The tag of the data, see {@link project.service.Snapshot#getTag()}.
+     * @return The entity tag, quoted.
+     * @author Shuzhao Feng
+     */
+    public String etag(String tag) {
+        return etag(tag, null);
+    }
+    /**
+     * This method returns an entity tag for a representation of the response of the query, e.g. W/"5c1f....42-0f1e...-binary",
+     * so that a client holding the response in one format does not get a 304 when asking for another one.
+     * @param tag The tag of the data, see {@link project.service.Snapshot#getTag()}.
+     * @param format The format of the response, null for Json.
+     * @return The entity tag, quoted.
+     * @author Shuzhao Feng
+     */
+    public String etag(String tag, String format) {
+        UUID hash = UUID.nameUUIDFromBytes(key().getBytes(StandardCharsets.UTF_8)); // 128 bits, keys may be long
+        return "W/\"" + tag + "-" + Long.toHexString(hash.getMostSignificantBits()) + Long.toHexString(hash.getLeastSignificantBits())
+                + (format == null ? "" : "-" + format) + "\"";
+    }
+    /**
+     * This method checks whether the query is equivalent to another object.
+     * @param obj The object to compare with.
+     * @return true if the other object is a query with the same key, false otherwise.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof Query query)) return false;
+        return key().equals(query.key());
+    }
+    /**
+     * This method returns a hash code consistent with {@link Query#equals(Object)}.
+     * @return The hash code of the key.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public int hashCode() {
+        return key().hashCode();
+    }
+}
@@ -0,0 +1,295 @@
+package project.query;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import project.service.Snapshot;
+/**
+ * This class caches serialized query results, so that a query repeated by many devices is planned and serialized only once.
+ * <br>Entries are keyed by the normalized {@link Query} and tagged with the version of the data they were computed from.
+ * An entry read with another version is stale: it is dropped and counted as a miss, so results never outlive the data.
+ * <br>When a few Jukeboxes are patched, {@link QueryCache#revalidate(Snapshot, Snapshot, int[])} carries the entries
+ * that none of them affects over to the new version, instead of letting every entry go stale.
+ * <br>The cache is bounded by a maximum weight (bytes of cached responses), and evicts the least recently used entries first.
+ * <br>A response asked again by a client accepting gzip is compressed once, and the compressed body is kept with the entry,
+ * so hot responses are sent as they are, without being compressed for every request.
+ * <br>It has the following methods:
+ * <br><br>{@link QueryCache#QueryCache(long)}
+ * <br>{@link QueryCache#get(Query, long)}
+ * <br>{@link QueryCache#getCompressed(Query, long)}
+ * <br>{@link QueryCache#put(Query, long, byte[])}
+ * <br>{@link QueryCache#record(Query, long, OutputStream)}
+ * <br>{@link QueryCache#revalidate(Snapshot, Snapshot, int[])}
+ * <br>{@link QueryCache#getHits()}
+ * <br>{@link QueryCache#getMisses()}
+ * <br>{@link QueryCache#getEvictions()}
+ * <br>{@link QueryCache#getWeight()}
+ * <br>{@link QueryCache#bindTo(MeterRegistry)}
+ * @author Shuzhao Feng
+ */
+@Component
+public class QueryCache implements MeterBinder {
+    private final long maxWeight; // maximum number of bytes kept
+    private final LinkedHashMap<String, Entry> entries; // query key -> cached response, least recently used first
+    private long weight; // number of bytes kept, guarded by this
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong(); // statistics
+    /**
+     * A cached response.
+     * @param query The query answered.
+     * @param version Version of the data the response was computed from.
+     * @param body The serialized response.
+     * @param gzip The serialized response compressed with gzip, null until a client accepting gzip asks for it.
+     * @author Shuzhao Feng
+     */
+    private record Entry(Query query, long version, byte[] body, byte[] gzip) {
+        /**
+         * This method counts the bytes kept for the response.
+         * @author Shuzhao Feng
+         */
+        long weight() {
+            return body.length + (gzip == null ? 0 : gzip.length);
+        }
+    }
+    /**
+     * This is the constructor of {@link QueryCache}.
+     * @param maxWeight Maximum number of bytes of cached responses, set by the property jukebox.cache.max-weight. 0 disables the cache.
+     * @author Shuzhao Feng
+     */
+    public QueryCache(@Value("${jukebox.cache.max-weight:33554432}") long maxWeight) {
+        this.maxWeight = maxWeight;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true); // access order, the eldest entry is the least recently used
+    }
+    /**
+     * This method looks for the cached response of a query.
+     * @param query The query.
+     * @param version The current version of the data.
+     * @return The cached response, null if it is absent or was computed from another version of the data.
+     * @author Shuzhao Feng
+     */
+    public synchronized byte[] get(Query query, long version) {
+        Entry entry = entry(query, version);
+        return entry == null ? null : entry.body();
+    }
+    /**
+     * This method looks for the cached response of a query, compressed with gzip. The response is compressed the first time only,
+     * outside the lock, and the compressed body is then kept with the entry.
+     * @param query The query.
+     * @param version The current version of the data.
+     * @return The cached response compressed with gzip, null if it is absent or was computed from another version of the data.
+     * @author Shuzhao Feng
+     */
+    public byte[] getCompressed(Query query, long version) {
+        Entry entry;
+        synchronized (this) {
+            entry = entry(query, version);
+        }
+        if (entry == null) return null;
+        if (entry.gzip() != null) return entry.gzip(); // hot response, already compressed
+        ByteArrayOutputStream out = new ByteArrayOutputStream(entry.body().length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(entry.body());
+        } catch (IOException e) { // never thrown by an array
+            throw new IllegalStateException(e);
+        }
+        byte[] compressed = out.toByteArray();
+        synchronized (this) {
+            Entry update = new Entry(entry.query(), entry.version(), entry.body(), compressed);
+            if (update.weight() <= maxWeight && entries.replace(query.key(), entry, update)) { // unless it was replaced meanwhile
+                weight += compressed.length;
+                evict();
+            }
+        }
+        return compressed;
+    }
+    /**
+     * This method looks for the entry of a query and counts a hit or a miss, dropping the entry if it is stale.
+     * @author Shuzhao Feng
+     */
+    private Entry entry(Query query, long version) {
+        Entry entry = entries.get(query.key());
+        if (entry != null && entry.version() != version) { // stale entry, the data changed since
+            entries.remove(query.key());
+            weight -= entry.weight();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+    /**
+     * This method caches the response of a query, evicting the least recently used entries if the cache is full.
+     * Responses heavier than the whole cache are not cached.
+     * @param query The query.
+     * @param version The version of the data the response was computed from.
+     * @param body The serialized response. It must not be modified afterwards.
+     * @author Shuzhao Feng
+     */
+    public synchronized void put(Query query, long version, byte[] body) {
+        if (body.length > maxWeight) return; // would not fit anyway
+        Entry old = entries.put(query.key(), new Entry(query, version, body, null));
+        if (old != null) weight -= old.weight();
+        weight += body.length;
+        evict();
+    }
+    /**
+     * This method evicts the least recently used entries until the cache is not heavier than its maximum weight.
+     * @author Shuzhao Feng
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (weight > maxWeight && it.hasNext()) { // evict from the least recently used
+            Entry eldest = it.next().getValue();
+            it.remove();
+            weight -= eldest.weight();
+            evictions.incrementAndGet();
+        }
+    }
+    /**
+     * This method wraps a response stream, so that everything written to it is also recorded,
+     * and cached under the query once the stream is closed. Recording stops as soon as the response is heavier than
+     * the whole cache, so a large response is still streamed without being held in memory.
+     * @param query The query being answered.
+     * @param version The version of the data the response is computed from.
+     * @param target The response stream. It is flushed but not closed.
+     * @return A stream to write the response to.
+     * @author Shuzhao Feng
+     */
+    public OutputStream record(Query query, long version, OutputStream target) {
+        return new OutputStream() {
+            private ByteArrayOutputStream copy = new ByteArrayOutputStream(); // null once the response is too heavy
+            @Override
+            public void write(int b) throws IOException {
+                target.write(b);
+                if (copy != null) copy.write(b);
+                check();
+            }
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                target.write(b, off, len);
+                if (copy != null) copy.write(b, off, len);
+                check();
+            }
+            private void check() {
+                if (copy != null && copy.size() > maxWeight) copy = null; // too heavy, give up recording
+            }
+            @Override
+            public void flush() throws IOException {
+                target.flush();
+            }
+            @Override
+            public void close() throws IOException {
+                target.flush();
+                if (copy != null) put(query, version, copy.toByteArray()); // complete response, cache it
+                copy = null;
+            }
+        };
+    }
+    /**
+     * This method carries the entries of a snapshot over to its patched version, when the patch does not change their response.
+     * A response only changes if a patched Jukebox is part of it before or after the patch: the other Jukeboxes did not change,
+     * and neither did the answer of any predicate about them. Entries are checked outside the lock, only against the patched rows,
+     * so the cost depends on the number of entries and changes, not on the size of the database.
+     * @param before The snapshot that was patched.
+     * @param after The patched snapshot, with the same rows.
+     * @param rows The patched rows.
+     * @return The number of entries carried over.
+     * @author Shuzhao Feng
+     */
+    public int revalidate(Snapshot before, Snapshot after, int[] rows) {
+        ArrayList<Entry> current = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                if (entry.version() == before.getVersion()) current.add(entry);
+            }
+        }
+        ArrayList<Entry> carried = new ArrayList<>();
+        for (Entry entry : current) {
+            List<Predicate> predicates = entry.query().predicates();
+            boolean affected = false;
+            for (int row : rows) {
+                if (keeps(predicates, before, row) || keeps(predicates, after, row)) {
+                    affected = true;
+                    break;
+                }
+            }
+            if (!affected) carried.add(entry);
+        }
+        synchronized (this) {
+            for (Entry entry : carried) { // unless it was replaced meanwhile
+                entries.replace(entry.query().key(), entry, new Entry(entry.query(), after.getVersion(), entry.body(), entry.gzip()));
+            }
+        }
+        return carried.size();
+    }
+    /**
+     * This method checks whether a Jukebox is part of the result of a query.
+     * @author Shuzhao Feng
+     */
+    private static boolean keeps(List<Predicate> predicates, Snapshot snapshot, int row) {
+        for (Predicate predicate : predicates) {
+            if (!predicate.test(snapshot, row)) return false;
+        }
+        return true;
+    }
+    /**
+     * A simple hit counter getter method.
+     * @return The number of responses found in the cache.
+     * @author Shuzhao Feng
+     */
+    public long getHits() {
+        return hits.get();
+    }
+    /**
+     * A simple miss counter getter method.
+     * @return The number of responses absent from the cache, or stale.
+     * @author Shuzhao Feng
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+    /**
+     * A simple eviction counter getter method.
+     * @return The number of entries evicted to make room for new ones.
+     * @author Shuzhao Feng
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+    /**
+     * A simple weight getter method.
+     * @return The number of bytes of cached responses.
+     * @author Shuzhao Feng
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+    /**
+     * This method registers the statistics of the cache as jukebox.cache.hits, jukebox.cache.misses, jukebox.cache.evictions and jukebox.cache.weight.
+     * Spring calls it once the registry is created. The counters are read when the registry is scraped, the cache counts nothing more.
+     * @param registry The registry to add the meters to.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("jukebox.cache.hits", this, QueryCache::getHits).description("Responses found in the cache").register(registry);
+        FunctionCounter.builder("jukebox.cache.misses", this, QueryCache::getMisses).description("Responses absent from the cache, or stale").register(registry);
+        FunctionCounter.builder("jukebox.cache.evictions", this, QueryCache::getEvictions).description("Entries evicted to make room for new ones").register(registry);
+        Gauge.builder("jukebox.cache.weight", this, QueryCache::getWeight).description("Size of the cached responses").baseUnit("bytes").register(registry);
+    }
+}
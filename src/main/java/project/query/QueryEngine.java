@@ -0,0 +1,187 @@
+package project.query;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import project.service.JukeboxAPI;
+import project.service.Snapshot;
+/**
+ * This is the query engine of the application. It replaces the combination of fully evaluated filters by a small plan:
+ * <br>1-Estimate how many Jukeboxes each predicate keeps, from the index statistics,
+ * <br>2-Evaluate the most selective predicate with the index, which gives the candidates,
+ * <br>3-Test the candidates against the remaining predicates, most selective first, with the {@link project.service.FleetScan} of the api.
+ * <br>The cost of a query is then driven by its most selective predicate, not by the size of the database.
+ * <br>Queries sent together in a batch share their work: a predicate found in several queries is estimated and evaluated once,
+ * and queries asking for the same Jukeboxes (e.g. different pages) share a single result.
+ * <br>Every query is measured in a {@link MeterRegistry}: jukebox.query times whole queries and jukebox.query.results counts
+ * the Jukeboxes they keep, both tagged with the shape of the query (the kinds of its predicates, e.g. "component+model"),
+ * and jukebox.query.stage times every stage, tagged with its step and the kind of its predicate.
+ * <br>It has the following methods:
+ * <br><br>{@link QueryEngine#QueryEngine(JukeboxAPI)}
+ * <br>{@link QueryEngine#QueryEngine(JukeboxAPI, MeterRegistry)}
+ * <br>{@link QueryEngine#run(Query)}
+ * <br>{@link QueryEngine#run(Query, Snapshot)}
+ * <br>{@link QueryEngine#run(List, Snapshot)}
+ * @author Shuzhao Feng
+ */
+@Service
+public class QueryEngine {
+    private final JukeboxAPI api; // database and indexes
+    private final MeterRegistry registry; // where queries are measured
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>(); // step and kind, or shape -> timer, to skip the registry lookup
+    private final ConcurrentHashMap<String, DistributionSummary> sizes = new ConcurrentHashMap<>(); // shape -> result size distribution
+    /**
+     * This is the constructor of {@link QueryEngine}. Queries are measured in the global registry of Micrometer.
+     * @param api Jukebox API, holding the database and its indexes.
+     * @author Shuzhao Feng
+     */
+    public QueryEngine(JukeboxAPI api) {
+        this(api, Metrics.globalRegistry);
+    }
+    /**
+     * This is the constructor of {@link QueryEngine} used by Spring.
+     * @param api Jukebox API, holding the database and its indexes.
+     * @param registry Registry the queries are measured in.
+     * @author Shuzhao Feng
+     */
+    @Autowired
+    public QueryEngine(JukeboxAPI api, MeterRegistry registry) {
+        this.api = api;
+        this.registry = registry;
+    }
+    /**
+     * A plan entry, used to rank predicates before evaluation.
+     * @param predicate The predicate.
+     * @param estimate The estimated number of Jukeboxes kept by the predicate.
+     * @author Shuzhao Feng
+     */
+    private record Ranked(Predicate predicate, int estimate) {}
+    /**
+     * The work shared by the queries of a batch. A single query is a batch of one.
+     * @author Shuzhao Feng
+     */
+    private static class Batch {
+        private final HashMap<String, Predicate> predicates = new HashMap<>(); // part of a query key -> predicate shared by the queries
+        private final IdentityHashMap<Predicate, Integer> estimates = new IdentityHashMap<>(); // predicate -> estimated number of Jukeboxes kept
+        private final IdentityHashMap<Predicate, int[]> evaluated = new IdentityHashMap<>(); // predicate -> rows kept, never modified
+        private final HashMap<String, QueryResult> results = new HashMap<>(); // filter key -> first result with this filter
+    }
+    /**
+     * This method plans and runs a query on the current snapshot.
+     * @param query The query to run.
+     * @return The result of the query, with the chosen plan and the time spent in each stage.
+     * @author Shuzhao Feng
+     */
+    public QueryResult run(Query query) {
+        return run(query, api.getSnapshot());
+    }
+    /**
+     * This method plans and runs a query on a given snapshot, so that the whole query sees a single version of the data.
+     * @param query The query to run.
+     * @param snapshot The snapshot to run the query on.
+     * @return The result of the query, with the chosen plan and the time spent in each stage.
+     * @author Shuzhao Feng
+     */
+    public QueryResult run(Query query, Snapshot snapshot) {
+        return run(query, snapshot, new Batch());
+    }
+    /**
+     * This method plans and runs a batch of queries on a given snapshot, sharing the work of their common predicates.
+     * The more queries share predicates, the less each query costs.
+     * @param queries The queries to run.
+     * @param snapshot The snapshot to run the queries on.
+     * @return The results of the queries, in the same order.
+     * @author Shuzhao Feng
+     */
+    public List<QueryResult> run(List<Query> queries, Snapshot snapshot) {
+        Batch batch = new Batch();
+        ArrayList<QueryResult> out = new ArrayList<>(queries.size());
+        for (Query query : queries) {
+            out.add(run(query, snapshot, batch));
+        }
+        return out;
+    }
+    /**
+     * This method plans, runs and measures a query of a batch.
+     * @author Shuzhao Feng
+     */
+    private QueryResult run(Query query, Snapshot snapshot, Batch batch) {
+        long start = System.nanoTime();
+        QueryResult result = evaluate(query, snapshot, batch);
+        String shape = query.shape();
+        timers.computeIfAbsent(shape, k -> Timer.builder("jukebox.query").description("Time spent planning and running a query")
+                .tag("shape", k).publishPercentileHistogram().register(registry)).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        sizes.computeIfAbsent(shape, k -> DistributionSummary.builder("jukebox.query.results").description("Number of Jukeboxes kept by a query")
+                .baseUnit("jukeboxes").tag("shape", k).publishPercentileHistogram().register(registry)).record(result.size());
+        return result;
+    }
+    /**
+     * This method adds a stage to a plan, and measures it.
+     * @param predicate The predicate evaluated by the stage, null if the stage evaluates none. Its kind tags the timer.
+     * @author Shuzhao Feng
+     */
+    private void stage(List<QueryResult.Stage> stages, String step, Predicate predicate, String detail, int estimate, int rows, long nanos) {
+        stages.add(new QueryResult.Stage(step, detail, estimate, rows, nanos));
+        String kind = predicate == null ? "none" : kind(predicate);
+        timers.computeIfAbsent(step + "/" + kind, k -> Timer.builder("jukebox.query.stage").description("Time spent in a stage of a query")
+                .tag("step", step).tag("predicate", kind).register(registry)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+    /**
+     * This method finds the kind of a predicate from its class, e.g. "component" for a {@link ComponentPredicate}.
+     * @author Shuzhao Feng
+     */
+    private static String kind(Predicate predicate) {
+        String name = predicate.getClass().getSimpleName();
+        if (name.endsWith("Predicate")) name = name.substring(0, name.length() - "Predicate".length());
+        return name.toLowerCase(Locale.ROOT);
+    }
+    /**
+     * This method plans and runs a query of a batch, reusing what the previous queries of the batch computed.
+     * @author Shuzhao Feng
+     */
+    private QueryResult evaluate(Query query, Snapshot snapshot, Batch batch) {
+        QueryResult same = batch.results.get(query.filterKey());
+        if (same != null) return same.withQuery(query); // same Jukeboxes, maybe another page
+        List<Predicate> predicates = query.predicates(batch.predicates);
+        ArrayList<QueryResult.Stage> stages = new ArrayList<>();
+        if (predicates.isEmpty()) { // nothing to filter, the result is the whole database
+            return new QueryResult(snapshot, query, null, stages);
+        }
+        long start = System.nanoTime();
+        ArrayList<Ranked> plan = new ArrayList<>();
+        for (Predicate p : predicates) { // estimate every predicate from the index statistics, once per batch
+            plan.add(new Ranked(p, batch.estimates.computeIfAbsent(p, k -> k.estimate(snapshot))));
+        }
+        plan.sort(Comparator.comparingInt(Ranked::estimate)); // most selective first
+        stage(stages, "plan", null, predicates.size() + " predicates", -1, -1, System.nanoTime() - start);
+        start = System.nanoTime();
+        Ranked first = plan.get(0);
+        int[] rows = batch.evaluated.get(first.predicate());
+        String step = rows == null ? "index" : "shared"; // evaluated by a previous query of the batch
+        if (rows == null) {
+            rows = first.predicate().evaluate(snapshot); // candidates from the index
+            batch.evaluated.put(first.predicate(), rows);
+        }
+        stage(stages, step, first.predicate(), first.predicate().toString(), first.estimate(), rows.length, System.nanoTime() - start);
+        for (int i = 1; i < plan.size(); i++) { // test the candidates against every other predicate
+            start = System.nanoTime();
+            Ranked next = plan.get(i);
+            rows = api.getScan().filter(rows, row -> next.predicate().test(snapshot, row)); // in parallel segments if there are many
+            stage(stages, "filter", next.predicate(), next.predicate().toString(), next.estimate(), rows.length, System.nanoTime() - start);
+        }
+        QueryResult result = new QueryResult(snapshot, query, rows, stages);
+        batch.results.put(query.filterKey(), result);
+        return result;
+    }
+}
@@ -0,0 +1,27 @@
+package project.query;
+/**
+ * This record holds the parameters of a single query of a batch, as sent to the batch endpoint of {@link project.Controller}.
+ * Fields have the names and meaning of the query parameters of the endpoint, and may be null when absent.
+ * <br>It has the following methods:
+ * <br><br>{@link QueryParameters#toQuery()}
+ * @param key Name of the query in the response, the normalized {@link Query#key()} if absent.
+ * @param id IDs looking for.
+ * @param model Models looking for.
+ * @param settingid Setting IDs looking for, a single one may be sent without a list.
+ * @param settingmatch "all" if a Jukebox must support all settings, "any" if one of them is enough, all if absent.
+ * @param component Components looking for, either "name" (at least one) or "name:count" (at least count).
+ * @param offset Number of Jukeboxes to skip, 0 if absent.
+ * @param limit Maximum number of Jukeboxes to send, no limit if absent.
+ * @author Shuzhao Feng
+ */
+public record QueryParameters(String key, String[] id, String[] model, String[] settingid, String settingmatch, String[] component, Integer offset, Integer limit) {
+    /**
+     * This method normalizes the parameters into a {@link Query}.
+     * @return The query.
+     * @throws IllegalArgumentException if a component count is not a positive number, or the setting match is neither all nor any.
+     * @author Shuzhao Feng
+     */
+    public Query toQuery() {
+        return new Query(id, model, settingid, settingmatch, component, offset, limit);
+    }
+}
@@ -0,0 +1,152 @@
+package project.query;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import com.google.gson.stream.JsonWriter;
+import project.object.Jukebox;
+import project.service.FleetIndex;
+import project.service.Snapshot;
+/**
+ * This class holds the result of a {@link Query} run by the {@link QueryEngine}, as row numbers of the database,
+ * together with the plan that produced it. Jukeboxes are only looked up for the requested page.
+ * <br>It has the following methods:
+ * <br><br>{@link QueryResult#QueryResult(Snapshot, Query, int[], List)}
+ * <br>{@link QueryResult#withQuery(Query)}
+ * <br>{@link QueryResult#size()}
+ * <br>{@link QueryResult#getRows()}
+ * <br>{@link QueryResult#getStages()}
+ * <br>{@link QueryResult#page()}
+ * <br>{@link QueryResult#writePlan(OutputStream)}
+ * @author Shuzhao Feng
+ */
+public class QueryResult {
+    private final FleetIndex index; // index the row numbers refer to
+    private final Query query; // query that produced the result
+    private final int[] rows; // sorted row numbers of the result, null if the result is the whole database
+    private final List<Stage> stages; // plan that produced the result
+    /**
+     * A single stage of a query plan.
+     * @param step The kind of stage: "plan", "index" or "filter".
+     * @param predicate Description of the predicate evaluated by the stage.
+     * @param estimate Estimated number of Jukeboxes kept by the predicate, -1 if not applicable.
+     * @param rows Number of Jukeboxes left after the stage, -1 if not applicable.
+     * @param nanos Time spent in the stage.
+     * @author Shuzhao Feng
+     */
+    public record Stage(String step, String predicate, int estimate, int rows, long nanos) {}
+    /**
+     * This is the constructor of {@link QueryResult}.
+     * @param snapshot The snapshot the query was run on.
+     * @param query The query.
+     * @param rows Sorted row numbers of the result, null if the result is the whole database.
+     * @param stages The plan that produced the result.
+     * @author Shuzhao Feng
+     */
+    public QueryResult(Snapshot snapshot, Query query, int[] rows, List<Stage> stages) {
+        this.index = snapshot.getIndex();
+        this.query = query;
+        this.rows = rows;
+        this.stages = stages;
+    }
+    /**
+     * This is the constructor of {@link QueryResult} for another query sharing the rows of a result.
+     * @author Shuzhao Feng
+     */
+    private QueryResult(QueryResult result, Query query) {
+        this.index = result.index;
+        this.query = query;
+        this.rows = result.rows;
+        this.stages = List.of(new Stage("shared", query.filterKey(), -1, result.size(), 0)); // nothing was run
+    }
+    /**
+     * This method reuses the result for another query keeping the same Jukeboxes, e.g. another page of the same query.
+     * @param query The other query, with the same {@link Query#filterKey()}.
+     * @return A result sharing the rows of this one, paginated by the other query.
+     * @author Shuzhao Feng
+     */
+    public QueryResult withQuery(Query query) {
+        return new QueryResult(this, query);
+    }
+    /**
+     * This method counts the Jukeboxes of the result, before pagination.
+     * @return The size of the result.
+     * @author Shuzhao Feng
+     */
+    public int size() {
+        return rows == null ? index.size() : rows.length;
+    }
+    /**
+     * A simple row getter method.
+     * @return The sorted row numbers of the result, before pagination, null if the result is the whole database.
+     * The array is shared and must not be modified.
+     * @author Shuzhao Feng
+     */
+    public int[] getRows() {
+        return rows;
+    }
+    /**
+     * A simple stage getter method.
+     * @return The stages of the plan that produced the result, empty if no predicate was needed.
+     * @author Shuzhao Feng
+     */
+    public List<Stage> getStages() {
+        return stages;
+    }
+    /**
+     * This method returns the Jukeboxes of the requested page of the result, using the offset and limit of the query.
+     * Nothing is copied: a Jukebox is looked up when it is read, so a page of the whole database costs nothing until written.
+     * @return A read-only list of the Jukeboxes of the page, an empty list if there is nothing left.
+     * @author Shuzhao Feng
+     */
+    public List<Jukebox> page() {
+        int from = Math.min(query.getOffset(), size()); // clamp both bounds to the result
+        int length = Math.min(query.getLimit(), size() - from);
+        class Page extends AbstractList<Jukebox> implements RandomAccess {
+            @Override
+            public Jukebox get(int i) {
+                if (i < 0 || i >= length) throw new IndexOutOfBoundsException(i);
+                return index.get(rows == null ? from + i : rows[from + i]); // only the page is looked up
+            }
+            @Override
+            public int size() {
+                return length;
+            }
+        }
+        return new Page();
+    }
+    /**
+     * This method writes the plan that produced the result as a Json object, with the time spent in each stage.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @throws IOException may occur while writing to the stream.
+     * @author Shuzhao Feng
+     */
+    public void writePlan(OutputStream output) throws IOException {
+        JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+        json.setIndent("  ");
+        json.beginObject();
+        json.name("query").value(query.key());
+        json.name("results").value(size());
+        json.name("plan").beginArray();
+        long total = 0;
+        for (Stage stage : stages) {
+            json.beginObject();
+            json.name("step").value(stage.step());
+            json.name("predicate").value(stage.predicate());
+            if (stage.estimate() >= 0) json.name("estimate").value(stage.estimate());
+            if (stage.rows() >= 0) json.name("rows").value(stage.rows());
+            json.name("micros").value(stage.nanos() / 1000.0);
+            json.endObject();
+            total += stage.nanos();
+        }
+        json.endArray();
+        json.name("micros").value(total / 1000.0);
+        json.endObject();
+        json.flush();
+    }
+}
@@ -0,0 +1,143 @@
+package project.query;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import project.object.NameDictionary;
+import project.service.SettingsAPI;
+import project.service.Snapshot;
+/**
+ * This predicate keeps the Jukeboxes supporting a setting, using the bitmap precomputed in the {@link Snapshot},
+ * or supporting several settings, either any of them or all of them.
+ * <br>Any of several settings is the union of their bitmaps. All of several settings is a single requirement: the requirements
+ * of the settings are merged, keeping the highest count of every component, and met by an intersection of the component index
+ * (see {@link ComponentPredicate}), so the settings are never evaluated one by one.
+ * <br>It has the following methods:
+ * <br><br>{@link SettingPredicate#SettingPredicate(String)}
+ * <br>{@link SettingPredicate#SettingPredicate(List, boolean)}
+ * <br>{@link SettingPredicate#estimate(Snapshot)}
+ * <br>{@link SettingPredicate#evaluate(Snapshot)}
+ * <br>{@link SettingPredicate#test(Snapshot, int)}
+ * <br>{@link SettingPredicate#toString()}
+ * @author Shuzhao Feng
+ */
+public class SettingPredicate implements Predicate {
+    private final List<String> ids; // setting IDs, at least one
+    private final boolean any; // whether one setting is enough, all settings are needed otherwise
+    private volatile Merged merged; // requirement of all settings, for the last setting api it was merged from
+    /**
+     * The requirements of all settings, merged.
+     * @param settings The setting api the requirements were read from.
+     * @param predicate The merged requirement, null if no Jukebox can meet it (unknown setting, or setting without requirement).
+     * @author Shuzhao Feng
+     */
+    private record Merged(SettingsAPI settings, ComponentPredicate predicate) {}
+    /**
+     * This is the constructor of {@link SettingPredicate} for a single setting.
+     * @param id The setting ID.
+     * @author Shuzhao Feng
+     */
+    public SettingPredicate(String id) {
+        this(List.of(id), false);
+    }
+    /**
+     * This is the constructor of {@link SettingPredicate} for several settings.
+     * @param ids The setting IDs, at least one.
+     * @param any Whether a Jukebox supporting one of the settings is kept, it must support all of them otherwise.
+     * @author Shuzhao Feng
+     */
+    public SettingPredicate(List<String> ids, boolean any) {
+        this.ids = List.copyOf(ids);
+        this.any = any || ids.size() == 1; // the same for a single setting, which is answered by its bitmap
+    }
+    /**
+     * This method merges the requirements of all settings, once per setting api.
+     * @return The merged requirement, null if no Jukebox can meet it.
+     * @author Shuzhao Feng
+     */
+    private ComponentPredicate merged(SettingsAPI settings) {
+        Merged out = merged;
+        if (out != null && out.settings() == settings) return out.predicate(); // settings only change with the feed
+        HashMap<String, Integer> whatWeNeed = new HashMap<>();
+        boolean possible = true;
+        for (String id : ids) {
+            HashMap<String, Integer> requires = settings.getHashedRequires(id);
+            if (requires == null || requires.isEmpty()) { // unknown setting, or never supported like in FleetIndex.match
+                possible = false;
+                break;
+            }
+            for (Map.Entry<String, Integer> e : requires.entrySet()) {
+                whatWeNeed.merge(NameDictionary.normalize(e.getKey()), e.getValue(), Math::max); // the highest count meets every setting
+            }
+        }
+        out = new Merged(settings, possible ? new ComponentPredicate(whatWeNeed) : null);
+        merged = out; // merged twice at worst, by two first readers, with the same result
+        return out.predicate();
+    }
+    /**
+     * This method counts the Jukeboxes kept by a single setting, or estimates it for several settings:
+     * the sum of their counts for any of them, the size of the rarest merged requirement for all of them.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public int estimate(Snapshot snapshot) {
+        if (!any) {
+            ComponentPredicate predicate = merged(snapshot.getSettings());
+            return predicate == null ? 0 : predicate.estimate(snapshot);
+        }
+        long sum = 0;
+        for (String id : ids) {
+            BitSet bitmap = snapshot.getCompatibility(id);
+            if (bitmap != null) sum += bitmap.cardinality(); // setting not found, nothing is kept
+        }
+        return (int) Math.min(sum, snapshot.getIndex().size());
+    }
+    /**
+     * This method lists the bits set in the union of the bitmaps, or the rows meeting the merged requirement.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public int[] evaluate(Snapshot snapshot) {
+        if (!any) {
+            ComponentPredicate predicate = merged(snapshot.getSettings());
+            return predicate == null ? new int[0] : predicate.evaluate(snapshot);
+        }
+        if (ids.size() == 1) { // usual case, the bitmap is not copied
+            BitSet bitmap = snapshot.getCompatibility(ids.get(0));
+            return bitmap == null ? new int[0] : bitmap.stream().toArray();
+        }
+        BitSet union = new BitSet();
+        for (String id : ids) {
+            BitSet bitmap = snapshot.getCompatibility(id);
+            if (bitmap != null) union.or(bitmap);
+        }
+        return union.stream().toArray();
+    }
+    /**
+     * This method reads the bits of a Jukebox in the bitmaps of the settings, or checks it against the merged requirement.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public boolean test(Snapshot snapshot, int row) {
+        if (!any) {
+            ComponentPredicate predicate = merged(snapshot.getSettings());
+            return predicate != null && predicate.test(snapshot, row);
+        }
+        for (String id : ids) {
+            BitSet bitmap = snapshot.getCompatibility(id);
+            if (bitmap != null && bitmap.get(row)) return true;
+        }
+        return false;
+    }
+    /**
+     * This method describes the predicate for query plans.
+     * @return A short description of the predicate.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public String toString() {
+        if (ids.size() == 1) return "setting " + ids.get(0);
+        return (any ? "any setting of " : "all settings of ") + ids;
+    }
+}
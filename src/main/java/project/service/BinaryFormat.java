@@ -0,0 +1,259 @@
+package project.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import project.object.Fleet;
+import project.object.Jukebox;
+import project.object.NameDictionary;
+/**
+ * This class writes and reads search results in a compact binary format, for devices on weak links that would rather not parse Json.
+ * It is sent instead of Json to clients asking for {@link BinaryFormat#MEDIA_TYPE} in their Accept header.
+ * <br>Format, version 1. Integers are unsigned LEB128 varints (7 bits per byte, low bits first, high bit set on all bytes but the last),
+ * strings are a varint byte length followed by UTF-8 bytes:
+ * <br> - header: the bytes 'J' 'B', the version (1), and 'L' for a list of Jukeboxes or 'M' for named lists,
+ * <br> - list: a varint number of Jukeboxes, then every Jukebox,
+ * <br> - named lists: a varint number of lists, then for every list its name (string) and the list,
+ * <br> - Jukebox: the ID (string), the model (name), a varint number of components, then every component (name), in feed order,
+ * <br> - name: a varint reference. Names are numbered per response, in order of first use: the reference of a new name is
+ * the number of names seen so far, and it is followed by the name (string). A smaller reference repeats a name seen before.
+ * <br>Models and components are a handful of names repeated by every Jukebox, so each of them costs one byte once it was seen.
+ * <br>It has the following methods:
+ * <br><br>{@link BinaryFormat#writeList(List, OutputStream)}
+ * <br>{@link BinaryFormat#writePages(Map, OutputStream)}
+ * <br>{@link BinaryFormat#readList(InputStream)}
+ * <br>{@link BinaryFormat#readPages(InputStream)}
+ * @author Shuzhao Feng
+ */
+public class BinaryFormat {
+    public static final String MEDIA_TYPE = "application/x-jukebox"; // media type of the format, for content negotiation
+    private static final int VERSION = 1;
+    /**
+     * This class only has static methods.
+     * @author Shuzhao Feng
+     */
+    private BinaryFormat() {}
+    /**
+     * A stream of values of the format, numbering names as they are written. Values are written to a buffer of its own,
+     * flushed to the stream when it is full, so that single bytes are not written one call at a time.
+     * @author Shuzhao Feng
+     */
+    private static class Encoder {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[1 << 16]; // written in 64 KB chunks
+        private int length; // bytes in the buffer
+        private int[] references = new int[64]; // dictionary number -> reference + 1, 0 if not written yet
+        private int seen; // names written so far
+        Encoder(OutputStream out) {
+            this.out = out;
+        }
+        void ensure(int bytes) throws IOException {
+            if (length + bytes > buffer.length) drain();
+        }
+        void drain() throws IOException {
+            out.write(buffer, 0, length);
+            length = 0;
+        }
+        void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+        void header(char kind) throws IOException {
+            ensure(4);
+            buffer[length++] = 'J';
+            buffer[length++] = 'B';
+            buffer[length++] = VERSION;
+            buffer[length++] = (byte) kind;
+        }
+        void varint(int value) throws IOException {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+        void string(String value) throws IOException {
+            int n = value.length();
+            ensure(Math.min(n, 127) + 1);
+            if (n < 128) { // usual case, a short ID: copied as is unless it is not ASCII
+                int from = length;
+                buffer[length++] = (byte) n;
+                for (int i = 0; i < n; i++) {
+                    char c = value.charAt(i);
+                    if (c >= 0x80) { // encoded below
+                        length = from;
+                        break;
+                    }
+                    buffer[length++] = (byte) c;
+                }
+                if (length > from) return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            if (bytes.length > buffer.length - length) { // too long for the buffer, written directly
+                drain();
+                out.write(bytes);
+                return;
+            }
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+        void name(int number) throws IOException {
+            if (number >= references.length) references = Arrays.copyOf(references, Math.max(references.length * 2, number + 1));
+            if (references[number] != 0) { // seen before, the reference is enough
+                varint(references[number] - 1);
+                return;
+            }
+            references[number] = ++seen;
+            varint(seen - 1);
+            string(NameDictionary.decode(number));
+        }
+        void list(List<Jukebox> boxes) throws IOException {
+            varint(boxes.size());
+            for (Jukebox box : boxes) { // numbers are read from the fleet, nothing is decoded but new names
+                Fleet fleet = box.getFleet();
+                int row = box.getRow();
+                string(fleet.getId(row));
+                name(fleet.getModel(row));
+                int[] comps = fleet.getComponents(row);
+                varint(comps.length);
+                for (int comp : comps) name(comp);
+            }
+        }
+    }
+    /**
+     * A stream of values of the format, collecting names as they are read.
+     * @author Shuzhao Feng
+     */
+    private static class Decoder {
+        private final InputStream in;
+        private final ArrayList<String> names = new ArrayList<>(); // reference -> name
+        private final Fleet.Builder builder = new Fleet.Builder(); // Jukeboxes read so far
+        Decoder(InputStream in) {
+            this.in = in;
+        }
+        int read() throws IOException {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Truncated response");
+            return b;
+        }
+        void header(char kind) throws IOException {
+            if (read() != 'J' || read() != 'B') throw new IOException("Not a Jukebox response");
+            int version = read();
+            if (version != VERSION) throw new IOException("Unsupported version " + version);
+            if (read() != kind) throw new IOException("Expected " + (kind == 'L' ? "a list" : "named lists"));
+        }
+        int varint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = read();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) break; // sizes and references never are
+                    return value;
+                }
+            }
+            throw new IOException("Invalid varint");
+        }
+        String string() throws IOException {
+            int length = varint();
+            byte[] bytes = in.readNBytes(length);
+            if (bytes.length < length) throw new EOFException("Truncated response");
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String name() throws IOException {
+            int reference = varint();
+            if (reference == names.size()) names.add(string()); // new name
+            else if (reference > names.size()) throw new IOException("Invalid name reference " + reference);
+            return names.get(reference);
+        }
+        int list() throws IOException {
+            int size = varint();
+            for (int i = 0; i < size; i++) {
+                String id = string(), model = name();
+                int n = varint();
+                ArrayList<String> components = new ArrayList<>(Math.min(n, 64)); // n is not trusted
+                for (int j = 0; j < n; j++) components.add(name());
+                builder.add(id, model, components);
+            }
+            return size;
+        }
+    }
+    /**
+     * This method writes a list of Jukeboxes to a stream, one Jukebox at a time.
+     * @param boxes The Jukeboxes to write.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @throws IOException may occur while writing to the stream.
+     * @author Shuzhao Feng
+     */
+    public static void writeList(List<Jukebox> boxes, OutputStream output) throws IOException {
+        Encoder encoder = new Encoder(output);
+        encoder.header('L');
+        encoder.list(boxes);
+        encoder.flush();
+    }
+    /**
+     * This method writes several lists of Jukeboxes to a stream, one Jukebox at a time. Names are numbered once for all lists.
+     * @param pages The Jukeboxes to write, by name, in the order of the map.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @throws IOException may occur while writing to the stream.
+     * @author Shuzhao Feng
+     */
+    public static void writePages(Map<String, List<Jukebox>> pages, OutputStream output) throws IOException {
+        Encoder encoder = new Encoder(output);
+        encoder.header('M');
+        encoder.varint(pages.size());
+        for (Map.Entry<String, List<Jukebox>> e : pages.entrySet()) {
+            encoder.string(e.getKey());
+            encoder.list(e.getValue());
+        }
+        encoder.flush();
+    }
+    /**
+     * This method reads a list of Jukeboxes written by {@link BinaryFormat#writeList(List, OutputStream)}, e.g. for a Java client.
+     * @param input The stream to read from. It is not closed.
+     * @return The Jukeboxes, in a fleet of their own.
+     * @throws IOException may occur while reading, or if the stream does not hold a list in this format.
+     * @author Shuzhao Feng
+     */
+    public static List<Jukebox> readList(InputStream input) throws IOException {
+        Decoder decoder = new Decoder(input);
+        decoder.header('L');
+        decoder.list();
+        return decoder.builder.build().asList();
+    }
+    /**
+     * This method reads several lists of Jukeboxes written by {@link BinaryFormat#writePages(Map, OutputStream)}.
+     * @param input The stream to read from. It is not closed.
+     * @return The Jukeboxes, by name, in the order they were written, all in a fleet of their own.
+     * @throws IOException may occur while reading, or if the stream does not hold named lists in this format.
+     * @author Shuzhao Feng
+     */
+    public static LinkedHashMap<String, List<Jukebox>> readPages(InputStream input) throws IOException {
+        Decoder decoder = new Decoder(input);
+        decoder.header('M');
+        int size = decoder.varint();
+        String[] keys = new String[Math.min(size, 1024)];
+        int[] ends = new int[keys.length]; // end row of every list
+        for (int i = 0; i < size; i++) {
+            if (i == keys.length) {
+                keys = Arrays.copyOf(keys, i * 2);
+                ends = Arrays.copyOf(ends, i * 2);
+            }
+            keys[i] = decoder.string();
+            ends[i] = decoder.list() + (i == 0 ? 0 : ends[i - 1]);
+        }
+        List<Jukebox> all = decoder.builder.build().asList();
+        LinkedHashMap<String, List<Jukebox>> out = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) out.put(keys[i], all.subList(i == 0 ? 0 : ends[i - 1], ends[i]));
+        return out;
+    }
+}
@@ -0,0 +1,328 @@
+package project.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import project.object.JsonBytes;
+import project.object.NameDictionary;
+/**
+ * This class pushes the changes of setting compatibility to subscribers, so that devices do not have to poll for them.
+ * Every time a snapshot is swapped in (a feed reload or a patch), the previous and new snapshots are compared (see {@link CompatibilityDelta}),
+ * and every subscriber receives the changes it asked for, if any.
+ * <br>A subscriber filters on Jukebox IDs, models and setting IDs, each filter being optional: it receives the Jukeboxes matching its IDs and models,
+ * with the settings among its setting IDs they gained or lost. Subscribers filtering on IDs are found by ID, so a change costs
+ * the same whatever the number of devices subscribed to their own Jukebox. Subscribers without ID filter sharing the same filters share the same event.
+ * <br>Snapshots are compared and events are sent on a thread of their own, one swap at a time, so swaps never wait for subscribers.
+ * Nothing is compared while there is no subscriber.
+ * <br>Events are compact Json objects on a single line: "version" when subscribing, {"version":N}, then "changes" after every swap changing what a
+ * subscriber asked for, {"version":N,"previous":P,"changes":[{"id":...,"model":...,"gained":[...],"lost":[...]}]}, P being the version of
+ * the previous event sent to the subscriber. A subscriber coming back after a disconnection missed no change if the new "version" event
+ * gives the version of the last event it received, and should query again otherwise. Subscribers are sent a heartbeat every jukebox.changes.heartbeat,
+ * and are dropped as soon as an event cannot be sent.
+ * <br>It has the following methods:
+ * <br><br>{@link ChangeFeed#ChangeFeed(JukeboxAPI)}
+ * <br>{@link ChangeFeed#ChangeFeed(JukeboxAPI, Executor)}
+ * <br>{@link ChangeFeed#subscribe(List, List, List, Sink)}
+ * <br>{@link ChangeFeed#unsubscribe(Subscription)}
+ * <br>{@link ChangeFeed#heartbeat()}
+ * <br>{@link ChangeFeed#getSubscribers()}
+ * <br>{@link ChangeFeed#getEvents()}
+ * <br>{@link ChangeFeed#bindTo(MeterRegistry)}
+ * @author Shuzhao Feng
+ */
+@Service
+public class ChangeFeed implements MeterBinder {
+    private static final byte[] VERSION = "{\"version\":".getBytes(StandardCharsets.UTF_8), PREVIOUS = ",\"previous\":".getBytes(StandardCharsets.UTF_8),
+            CHANGES = ",\"changes\":[".getBytes(StandardCharsets.UTF_8), ID = "{\"id\":".getBytes(StandardCharsets.UTF_8),
+            MODEL = ",\"model\":".getBytes(StandardCharsets.UTF_8), GAINED = ",\"gained\":[".getBytes(StandardCharsets.UTF_8),
+            LOST = "],\"lost\":[".getBytes(StandardCharsets.UTF_8); // pieces of the events
+    private final Executor executor; // compares snapshots and sends events, one swap at a time
+    private final CopyOnWriteArrayList<Subscription> all = new CopyOnWriteArrayList<>(); // every subscription, for heartbeats
+    private final CopyOnWriteArrayList<Subscription> broad = new CopyOnWriteArrayList<>(); // subscriptions without ID filter
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<Subscription>> byId = new ConcurrentHashMap<>(); // ID -> subscriptions filtering on it
+    private final AtomicLong events = new AtomicLong(); // events sent, heartbeats excluded
+    private long version; // version of the last snapshot swapped in, only read and written by the executor
+    /**
+     * The connection of a subscriber, e.g. a Server-Sent Events stream.
+     * @author Shuzhao Feng
+     */
+    public interface Sink {
+        /**
+         * This method sends an event to the subscriber.
+         * @param name The name of the event, "version" or "changes".
+         * @param version The version of the data the event brings the subscriber to.
+         * @param data The event, a compact Json object without line break.
+         * @throws IOException if the subscriber cannot be reached, in which case it is dropped.
+         * @author Shuzhao Feng
+         */
+        void send(String name, long version, byte[] data) throws IOException;
+        /**
+         * This method sends nothing but keeps the connection open, and finds out whether the subscriber is still there.
+         * @throws IOException if the subscriber cannot be reached, in which case it is dropped.
+         * @author Shuzhao Feng
+         */
+        void ping() throws IOException;
+    }
+    /**
+     * A subscriber and its filters.
+     * @author Shuzhao Feng
+     */
+    public static class Subscription {
+        private final Set<String> ids, models, settings; // filters, null if absent
+        private final Sink sink;
+        private final String key; // filters as a String, subscriptions with the same key receive the same events
+        private long last; // version of the last event sent, only read and written by the executor
+        private Subscription(Set<String> ids, Set<String> models, Set<String> settings, Sink sink) {
+            this.ids = ids;
+            this.models = models;
+            this.settings = settings;
+            this.sink = sink;
+            this.key = "id=" + ids + "&model=" + models + "&settingid=" + settings;
+        }
+        /**
+         * This method keeps the part of a change the subscriber asked for.
+         * @return The change with the settings asked for, null if nothing is left.
+         * @author Shuzhao Feng
+         */
+        private CompatibilityDelta.Change filter(CompatibilityDelta.Change change) {
+            if (ids != null && !ids.contains(change.id())) return null;
+            if (models != null && !models.contains(change.model())) return null;
+            if (settings == null) return change;
+            List<String> gained = change.gained().stream().filter(settings::contains).toList(),
+                    lost = change.lost().stream().filter(settings::contains).toList();
+            if (gained.isEmpty() && lost.isEmpty()) return null;
+            return new CompatibilityDelta.Change(change.id(), change.model(), gained, lost);
+        }
+    }
+    /**
+     * This is the constructor of {@link ChangeFeed} used by Spring. Snapshots are compared and events are sent on a daemon thread of its own.
+     * @param api Jukebox API, whose swaps are listened to.
+     * @author Shuzhao Feng
+     */
+    @Autowired
+    public ChangeFeed(JukeboxAPI api) {
+        this(api, Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "change-feed");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+    /**
+     * This is the constructor of {@link ChangeFeed} running its work on a given executor.
+     * @param api Jukebox API, whose swaps are listened to.
+     * @param executor Runs the comparisons and sends the events. It must run tasks one at a time, in order.
+     * @author Shuzhao Feng
+     */
+    public ChangeFeed(JukeboxAPI api, Executor executor) {
+        this.executor = executor;
+        this.version = api.getVersion();
+        api.addListener((before, after) -> executor.execute(() -> publish(before, after))); // the swap returns right away
+    }
+    /**
+     * This method subscribes to the changes of setting compatibility. The subscriber is first sent a "version" event
+     * with the current version of the data, then a "changes" event after every swap changing what it asked for.
+     * @param ids The IDs of the Jukeboxes, null or empty for all Jukeboxes.
+     * @param models The models of the Jukeboxes, null or empty for all models. Normalized like {@link NameDictionary} does, as in a query.
+     * @param settings The IDs of the settings, null or empty for all settings.
+     * @param sink The connection of the subscriber.
+     * @return The subscription, to be given back to {@link ChangeFeed#unsubscribe(Subscription)} when the subscriber goes away.
+     * @author Shuzhao Feng
+     */
+    public Subscription subscribe(List<String> ids, List<String> models, List<String> settings, Sink sink) {
+        Subscription subscription = new Subscription(normalize(ids), normalize(models == null ? null : models.stream().map(NameDictionary::normalize).toList()),
+                normalize(settings), sink); // models of the changes are normalized names
+        executor.execute(() -> { // after the swaps already announced, so the version event comes before their changes
+            if (subscription.ids == null) broad.add(subscription);
+            else for (String id : subscription.ids) {
+                byId.compute(id, (k, list) -> { // atomic, a list emptied meanwhile is not reused
+                    if (list == null) list = new CopyOnWriteArrayList<>();
+                    list.add(subscription);
+                    return list;
+                });
+            }
+            all.add(subscription);
+            subscription.last = version;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.writeBytes(VERSION);
+            out.writeBytes(String.valueOf(version).getBytes(StandardCharsets.UTF_8));
+            out.write('}');
+            send(subscription, "version", version, out.toByteArray());
+        });
+        return subscription;
+    }
+    /**
+     * This method sorts the values of a filter.
+     * @author Shuzhao Feng
+     */
+    private static Set<String> normalize(List<String> values) {
+        return values == null || values.isEmpty() ? null : new TreeSet<>(values);
+    }
+    /**
+     * This method removes a subscription. Nothing happens if it was already removed.
+     * @param subscription The subscription returned by {@link ChangeFeed#subscribe(List, List, List, Sink)}.
+     * @author Shuzhao Feng
+     */
+    public void unsubscribe(Subscription subscription) {
+        if (!all.remove(subscription)) return;
+        if (subscription.ids == null) broad.remove(subscription);
+        else for (String id : subscription.ids) {
+            byId.computeIfPresent(id, (k, list) -> {
+                list.remove(subscription);
+                return list.isEmpty() ? null : list; // no empty list is kept for a device gone for good
+            });
+        }
+    }
+    /**
+     * This method compares two snapshots and sends the changes to the subscribers asking for them.
+     * @author Shuzhao Feng
+     */
+    private void publish(Snapshot before, Snapshot after) {
+        version = after.getVersion();
+        if (all.isEmpty()) return; // no one to tell, nothing to compare
+        CompatibilityDelta delta = CompatibilityDelta.of(before, after);
+        if (delta.isEmpty()) return;
+        LinkedHashMap<Subscription, List<CompatibilityDelta.Change>> targeted = new LinkedHashMap<>(); // subscription -> changes of its IDs
+        if (!byId.isEmpty()) {
+            for (CompatibilityDelta.Change change : delta.getChanges()) {
+                List<Subscription> subscriptions = byId.get(change.id());
+                if (subscriptions == null) continue;
+                for (Subscription subscription : subscriptions) {
+                    CompatibilityDelta.Change kept = subscription.filter(change);
+                    if (kept != null) targeted.computeIfAbsent(subscription, k -> new ArrayList<>()).add(kept);
+                }
+            }
+        }
+        for (Map.Entry<Subscription, List<CompatibilityDelta.Change>> e : targeted.entrySet()) {
+            send(e.getKey(), "changes", delta.getAfter(), render(delta.getAfter(), e.getKey().last, e.getValue()));
+        }
+        HashMap<String, byte[]> rendered = new HashMap<>(); // filters and last version -> event, null if nothing is left
+        for (Subscription subscription : broad) {
+            String key = subscription.key + "@" + subscription.last; // almost always the same last version for the same filters
+            byte[] event;
+            if (rendered.containsKey(key)) event = rendered.get(key);
+            else {
+                ArrayList<CompatibilityDelta.Change> kept = new ArrayList<>();
+                for (CompatibilityDelta.Change change : delta.getChanges()) {
+                    CompatibilityDelta.Change filtered = subscription.filter(change);
+                    if (filtered != null) kept.add(filtered);
+                }
+                event = kept.isEmpty() ? null : render(delta.getAfter(), subscription.last, kept);
+                rendered.put(key, event);
+            }
+            if (event != null) send(subscription, "changes", delta.getAfter(), event);
+        }
+    }
+    /**
+     * This method writes a "changes" event.
+     * @author Shuzhao Feng
+     */
+    private static byte[] render(long version, long previous, List<CompatibilityDelta.Change> changes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + changes.size() * 96);
+        out.writeBytes(VERSION);
+        out.writeBytes(String.valueOf(version).getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(PREVIOUS);
+        out.writeBytes(String.valueOf(previous).getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(CHANGES);
+        for (int i = 0; i < changes.size(); i++) {
+            CompatibilityDelta.Change change = changes.get(i);
+            if (i > 0) out.write(',');
+            out.writeBytes(ID);
+            out.writeBytes(JsonBytes.quote(change.id())); // escaped, an event must hold on a single line
+            out.writeBytes(MODEL);
+            out.writeBytes(JsonBytes.quote(change.model()));
+            out.writeBytes(GAINED);
+            list(change.gained(), out);
+            out.writeBytes(LOST);
+            list(change.lost(), out);
+            out.write(']');
+            out.write('}');
+        }
+        out.write(']');
+        out.write('}');
+        return out.toByteArray();
+    }
+    /**
+     * This method writes quoted setting IDs separated by commas.
+     * @author Shuzhao Feng
+     */
+    private static void list(List<String> values, ByteArrayOutputStream out) {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) out.write(',');
+            out.writeBytes(JsonBytes.quote(values.get(i)));
+        }
+    }
+    /**
+     * This method sends an event, and drops the subscriber if it cannot be reached.
+     * @author Shuzhao Feng
+     */
+    private void send(Subscription subscription, String name, long version, byte[] event) {
+        try {
+            subscription.sink.send(name, version, event);
+            subscription.last = version;
+            events.incrementAndGet();
+        } catch (IOException | RuntimeException e) { // gone, or the stream is already closed
+            unsubscribe(subscription);
+        }
+    }
+    /**
+     * This method sends a heartbeat to every subscriber, so that idle connections stay open through proxies,
+     * and subscribers gone without closing their connection are dropped. It runs every jukebox.changes.heartbeat.
+     * @author Shuzhao Feng
+     */
+    @Scheduled(initialDelayString = "${jukebox.changes.heartbeat:PT30S}", fixedDelayString = "${jukebox.changes.heartbeat:PT30S}")
+    public void heartbeat() {
+        for (Subscription subscription : all) {
+            try {
+                subscription.sink.ping();
+            } catch (IOException | RuntimeException e) {
+                unsubscribe(subscription);
+            }
+        }
+    }
+    /**
+     * A simple subscriber getter method.
+     * @return The number of subscribers.
+     * @author Shuzhao Feng
+     */
+    public int getSubscribers() {
+        return all.size();
+    }
+    /**
+     * A simple event getter method.
+     * @return The number of events sent since startup, heartbeats excluded.
+     * @author Shuzhao Feng
+     */
+    public long getEvents() {
+        return events.get();
+    }
+    /**
+     * This method registers the metrics of the change feed: jukebox.changes.subscribers and jukebox.changes.events.
+     * Spring calls it once the registry is created.
+     * @param registry The registry to register the metrics in.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("jukebox.changes.subscribers", this, ChangeFeed::getSubscribers).description("Subscribers to the changes of setting compatibility").register(registry);
+        FunctionCounter.builder("jukebox.changes.events", this, ChangeFeed::getEvents).description("Change events sent to subscribers").register(registry);
+    }
+}
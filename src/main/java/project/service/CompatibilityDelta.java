@@ -0,0 +1,142 @@
+package project.service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import project.object.Fleet;
+/**
+ * This class holds the changes of setting compatibility between two snapshots: the Jukeboxes that gained or lost each setting,
+ * found by comparing the setting bitmaps of both snapshots instead of matching any Jukebox against the settings again.
+ * <br>When both snapshots hold the same Jukeboxes in the same rows (a patch, or a feed that did not move any Jukebox), bitmaps are compared
+ * as they are, and bitmaps shared by both snapshots are skipped. Otherwise the previous bitmaps are first moved to the rows of the new snapshot by ID.
+ * Jukeboxes added by the feed gain their settings, and Jukeboxes removed from it lose theirs.
+ * <br>It has the following methods:
+ * <br><br>{@link CompatibilityDelta#of(Snapshot, Snapshot)}
+ * <br>{@link CompatibilityDelta#getBefore()}
+ * <br>{@link CompatibilityDelta#getAfter()}
+ * <br>{@link CompatibilityDelta#getChanges()}
+ * <br>{@link CompatibilityDelta#isEmpty()}
+ * @author Shuzhao Feng
+ */
+public class CompatibilityDelta {
+    private final long before, after; // versions of the snapshots compared
+    private final List<Change> changes; // changed Jukeboxes, in the rows of the new snapshot, then removed Jukeboxes
+    /**
+     * The settings gained and lost by a Jukebox.
+     * @param id The Jukebox's ID.
+     * @param model The Jukebox's model, as in the new snapshot if it is still there.
+     * @param gained The IDs of the settings the Jukebox supports now and did not before, in ascending order.
+     * @param lost The IDs of the settings the Jukebox supported before and does not now, in ascending order.
+     * @author Shuzhao Feng
+     */
+    public record Change(String id, String model, List<String> gained, List<String> lost) {}
+    /**
+     * The settings gained and lost by a Jukebox, while they are being collected.
+     * @author Shuzhao Feng
+     */
+    private static class Entry {
+        final ArrayList<String> gained = new ArrayList<>(), lost = new ArrayList<>();
+    }
+    /**
+     * This is the constructor of {@link CompatibilityDelta}.
+     * @author Shuzhao Feng
+     */
+    private CompatibilityDelta(long before, long after, List<Change> changes) {
+        this.before = before;
+        this.after = after;
+        this.changes = changes;
+    }
+    /**
+     * This method finds the Jukeboxes whose supported settings differ between two snapshots.
+     * Settings added or removed between the snapshots count as supported by no Jukebox in the snapshot missing them.
+     * @param before The previous snapshot.
+     * @param after The new snapshot.
+     * @return The changes, none if both snapshots support the same settings.
+     * @author Shuzhao Feng
+     */
+    public static CompatibilityDelta of(Snapshot before, Snapshot after) {
+        Fleet previous = before.getFleet(), next = after.getFleet();
+        TreeSet<String> settings = new TreeSet<>(before.getSettings().getSettings().keySet()); // sorted, so are the settings of every change
+        settings.addAll(after.getSettings().getSettings().keySet());
+        int[] rows = aligned(previous, next) ? null : new int[next.size()]; // new row -> previous row, -1 if added, null if the rows did not move
+        BitSet removed = new BitSet(); // previous rows no longer in the feed
+        if (rows != null) {
+            for (int row = 0; row < rows.length; row++) rows[row] = before.getIndex().row(next.getId(row));
+            for (int row = 0; row < previous.size(); row++) if (after.getIndex().row(previous.getId(row)) < 0) removed.set(row);
+        }
+        TreeMap<Integer, Entry> kept = new TreeMap<>(), gone = new TreeMap<>(); // new row or previous row -> settings changed
+        for (String setting : settings) {
+            BitSet old = bitmap(before, setting), now = bitmap(after, setting);
+            if (old == now) continue; // shared by a patched snapshot, no bit changed
+            BitSet moved = old;
+            if (rows != null) {
+                moved = new BitSet(rows.length);
+                for (int row = 0; row < rows.length; row++) if (rows[row] >= 0 && old.get(rows[row])) moved.set(row);
+                BitSet dropped = (BitSet) old.clone();
+                dropped.and(removed);
+                for (int row = dropped.nextSetBit(0); row >= 0; row = dropped.nextSetBit(row + 1)) gone.computeIfAbsent(row, k -> new Entry()).lost.add(setting);
+            }
+            BitSet gained = (BitSet) now.clone(), lost = (BitSet) moved.clone();
+            gained.andNot(moved);
+            lost.andNot(now);
+            for (int row = gained.nextSetBit(0); row >= 0; row = gained.nextSetBit(row + 1)) kept.computeIfAbsent(row, k -> new Entry()).gained.add(setting);
+            for (int row = lost.nextSetBit(0); row >= 0; row = lost.nextSetBit(row + 1)) kept.computeIfAbsent(row, k -> new Entry()).lost.add(setting);
+        }
+        ArrayList<Change> changes = new ArrayList<>(kept.size() + gone.size());
+        kept.forEach((row, e) -> changes.add(new Change(next.getId(row), next.get(row).getModel(), List.copyOf(e.gained), List.copyOf(e.lost))));
+        gone.forEach((row, e) -> changes.add(new Change(previous.getId(row), previous.get(row).getModel(), List.of(), List.copyOf(e.lost))));
+        return new CompatibilityDelta(before.getVersion(), after.getVersion(), List.copyOf(changes));
+    }
+    /**
+     * This method checks whether two fleets hold the same Jukeboxes in the same rows, e.g. a fleet and its patched version.
+     * @author Shuzhao Feng
+     */
+    private static boolean aligned(Fleet previous, Fleet next) {
+        if (previous.getBase() == next.getBase()) return true; // patches never move a row
+        if (previous.size() != next.size()) return false;
+        for (int row = 0; row < next.size(); row++) if (!previous.getId(row).equals(next.getId(row))) return false;
+        return true;
+    }
+    /**
+     * This method finds the bitmap of a setting, empty if the snapshot does not have the setting.
+     * @author Shuzhao Feng
+     */
+    private static BitSet bitmap(Snapshot snapshot, String setting) {
+        BitSet bitmap = snapshot.getCompatibility(setting);
+        return bitmap == null ? new BitSet() : bitmap;
+    }
+    /**
+     * A simple version getter method.
+     * @return The version of the previous snapshot.
+     * @author Shuzhao Feng
+     */
+    public long getBefore() {
+        return before;
+    }
+    /**
+     * A simple version getter method.
+     * @return The version of the new snapshot.
+     * @author Shuzhao Feng
+     */
+    public long getAfter() {
+        return after;
+    }
+    /**
+     * A simple change getter method.
+     * @return A read-only list of the Jukeboxes whose supported settings changed, in the rows of the new snapshot, then those removed from the feed.
+     * @author Shuzhao Feng
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+    /**
+     * This method checks whether any Jukebox gained or lost a setting.
+     * @return true if no supported setting changed.
+     * @author Shuzhao Feng
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+}
@@ -0,0 +1,52 @@
+package project.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import project.object.NameDictionary;
+/**
+ * This record describes a change of the components of a single Jukebox, e.g. a technician swapping a part.
+ * Either the whole list of components is replaced, or some components are removed and others added.
+ * A list of changes is applied by {@link JukeboxAPI#patch(List)}.
+ * <br>Names are kept forever by {@link NameDictionary}, so a name longer than {@link ComponentChange#MAX_NAME} characters is refused.
+ * <br>It has the following methods:
+ * <br><br>{@link ComponentChange#apply(List)}
+ * @param id The ID of the Jukebox to change.
+ * @param components The new components of the Jukebox, replacing all of them. null to keep them and apply the other fields.
+ * @param add Components to add, once per occurrence, null if none.
+ * @param remove Components to remove, once per occurrence (the first one), null if none. Components not found are ignored.
+ * @author Shuzhao Feng
+ */
+public record ComponentChange(String id, List<String> components, List<String> add, List<String> remove) {
+    public static final int MAX_NAME = 64; // longest component name, once normalized
+    /**
+     * This method applies the change to a list of components: the list is replaced, or the components to remove are removed
+     * before the components to add are added. Names are normalized like {@link project.object.Jukebox} does.
+     * @param current The current components of the Jukebox, normalized. It is not modified.
+     * @return The new components of the Jukebox, normalized.
+     * @throws IllegalArgumentException if the change has no ID, or names a blank component or one longer than {@link ComponentChange#MAX_NAME}.
+     * @author Shuzhao Feng
+     */
+    public ArrayList<String> apply(List<String> current) {
+        if (id == null || id.isBlank()) throw new IllegalArgumentException("A component change needs the ID of a Jukebox");
+        if (components != null) return normalize(components); // replace the whole list
+        ArrayList<String> out = new ArrayList<>(current);
+        for (String name : normalize(remove)) out.remove(name); // first occurrence only, ignored if absent
+        out.addAll(normalize(add));
+        return out;
+    }
+    /**
+     * This method normalizes a list of component names.
+     * @author Shuzhao Feng
+     */
+    private ArrayList<String> normalize(List<String> names) {
+        ArrayList<String> out = new ArrayList<>();
+        if (names == null) return out;
+        for (String name : names) {
+            if (name == null || name.isBlank()) throw new IllegalArgumentException("Blank component for Jukebox " + id);
+            String normalized = NameDictionary.normalize(name);
+            if (normalized.length() > MAX_NAME) throw new IllegalArgumentException("Component name longer than " + MAX_NAME + " characters for Jukebox " + id);
+            out.add(normalized);
+        }
+        return out;
+    }
+}
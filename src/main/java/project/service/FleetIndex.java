@@ -0,0 +1,397 @@
+package project.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import project.object.Fleet;
+import project.object.Jukebox;
+import project.object.NameDictionary;
+/**
+ * This class is an inverted index over the Jukebox database, built once from the {@link Fleet} of a {@link Snapshot}.
+ * It maps every ID to its Jukebox (primary key) and every model to its Jukeboxes (secondary index).
+ * Models and components are looked up by their {@link NameDictionary} number, in plain arrays.
+ * For every component name, it keeps a posting list of all Jukeboxes owning that component,
+ * sorted by how many of that component they own (largest count first).
+ * A requirement such as "at least 2 pcb" is then a prefix of the "pcb" posting list,
+ * and a full setting requirement is the intersection of a few of these prefixes.
+ * <br>A patched fleet (see {@link Fleet#patch(int[], int[][])}) is indexed by {@link FleetIndex#patch(Fleet)} without rebuilding
+ * the posting lists: they still describe the indexed fleet, and the few patched rows are corrected on every lookup.
+ * <br>It has the following methods:
+ * <br><br>{@link FleetIndex#FleetIndex(Fleet)}
+ * <br>{@link FleetIndex#patch(Fleet)}
+ * <br>{@link FleetIndex#getFleet()}
+ * <br>{@link FleetIndex#size()}
+ * <br>{@link FleetIndex#get(int)}
+ * <br>{@link FleetIndex#row(String)}
+ * <br>{@link FleetIndex#rowsOfModel(String)}
+ * <br>{@link FleetIndex#rowsOfModel(int)}
+ * <br>{@link FleetIndex#count(String, int)}
+ * <br>{@link FleetIndex#match(Map)}
+ * <br>{@link FleetIndex#countModels(int[])}
+ * <br>{@link FleetIndex#countComponents(int[])}
+ * <br>{@link FleetIndex#toJukeboxes(int[])}
+ * <br>{@link FleetIndex#toJukeboxes(BitSet)}
+ * <br>{@link FleetIndex#toBitmap(int[])}
+ * <br>{@link FleetIndex#toBitmap(List)}
+ * @author Shuzhao Feng
+ */
+public class FleetIndex {
+    private final Fleet fleet; // indexed Jukeboxes
+    private final Fleet indexed; // fleet the posting lists were built for, differs from the fleet only in the patched rows
+    private final int[] patched; // sorted rows whose components differ from the indexed fleet, empty if none
+    private final Posting[] postings; // component number -> all Jukeboxes owning this component, null if none
+    private final int[] byId; // open addressing table over the IDs, slot -> row number + 1 of the first Jukebox with this ID, 0 if empty
+    private final int[][] byModel; // model number -> row numbers of all Jukeboxes of this model, in database order, null if none
+    /**
+     * A posting list of a single component. Both arrays have the same length, and entries are sorted by count (descending),
+     * then by row (ascending), so that the rows owning at least N components always form a prefix of the list.
+     * @param rows Row numbers of the Jukeboxes owning the component.
+     * @param counts Number of occurrences of the component in the Jukebox at the same position.
+     * @author Shuzhao Feng
+     */
+    private record Posting(int[] rows, int[] counts) {
+        /**
+         * This method finds the length of the prefix of Jukeboxes owning at least the required number of components.
+         * @param need The required number of components.
+         * @return The number of Jukeboxes meeting the requirement.
+         * @author Shuzhao Feng
+         */
+        int prefix(int need) {
+            int low = 0, high = counts.length; // binary search over the descending counts
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (counts[mid] >= need) low = mid + 1; // still enough components, look further
+                else high = mid; // not enough components, look closer
+            }
+            return low;
+        }
+    }
+    /**
+     * This is the constructor of {@link FleetIndex}. It reads every Jukebox once and builds all posting lists.
+     * @param fleet The Jukebox database to index.
+     * @author Shuzhao Feng
+     */
+    public FleetIndex(Fleet fleet) {
+        this.fleet = fleet;
+        this.indexed = fleet;
+        this.patched = new int[0];
+        this.byId = new int[Integer.highestOneBit(Math.max(fleet.size(), 1) * 2) * 2]; // at most half full, no boxed entry per Jukebox
+        int names = NameDictionary.size(); // every number of the fleet is smaller
+        int[][] models = new int[names][]; // model number -> row numbers, the first slot holds the size
+        long[][] temp = new long[names][]; // component number -> packed (count, row) entries, the first slot holds the size
+        for (int row = 0; row < fleet.size(); row++) { // iterate through the database
+            int slot = slot(fleet.getId(row));
+            if (byId[slot] == 0) byId[slot] = row + 1; // assume ID is unique to the Jukebox, keep the first one otherwise
+            int model = fleet.getModel(row);
+            int[] rows = models[model];
+            if (rows == null) rows = models[model] = new int[9];
+            if (rows[0] + 1 == rows.length) rows = models[model] = Arrays.copyOf(rows, rows.length * 2); // list is full, double its capacity
+            rows[++rows[0]] = row;
+            for (int i = 0; i < fleet.distinct(row); i++) { // components are already counted by the fleet
+                int name = fleet.nameAt(row, i);
+                long[] list = temp[name];
+                if (list == null) list = temp[name] = new long[9];
+                int size = (int) list[0] + 1;
+                if (size == list.length) list = temp[name] = Arrays.copyOf(list, list.length * 2); // list is full, double its capacity
+                // invert the count so that an ascending sort gives the largest count first, ties broken by row
+                list[size] = ((long) (Integer.MAX_VALUE - fleet.countAt(row, i)) << 32) | row;
+                list[0] = size;
+            }
+        }
+        this.postings = new Posting[names];
+        for (int name = 0; name < names; name++) { // unpack every list into its final form
+            long[] list = temp[name];
+            if (list == null) continue; // no Jukebox has this component
+            int size = (int) list[0];
+            Arrays.sort(list, 1, size + 1);
+            int[] rows = new int[size], counts = new int[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = (int) list[i + 1];
+                counts[i] = Integer.MAX_VALUE - (int) (list[i + 1] >>> 32);
+            }
+            postings[name] = new Posting(rows, counts);
+        }
+        this.byModel = new int[names][];
+        for (int model = 0; model < names; model++) { // trim every model list to its size
+            if (models[model] != null) byModel[model] = Arrays.copyOfRange(models[model], 1, models[model][0] + 1);
+        }
+    }
+    /**
+     * This is the constructor of a patched {@link FleetIndex}, sharing the tables of the index it patches.
+     * @author Shuzhao Feng
+     */
+    private FleetIndex(FleetIndex index, Fleet fleet) {
+        this.fleet = fleet;
+        this.indexed = index.indexed;
+        this.patched = fleet.getPatchedRows();
+        this.postings = index.postings;
+        this.byId = index.byId;
+        this.byModel = index.byModel;
+    }
+    /**
+     * This method indexes a patched version of the indexed fleet, in the time it takes to copy a few references.
+     * IDs and models never change with a patch, and lookups correct the posting lists with the patched rows.
+     * @param fleet The patched fleet, obtained by patching the fleet this index was built for, once or several times.
+     * @return A new index over the patched fleet. This index does not change.
+     * Any other fleet is indexed from scratch.
+     * @author Shuzhao Feng
+     */
+    public FleetIndex patch(Fleet fleet) {
+        if (fleet.getBase() != indexed) return new FleetIndex(fleet); // not a patch of the indexed fleet
+        return new FleetIndex(this, fleet);
+    }
+    /**
+     * A simple fleet getter method.
+     * @return The indexed Jukeboxes.
+     * @author Shuzhao Feng
+     */
+    public Fleet getFleet() {
+        return fleet;
+    }
+    /**
+     * A simple size getter method.
+     * @return The number of indexed Jukeboxes.
+     * @author Shuzhao Feng
+     */
+    public int size() {
+        return fleet.size();
+    }
+    /**
+     * A simple Jukebox getter method.
+     * @param row The row number of the Jukebox.
+     * @return A view over the Jukebox stored at this row.
+     * @author Shuzhao Feng
+     */
+    public Jukebox get(int row) {
+        return fleet.get(row);
+    }
+    /**
+     * This method looks for the row of a Jukebox using its ID, in constant time.
+     * @param id The ID looking for.
+     * @return The row number of the Jukebox, -1 if no Jukebox was found.
+     * @author Shuzhao Feng
+     */
+    public int row(String id) {
+        if (id == null) return -1;
+        return byId[slot(id)] - 1; // -1 if no Jukebox was found
+    }
+    /**
+     * This method finds the slot of an ID in the ID table: the slot holding it, or the empty slot where it belongs.
+     * @param id The ID looking for.
+     * @return The slot number.
+     * @author Shuzhao Feng
+     */
+    private int slot(String id) {
+        int mask = byId.length - 1;
+        int h = id.hashCode() * 0x9E3779B9; // spread similar hash codes over the table
+        for (int slot = (h ^ (h >>> 16)) & mask; ; slot = (slot + 1) & mask) { // linear probing
+            if (byId[slot] == 0 || fleet.getId(byId[slot] - 1).equals(id)) return slot;
+        }
+    }
+    /**
+     * This method looks for the rows of all Jukeboxes of a model, in constant time.
+     * @param model The model looking for.
+     * @return The row numbers of the Jukeboxes in database order, an empty array if no Jukebox was found.
+     * The array is shared and must not be modified.
+     * @author Shuzhao Feng
+     */
+    public int[] rowsOfModel(String model) {
+        return rowsOfModel(NameDictionary.find(model));
+    }
+    /**
+     * This method looks for the rows of all Jukeboxes of a model number, in constant time.
+     * @param model The model number looking for, -1 for a model that was never read.
+     * @return The row numbers of the Jukeboxes in database order, an empty array if no Jukebox was found.
+     * The array is shared and must not be modified.
+     * @author Shuzhao Feng
+     */
+    public int[] rowsOfModel(int model) {
+        if (model < 0 || model >= byModel.length || byModel[model] == null) return new int[0]; // no Jukebox was found
+        return byModel[model];
+    }
+    /**
+     * This method counts the Jukeboxes owning at least a certain number of a component, without visiting any of them.
+     * @param component The component name.
+     * @param need The required number of components.
+     * @return The number of Jukeboxes meeting the requirement.
+     * @author Shuzhao Feng
+     */
+    public int count(String component, int need) {
+        return count(NameDictionary.find(component), need);
+    }
+    /**
+     * This method counts the Jukeboxes owning at least a certain number of a component number.
+     * Only the patched rows are visited, to correct the posting list of the indexed fleet.
+     * @param name The component number, -1 for a component that was never read.
+     * @param need The required number of components.
+     * @return The number of Jukeboxes meeting the requirement.
+     * @author Shuzhao Feng
+     */
+    private int count(int name, int need) {
+        if (name < 0) return 0; // no Jukebox has this component
+        int count = name >= postings.length || postings[name] == null ? 0 : postings[name].prefix(need);
+        for (int row : patched) { // replace the indexed components of the patched rows with their new ones
+            if (indexed.count(row, name) >= need) count--;
+            if (fleet.count(row, name) >= need) count++;
+        }
+        return count;
+    }
+    /**
+     * This method finds all Jukeboxes that meet a full requirement.
+     * It starts from the rarest requirement (the shortest prefix), then probes the remaining candidates against the others,
+     * so the cost depends on the size of the rarest prefix rather than on the size of the database.
+     * Names are normalized, two names differing only by case are the same component and both minimum counts must be met.
+     * @param whatWeNeed The full requirement in a map of {component, minimum count} pairs.
+     * @return The sorted row numbers of all matching Jukeboxes, an empty array if none was found.
+     * @author Shuzhao Feng
+     */
+    public int[] match(Map<String, Integer> whatWeNeed) {
+        if (whatWeNeed == null || whatWeNeed.isEmpty()) return new int[0]; // nothing to look for
+        HashMap<Integer, Integer> numbered = new HashMap<>(); // component number -> minimum count
+        for (Map.Entry<String, Integer> e : whatWeNeed.entrySet()) numbered.merge(NameDictionary.find(e.getKey()), e.getValue(), Math::max);
+        int[] names = new int[numbered.size()], needs = new int[names.length]; // requirements as numbers
+        int rarest = -1, rarestLength = Integer.MAX_VALUE, k = 0;
+        for (Map.Entry<Integer, Integer> e : numbered.entrySet()) { // look for the most selective requirement
+            names[k] = e.getKey();
+            needs[k] = e.getValue();
+            int length = count(names[k], needs[k]);
+            if (length < rarestLength) {
+                rarest = k;
+                rarestLength = length;
+            }
+            k++;
+        }
+        if (rarestLength == 0) return new int[0]; // at least one requirement can never be met
+        Posting posting = names[rarest] < postings.length ? postings[names[rarest]] : null; // rows of the indexed fleet
+        int[] candidates = posting == null ? new int[0] : Arrays.copyOf(posting.rows(), posting.prefix(needs[rarest]));
+        Arrays.sort(candidates); // keep the database order
+        int size = 0;
+        for (int row : candidates) { // probe every candidate against the other requirements, comparing numbers only
+            if (patched.length > 0 && Arrays.binarySearch(patched, row) >= 0) continue; // patched rows are probed below
+            boolean valid = true;
+            for (int i = 0; i < names.length; i++) {
+                if (i != rarest && fleet.count(row, names[i]) < needs[i]) {
+                    valid = false;
+                    break;
+                }
+            }
+            if (valid) candidates[size++] = row; // compact valid candidates to the front
+        }
+        if (patched.length == 0) return Arrays.copyOf(candidates, size);
+        int[] out = new int[size + patched.length];
+        int i = 0, j = 0, length = 0;
+        while (i < size || j < patched.length) { // merge the patched rows meeting every requirement, keeping the database order
+            if (j == patched.length || (i < size && candidates[i] < patched[j])) out[length++] = candidates[i++];
+            else if (meets(patched[j++], names, needs)) out[length++] = patched[j - 1];
+        }
+        return Arrays.copyOf(out, length);
+    }
+    /**
+     * This method counts the Jukeboxes of every model, without creating any Jukebox.
+     * The whole database is counted from the model index, in the time it takes to read one length per model.
+     * @param rows The row numbers to count, null for the whole database.
+     * @return An array where entry N is the number of Jukeboxes of model number N, see {@link NameDictionary#decode(int)}.
+     * @author Shuzhao Feng
+     */
+    public int[] countModels(int[] rows) {
+        int[] out = new int[Math.max(byModel.length, NameDictionary.size())];
+        if (rows == null) { // models never change with a patch, the index is exact
+            for (int model = 0; model < byModel.length; model++) {
+                if (byModel[model] != null) out[model] = byModel[model].length;
+            }
+            return out;
+        }
+        for (int row : rows) out[fleet.getModel(row)]++;
+        return out;
+    }
+    /**
+     * This method counts the Jukeboxes owning every component, at least once, without creating any Jukebox.
+     * The whole database is counted from the length of the posting lists, corrected with the patched rows.
+     * @param rows The row numbers to count, null for the whole database.
+     * @return An array where entry N is the number of Jukeboxes owning component number N, see {@link NameDictionary#decode(int)}.
+     * @author Shuzhao Feng
+     */
+    public int[] countComponents(int[] rows) {
+        int[] out = new int[Math.max(postings.length, NameDictionary.size())]; // patched rows may own components read after the index
+        if (rows == null) {
+            for (int name = 0; name < out.length; name++) out[name] = count(name, 1);
+            return out;
+        }
+        for (int row : rows) {
+            for (int i = 0; i < fleet.distinct(row); i++) out[fleet.nameAt(row, i)]++; // components are already counted by the fleet
+        }
+        return out;
+    }
+    /**
+     * This method checks whether a single Jukebox meets every requirement.
+     * @param row The row number of the Jukebox.
+     * @param names The component numbers.
+     * @param needs The required number of each component.
+     * @return true if the Jukebox owns enough of every component, false otherwise.
+     * @author Shuzhao Feng
+     */
+    private boolean meets(int row, int[] names, int[] needs) {
+        for (int i = 0; i < names.length; i++) {
+            if (fleet.count(row, names[i]) < needs[i]) return false;
+        }
+        return true;
+    }
+    /**
+     * This method converts row numbers back into Jukebox objects.
+     * @param rows The row numbers to convert.
+     * @return An arraylist of the corresponding Jukeboxes, null if the input is empty.
+     * @author Shuzhao Feng
+     */
+    public ArrayList<Jukebox> toJukeboxes(int[] rows) {
+        if (rows.length == 0) return null; // follow the convention of the filters, no result means null
+        ArrayList<Jukebox> out = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            out.add(fleet.get(row));
+        }
+        return out;
+    }
+    /**
+     * This method converts a bitmap of row numbers back into Jukebox objects.
+     * @param rows The bitmap to convert, bit N being set when row N is part of the result.
+     * @return An arraylist of the corresponding Jukeboxes in database order, null if the bitmap is empty.
+     * @author Shuzhao Feng
+     */
+    public ArrayList<Jukebox> toJukeboxes(BitSet rows) {
+        if (rows.isEmpty()) return null; // follow the convention of the filters, no result means null
+        ArrayList<Jukebox> out = new ArrayList<>(rows.cardinality());
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            out.add(fleet.get(row));
+        }
+        return out;
+    }
+    /**
+     * This method converts row numbers into a bitmap.
+     * @param rows The row numbers to convert.
+     * @return A bitmap where bit N is set when row N is part of the input.
+     * @author Shuzhao Feng
+     */
+    public BitSet toBitmap(int[] rows) {
+        BitSet out = new BitSet(fleet.size());
+        for (int row : rows) {
+            out.set(row);
+        }
+        return out;
+    }
+    /**
+     * This method converts Jukebox objects of this database into a bitmap of their row numbers.
+     * @param list The Jukeboxes to convert, may be null. Jukeboxes that are not views over this fleet are ignored.
+     * @return A bitmap where bit N is set when the Jukebox at row N is part of the input.
+     * @author Shuzhao Feng
+     */
+    public BitSet toBitmap(List<Jukebox> list) {
+        BitSet out = new BitSet(fleet.size());
+        if (list == null) return out; // no Jukebox, empty bitmap
+        for (Jukebox box : list) {
+            if (box.getFleet() == fleet) out.set(box.getRow());
+        }
+        return out;
+    }
+}
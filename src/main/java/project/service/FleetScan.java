@@ -0,0 +1,155 @@
+package project.service;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+/**
+ * This class scans rows of the Jukebox database that no index can answer, e.g. every Jukebox owning a component,
+ * or many candidates tested against a predicate. The rows are split into segments of {@link FleetScan#SEGMENT} rows,
+ * segments are tested in parallel on a dedicated ForkJoin pool, and the rows kept by each segment are then concatenated
+ * in segment order, so the result keeps the database order.
+ * <br>Below a threshold, or with a single thread, rows are tested on the calling thread: splitting would cost more than it saves.
+ * <br>The test must be safe to call from several threads at once, which is the case of anything reading a {@link Snapshot}.
+ * <br>A scanner owns its pool until it is closed: Spring closes the configured one on shutdown, whoever creates another one closes it.
+ * <br>It has the following methods:
+ * <br><br>{@link FleetScan#FleetScan(int, int)}
+ * <br>{@link FleetScan#common()}
+ * <br>{@link FleetScan#getParallelism()}
+ * <br>{@link FleetScan#scan(int, IntPredicate)}
+ * <br>{@link FleetScan#filter(int[], IntPredicate)}
+ * <br>{@link FleetScan#close()}
+ * @author Shuzhao Feng
+ */
+@Component
+public class FleetScan implements AutoCloseable {
+    public static final int SEGMENT = 16384; // rows tested by a single task, large enough to hide the cost of the task
+    private static final FleetScan COMMON = new FleetScan(0, 4 * SEGMENT); // used outside of Spring
+    private final ForkJoinPool pool; // workers, null for a serial scan
+    private final int threshold; // minimum number of rows scanned in parallel
+    /**
+     * This is the constructor of {@link FleetScan}.
+     * @param parallelism Number of worker threads, set by the property jukebox.scan.parallelism. 0 uses one thread per core, 1 always scans serially.
+     * @param threshold Minimum number of rows scanned in parallel, set by the property jukebox.scan.serial-threshold.
+     * @author Shuzhao Feng
+     */
+    public FleetScan(@Value("${jukebox.scan.parallelism:0}") int parallelism, @Value("${jukebox.scan.serial-threshold:65536}") int threshold) {
+        if (parallelism <= 0) parallelism = Runtime.getRuntime().availableProcessors(); // sized to the cores
+        this.pool = parallelism == 1 ? null : new ForkJoinPool(parallelism); // workers are daemon threads
+        this.threshold = Math.max(threshold, SEGMENT);
+    }
+    /**
+     * This method returns the scanner used when none is configured, with one thread per core.
+     * @return The shared scanner.
+     * @author Shuzhao Feng
+     */
+    public static FleetScan common() {
+        return COMMON;
+    }
+    /**
+     * A simple parallelism getter method.
+     * @return The number of threads testing rows, 1 for a serial scan.
+     * @author Shuzhao Feng
+     */
+    public int getParallelism() {
+        return pool == null ? 1 : pool.getParallelism();
+    }
+    /**
+     * This method tests every row of a database.
+     * @param size The number of rows.
+     * @param test The test, called once per row.
+     * @return The sorted rows passing the test, an empty array if none.
+     * @author Shuzhao Feng
+     */
+    public int[] scan(int size, IntPredicate test) {
+        return run(size, i -> i, test);
+    }
+    /**
+     * This method tests a list of rows.
+     * @param rows The rows to test. It is not modified.
+     * @param test The test, called once per row.
+     * @return The rows passing the test, in the same order, an empty array if none.
+     * @author Shuzhao Feng
+     */
+    public int[] filter(int[] rows, IntPredicate test) {
+        return run(rows.length, i -> rows[i], test);
+    }
+    /**
+     * This method stops the workers of the scanner. Scans running finish, later scans are refused. The common scanner is never closed.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public void close() {
+        if (pool != null && this != COMMON) pool.shutdown();
+    }
+    /**
+     * This method tests the rows at positions 0 to length - 1, serially or in parallel segments.
+     * @author Shuzhao Feng
+     */
+    private int[] run(int length, IntUnaryOperator rowAt, IntPredicate test) {
+        if (pool == null || length < threshold) return segment(0, length, rowAt, test); // too small to split
+        int[][] parts = new int[(length + SEGMENT - 1) / SEGMENT][]; // segment -> rows kept
+        pool.invoke(new Segments(0, parts.length, length, rowAt, test, parts));
+        int total = 0;
+        for (int[] part : parts) total += part.length;
+        int[] out = new int[total];
+        int size = 0;
+        for (int[] part : parts) { // concatenate in segment order, which is the database order
+            System.arraycopy(part, 0, out, size, part.length);
+            size += part.length;
+        }
+        return out;
+    }
+    /**
+     * This method tests the rows of a single segment on the calling thread.
+     * @author Shuzhao Feng
+     */
+    private static int[] segment(int from, int to, IntUnaryOperator rowAt, IntPredicate test) {
+        int[] out = new int[to - from];
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            int row = rowAt.applyAsInt(i);
+            if (test.test(row)) out[size++] = row;
+        }
+        return size == out.length ? out : Arrays.copyOf(out, size);
+    }
+    /**
+     * A task testing a range of segments, split in halves until a single segment is left.
+     * @author Shuzhao Feng
+     */
+    private static class Segments extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // never serialized, tasks only live in the pool
+        private final int from, to, length; // range of segments, and number of positions of the whole scan
+        private final IntUnaryOperator rowAt; // position -> row
+        private final IntPredicate test; // test of a row
+        private final int[][] parts; // segment -> rows kept, shared by all tasks of the scan
+        /**
+         * This is the constructor of {@link Segments}.
+         * @author Shuzhao Feng
+         */
+        private Segments(int from, int to, int length, IntUnaryOperator rowAt, IntPredicate test, int[][] parts) {
+            this.from = from;
+            this.to = to;
+            this.length = length;
+            this.rowAt = rowAt;
+            this.test = test;
+            this.parts = parts;
+        }
+        /**
+         * This method tests the segment, or splits the range in halves.
+         * @author Shuzhao Feng
+         */
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                parts[from] = segment(from * SEGMENT, Math.min(length, (from + 1) * SEGMENT), rowAt, test);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Segments(from, mid, length, rowAt, test, parts), new Segments(mid, to, length, rowAt, test, parts));
+        }
+    }
+}
@@ -1,25 +1,67 @@
 package project.service;
 
-import com.google.gson.JsonArray; // I like using Gson to parse my Json data, but one can essentially use any valid Json parser.
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonParseException; // I like using Gson to parse my Json data, but one can essentially use any valid Json parser.
+import com.google.gson.stream.JsonReader;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import com.google.gson.stream.JsonWriter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import project.object.Fleet;
+import project.object.JsonBytes;
 import project.object.Jukebox;
+import project.object.NameDictionary;
 /**
  * This is the main service layer of the application.
- * It creates the Jukebox database and takes input from {@link project.Controller} to do the desired manipulation.
+ * It serves the current {@link Snapshot} of the Jukebox database and takes input from {@link project.Controller} to do the desired manipulation.
+ * <br>Components changed through {@link JukeboxAPI#patch(List)} are kept in a journal, and applied again to every snapshot
+ * loaded from the feeds until the feed reports the change itself, or another change of the same Jukebox.
+ * <br>Listeners added with {@link JukeboxAPI#addListener(BiConsumer)} are told about every snapshot swapped in, whether loaded or patched.
  * <br>It has the following methods:
  * <br><br>{@link JukeboxAPI#JukeboxAPI()}
+ * <br>{@link JukeboxAPI#JukeboxAPI(FleetScan)}
+ * <br>{@link JukeboxAPI#JukeboxAPI(SettingsAPI, ArrayList)}
+ * <br>{@link JukeboxAPI#JukeboxAPI(Snapshot)}
+ * <br>{@link JukeboxAPI#readJukeboxes(URL)}
+ * <br>{@link JukeboxAPI#readJukeboxes(InputStream, Fleet.Builder)}
+ * <br>{@link JukeboxAPI#readJukeboxes(InputStream, Fleet.Builder, Partition)}
+ * <br>{@link JukeboxAPI#getSnapshot()}
+ * <br>{@link JukeboxAPI#swap(Snapshot)}
+ * <br>{@link JukeboxAPI#patch(List)}
+ * <br>{@link JukeboxAPI#addListener(BiConsumer)}
  * <br>{@link JukeboxAPI#getJukeboxes()}
+ * <br>{@link JukeboxAPI#getVersion()}
+ * <br>{@link JukeboxAPI#getPatchedNames()}
+ * <br>{@link JukeboxAPI#getSettings()}
+ * <br>{@link JukeboxAPI#getIndex()}
+ * <br>{@link JukeboxAPI#getScan()}
+ * <br>{@link JukeboxAPI#bindTo(MeterRegistry)}
  * <br>{@link JukeboxAPI#filterById(String)}
  * <br>{@link JukeboxAPI#filterById(ArrayList)}
  * <br>{@link JukeboxAPI#filterByModel(String)}
@@ -27,71 +69,324 @@ import project.object.Jukebox;
  * <br>{@link JukeboxAPI#filterByComponent(String)}*
  * <br>{@link JukeboxAPI#filterByComponents(HashMap)}
  * <br>{@link JukeboxAPI#settingId(String)}
- * <br>{@link JukeboxAPI#filter(ArrayList, ArrayList)}
- * <br>{@link JukeboxAPI#toJSONString(ArrayList)}
+ * <br>{@link JukeboxAPI#filterBySetting(ArrayList, String)}
+ * <br>{@link JukeboxAPI#supportedSettings(List)}
+ * <br>{@link JukeboxAPI#filter(List, List)}
+ * <br>{@link JukeboxAPI#toJSONString(ArrayList)}*
+ * <br>{@link JukeboxAPI#page(ArrayList, int, int)}
+ * <br>{@link JukeboxAPI#writeJSON(List, OutputStream)}
+ * <br>{@link JukeboxAPI#writeJSON(Map, OutputStream)}
+ * <br>{@link JukeboxAPI#writeNDJSON(List, OutputStream)}
+ * <br>{@link JukeboxAPI#writeSettings(Map, OutputStream)}
  * <br><br>* not used by this project, added for project overall completeness
  * @author Shuzhao Feng
  */
 @Service
-public class JukeboxAPI {
-    private final ArrayList<Jukebox> arr; // database containing all Jukeboxes
-    private final SettingsAPI settings; // setting api
-    /**
-     * This is the constructor of {@link JukeboxAPI}. It does 2 things:
-     * 1-Instantiate a {@link SettingsAPI},
-     * 2-Read Jukebox input from the online file and convert it into an arraylist of {@link Jukebox} objects.
-     * @throws IOException may occur while reading JSON data from the online source.
-     * @author Shuzhao Feng
-     */
-    public JukeboxAPI() throws IOException {
-        this.settings = new SettingsAPI();
-        this.arr = new ArrayList<>();
-        InputStream input = new URL("http://my-json-server.typicode.com/touchtunes/tech-assignment/jukes").openStream(); // open input stream
-        try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)); // create buffered reader
-            StringBuilder build = new StringBuilder(); // create string builder
-            int index; // hold count for character index
-            while ((index = reader.read()) != -1) { // while the reader is not yet empty
-                build.append((char) index); // read next character
-            }
-            String s = build.toString(); // convert to string
-            input.close(); // close input stream
-            JsonArray jsonArr = JsonParser.parseString(s).getAsJsonArray(); // map the data into an array of Json elements
-            for (JsonElement je : jsonArr) { // iterate through each Json element
-                JsonObject jsonObj = je.getAsJsonObject(); // create Json object using the data provided
-                String id = jsonObj.getAsJsonPrimitive("id").getAsString(); // find ID
-                String model = jsonObj.getAsJsonPrimitive("model").getAsString(); // find model
-                ArrayList<String> components = new ArrayList<>(); // create an empty arraylist to store components
-                for (JsonElement e : jsonObj.getAsJsonArray("components")) { // iterate through each component piece
-                    components.add(e.getAsJsonObject().getAsJsonPrimitive("name").getAsString()); // add the component to the list of components
+public class JukeboxAPI implements MeterBinder {
+    private volatile Snapshot snapshot; // current version of the data, replaced as a whole and never modified
+    private final FleetScan scan; // scanner for searches no index can answer
+    private final HashMap<String, Pending> journal = new HashMap<>(); // Jukebox ID -> components patched but not yet in the feed, guarded by this
+    private final CopyOnWriteArrayList<BiConsumer<Snapshot, Snapshot>> listeners = new CopyOnWriteArrayList<>(); // told about every swap
+    public static final int MAX_NEW_NAMES = 16; // most component names a single patch may add to the dictionary
+    public static final int MAX_PATCHED_NAMES = 1024; // most component names all patches may add to the dictionary, over the life of the process
+    private static final AtomicInteger PATCHED_NAMES = new AtomicInteger(); // names added by patches, never given back like the dictionary
+    private static final byte[] ARRAY_ITEM = "\n  ".getBytes(StandardCharsets.UTF_8), OBJECT_ITEM = ARRAY_ITEM,
+            NESTED_ITEM = "\n    ".getBytes(StandardCharsets.UTF_8); // line breaks and indentation of the Json responses
+    /**
+     * A change waiting for the feed.
+     * @param base Component numbers of the Jukebox in the feed when it was first patched.
+     * @param components Component numbers of the Jukebox once patched.
+     * @author Shuzhao Feng
+     */
+    private record Pending(int[] base, int[] components) {}
+    /**
+     * The outcome of a patch.
+     * @param before The snapshot that was patched.
+     * @param after The new snapshot, now served.
+     * @param rows The sorted rows of the changed Jukeboxes, the same in both snapshots.
+     * @author Shuzhao Feng
+     */
+    public record Patch(Snapshot before, Snapshot after, int[] rows) {}
+    /**
+     * This is the constructor of {@link JukeboxAPI}. It starts with an empty database and returns immediately,
+     * the data is then loaded in the background by {@link SnapshotLoader} and swapped in with {@link JukeboxAPI#swap(Snapshot)}.
+     * @author Shuzhao Feng
+     */
+    public JukeboxAPI() {
+        this(Snapshot.empty());
+    }
+    /**
+     * This is the constructor of {@link JukeboxAPI} used by Spring. It starts with an empty database, like {@link JukeboxAPI#JukeboxAPI()}.
+     * @param scan The scanner for searches no index can answer.
+     * @author Shuzhao Feng
+     */
+    @Autowired
+    public JukeboxAPI(FleetScan scan) {
+        this.snapshot = Snapshot.empty();
+        this.scan = scan;
+    }
+    /**
+     * This is the constructor of {@link JukeboxAPI} for data that was already read.
+     * @param settings The setting api.
+     * @param arr The Jukebox database. It must not be modified afterwards.
+     * @author Shuzhao Feng
+     */
+    public JukeboxAPI(SettingsAPI settings, ArrayList<Jukebox> arr) {
+        this(new Snapshot(settings, arr));
+    }
+    /**
+     * This is the constructor of {@link JukeboxAPI} for a snapshot that was already built.
+     * @param snapshot The data to serve.
+     * @author Shuzhao Feng
+     */
+    public JukeboxAPI(Snapshot snapshot) {
+        this.snapshot = snapshot;
+        this.scan = FleetScan.common();
+    }
+    /**
+     * This method reads Jukebox input from a Json file and converts it into a {@link Fleet}.
+     * @param url The location of the file, either online (http) or local (file).
+     * @return A fleet of all Jukeboxes read.
+     * @throws IOException may occur while reading JSON data from the source.
+     * @throws RuntimeException may occur if the data is not valid, in which case nothing is returned.
+     * @author Shuzhao Feng
+     */
+    public static Fleet readJukeboxes(URL url) throws IOException {
+        Fleet.Builder builder = new Fleet.Builder();
+        try (InputStream input = url.openStream()) { // open input stream
+            readJukeboxes(input, builder);
+        } // invalid data is not caught here: a broken feed must never replace valid data
+        return builder.build();
+    }
+    /**
+     * This method reads Jukebox input from a Json stream token by token, and adds every Jukebox to the fleet builder
+     * as soon as it is complete. The Json tree of the feed is never built, so apart from the fleet columns,
+     * memory stays bounded by the read buffer whatever the size of the feed.
+     * <br>Model and component names are numbered by {@link NameDictionary} as they are read.
+     * @param input The Json stream, a list of Jukeboxes. It is not closed.
+     * @param builder Receives the Jukeboxes in feed order.
+     * @return The number of Jukeboxes read.
+     * @throws IOException may occur while reading JSON data from the source, or if the data is not valid Json.
+     * @throws RuntimeException may occur if a Jukebox misses its ID or model.
+     * @author Shuzhao Feng
+     */
+    public static int readJukeboxes(InputStream input, Fleet.Builder builder) throws IOException {
+        return readJukeboxes(input, builder, Partition.ALL);
+    }
+    /**
+     * This method reads Jukebox input from a Json stream like {@link JukeboxAPI#readJukeboxes(InputStream, Fleet.Builder)},
+     * and only adds the Jukeboxes owned by a shard, each with its position in the whole feed.
+     * @param input The Json stream, a list of Jukeboxes. It is not closed.
+     * @param builder Receives the Jukeboxes of the shard in feed order.
+     * @param partition The shard whose Jukeboxes are kept.
+     * @return The number of Jukeboxes read, kept or not.
+     * @throws IOException may occur while reading JSON data from the source, or if the data is not valid Json.
+     * @throws RuntimeException may occur if a Jukebox misses its ID or model.
+     * @author Shuzhao Feng
+     */
+    public static int readJukeboxes(InputStream input, Fleet.Builder builder, Partition partition) throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16)); // read tokens through a 64 KB buffer
+        ArrayList<String> components = new ArrayList<>(); // components of the current Jukebox, reused for every Jukebox
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) { // iterate through each Jukebox
+            String id = null, model = null;
+            components.clear();
+            reader.beginObject();
+            while (reader.hasNext()) { // iterate through each field of the Jukebox
+                switch (reader.nextName()) {
+                    case "id" -> id = reader.nextString(); // find ID
+                    case "model" -> model = reader.nextString(); // find model
+                    case "components" -> {
+                        reader.beginArray();
+                        while (reader.hasNext()) { // iterate through each component piece
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                if (reader.nextName().equals("name")) components.add(reader.nextString()); // add the component to the list of components
+                                else reader.skipValue();
+                            }
+                            reader.endObject();
+                        }
+                        reader.endArray();
+                    }
+                    default -> reader.skipValue(); // field not used by this project
                 }
-                arr.add(new Jukebox(id, model, components)); // create Jukebox object and add it to the list
             }
-        } catch (Exception e) { // this is a demo assignment, so I don't want to bore anyone with all possible errors that might occur...
-            e.printStackTrace();
+            reader.endObject();
+            if (id == null || model == null) throw new JsonParseException("Jukebox without ID or model at " + reader.getPath());
+            if (partition.owns(id)) builder.position(count).add(id, model, components); // add the Jukebox to the columns
+            count++;
         }
+        reader.endArray();
+        return count;
+    }
+    /**
+     * A simple snapshot getter method. Callers that need several pieces of data should read the snapshot once and keep it,
+     * so that all pieces come from the same version.
+     * @return The current snapshot.
+     * @author Shuzhao Feng
+     */
+    public Snapshot getSnapshot() {
+        return this.snapshot;
+    }
+    /**
+     * This method replaces the current snapshot atomically. Requests already running keep reading the previous one.
+     * Components patched since the feed last changed them are patched again in the new snapshot.
+     * @param snapshot The new snapshot.
+     * @author Shuzhao Feng
+     */
+    public synchronized void swap(Snapshot snapshot) {
+        TreeMap<Integer, int[]> pending = new TreeMap<>(); // row -> components patched again, sorted rows
+        Iterator<Map.Entry<String, Pending>> it = journal.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Pending> e = it.next();
+            int row = snapshot.getIndex().row(e.getKey());
+            if (row >= 0 && Arrays.equals(snapshot.getFleet().getComponents(row), e.getValue().base())) pending.put(row, e.getValue().components());
+            else it.remove(); // the feed caught up or moved on, it wins from now on
+        }
+        if (!pending.isEmpty()) {
+            snapshot = snapshot.patch(pending.keySet().stream().mapToInt(Integer::intValue).toArray(), pending.values().toArray(new int[0][]));
+        }
+        Snapshot before = this.snapshot;
+        this.snapshot = snapshot;
+        for (BiConsumer<Snapshot, Snapshot> listener : listeners) listener.accept(before, snapshot);
+    }
+    /**
+     * This method changes the components of some Jukeboxes and swaps the patched snapshot in, see {@link Snapshot#patch(int[], int[][])}.
+     * Changes are applied in order, several changes of the same Jukebox add up. Either every change is applied, or none.
+     * Requests already running keep reading the previous snapshot.
+     * <br>Names are kept forever by the global {@link NameDictionary}, so a patch may name at most {@link JukeboxAPI#MAX_NEW_NAMES} components it has never seen,
+     * and all patches of the process together at most {@link JukeboxAPI#MAX_PATCHED_NAMES}. Names read from the feeds are not limited.
+     * @param changes The changes to apply.
+     * @return The snapshots before and after the changes, with the changed rows.
+     * @throws NoSuchElementException if a Jukebox is not found, in which case nothing is changed.
+     * @throws IllegalArgumentException if a change is not valid, or too many names are new, in which case nothing is changed.
+     * @author Shuzhao Feng
+     */
+    public synchronized Patch patch(List<ComponentChange> changes) {
+        Snapshot before = this.snapshot;
+        TreeMap<Integer, ArrayList<String>> updated = new TreeMap<>(); // row -> new components, sorted rows
+        for (ComponentChange change : changes) {
+            if (change == null) throw new IllegalArgumentException("Missing component change");
+            int row = before.getIndex().row(change.id());
+            if (row < 0) throw new NoSuchElementException("Jukebox not found: " + change.id());
+            updated.put(row, change.apply(updated.containsKey(row) ? updated.get(row) : before.getFleet().get(row).getComponents()));
+        }
+        if (updated.isEmpty()) return new Patch(before, before, new int[0]); // nothing to change
+        HashSet<String> fresh = new HashSet<>(); // normalized names never seen, checked before any of them is numbered
+        for (ArrayList<String> names : updated.values()) {
+            for (String name : names) if (NameDictionary.find(name) < 0) fresh.add(NameDictionary.normalize(name));
+        }
+        if (fresh.size() > MAX_NEW_NAMES) throw new IllegalArgumentException(fresh.size() + " new component names, at most " + MAX_NEW_NAMES + " per patch");
+        int count = fresh.size();
+        if (count > 0 && PATCHED_NAMES.getAndUpdate(n -> n + count <= MAX_PATCHED_NAMES ? n + count : n) + count > MAX_PATCHED_NAMES) {
+            throw new IllegalArgumentException("Too many new component names, patches may add at most " + MAX_PATCHED_NAMES); // the feed must name them first
+        }
+        int[] rows = new int[updated.size()];
+        int[][] components = new int[rows.length][];
+        int i = 0;
+        for (Map.Entry<Integer, ArrayList<String>> e : updated.entrySet()) {
+            rows[i] = e.getKey();
+            components[i] = new int[e.getValue().size()];
+            for (int j = 0; j < components[i].length; j++) components[i][j] = NameDictionary.encode(e.getValue().get(j));
+            String id = before.getFleet().getId(rows[i]);
+            Pending old = journal.get(id);
+            journal.put(id, new Pending(old == null ? before.getFleet().getComponents(rows[i]) : old.base(), components[i]));
+            i++;
+        }
+        Snapshot after = before.patch(rows, components);
+        this.snapshot = after;
+        for (BiConsumer<Snapshot, Snapshot> listener : listeners) listener.accept(before, after);
+        return new Patch(before, after, rows);
+    }
+    /**
+     * This method adds a listener told about every snapshot swapped in, by {@link JukeboxAPI#swap(Snapshot)} or {@link JukeboxAPI#patch(List)}.
+     * Listeners are called in the order of the swaps, while the next swap waits, so they must return quickly, e.g. by handing the work to another thread.
+     * @param listener Receives the previous snapshot and the new one.
+     * @author Shuzhao Feng
+     */
+    public void addListener(BiConsumer<Snapshot, Snapshot> listener) {
+        listeners.add(listener);
     }
     /**
      * A simple Jukebox getter method.
-     * @return An arraylist of Jukeboxes.
+     * @return A read-only list of Jukeboxes.
+     * @author Shuzhao Feng
+     */
+    public List<Jukebox> getJukeboxes() {
+        return this.snapshot.getJukeboxes();
+    }
+    /**
+     * A simple version getter method.
+     * @return The version of the current data.
+     * @author Shuzhao Feng
+     */
+    public long getVersion() {
+        return this.snapshot.getVersion();
+    }
+    /**
+     * A simple getter method of the names added by patches.
+     * @return The number of component names all patches of the process added to the dictionary, at most {@link JukeboxAPI#MAX_PATCHED_NAMES}.
+     * @author Shuzhao Feng
+     */
+    public static int getPatchedNames() {
+        return PATCHED_NAMES.get();
+    }
+    /**
+     * A simple setting api getter method.
+     * @return The current setting api.
      * @author Shuzhao Feng
      */
-    public ArrayList<Jukebox> getJukeboxes() {
-        return this.arr;
+    public SettingsAPI getSettings() {
+        return this.snapshot.getSettings();
     }
     /**
-     * This method takes a single ID and looks for the Jukebox that correspond to this ID.
+     * A simple index getter method.
+     * @return The index built over the current Jukebox database.
+     * @author Shuzhao Feng
+     */
+    public FleetIndex getIndex() {
+        return this.snapshot.getIndex();
+    }
+    /**
+     * A simple scanner getter method.
+     * @return The scanner for searches no index can answer.
+     * @author Shuzhao Feng
+     */
+    public FleetScan getScan() {
+        return this.scan;
+    }
+    /**
+     * This method registers gauges describing the snapshot being served: jukebox.snapshot.version, jukebox.snapshot.age (seconds since it was built),
+     * jukebox.snapshot.jukeboxes, jukebox.snapshot.settings and jukebox.snapshot.patched (Jukeboxes patched since it was last compacted).
+     * Spring calls it once the registry is created. Gauges read the current snapshot when the registry is scraped, never on a request.
+     * @param registry The registry to add the gauges to.
+     * @author Shuzhao Feng
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("jukebox.snapshot.version", this, api -> api.getSnapshot().getVersion())
+                .description("Version of the data being served").register(registry);
+        Gauge.builder("jukebox.snapshot.age", this, api -> (System.currentTimeMillis() - api.getSnapshot().getLoadedAt()) / 1000.0)
+                .description("Time since the snapshot being served was built").baseUnit("seconds").register(registry);
+        Gauge.builder("jukebox.snapshot.jukeboxes", this, api -> api.getSnapshot().getFleet().size())
+                .description("Number of Jukeboxes being served").baseUnit("jukeboxes").register(registry);
+        Gauge.builder("jukebox.snapshot.settings", this, api -> api.getSnapshot().getSettings().getSettings().size())
+                .description("Number of settings being served").baseUnit("settings").register(registry);
+        Gauge.builder("jukebox.snapshot.patched", this, api -> api.getSnapshot().getFleet().getPatchedRows().length)
+                .description("Number of Jukeboxes patched since the snapshot was last compacted").baseUnit("jukeboxes").register(registry);
+    }
+    /**
+     * This method takes a single ID and looks for the Jukebox that correspond to this ID, using the primary key of the {@link FleetIndex}.
      * @param id a string of the ID looking for.
      * @return the Jukebox corresponding to this id, null if no Jukebox was found.
      * @author Shuzhao Feng
      */
     public Jukebox filterById(String id){
-        for (Jukebox box : arr) { // iterate through the database
-            if (box.getId().equals(id)) { // assume ID is unique to the Jukebox
-                return box; // return and break method
-            }
-        }
-        return null; // no Jukebox was found
+        FleetIndex index = getIndex(); // read the snapshot once
+        int row = index.row(id); // assume ID is unique to the Jukebox
+        if (row < 0) return null; // no Jukebox was found
+        return index.get(row);
     }
     /**
      * This method takes multiple IDs simultaneously and looks for all Jukeboxes that correspond to those IDs.
@@ -111,20 +406,14 @@ public class JukeboxAPI {
         return null; // otherwise, return null
     }
     /**
-     * This method takes a single model name and looks for all Jukeboxes that correspond to this model.
+     * This method takes a single model name and looks for all Jukeboxes that correspond to this model, using the model index of the {@link FleetIndex}.
      * @param model a string of the model looking for.
      * @return an arraylist of search results, null if no Jukebox was found.
      * @author Shuzhao Feng
      */
     public ArrayList<Jukebox> filterByModel(String model){
-        ArrayList<Jukebox> out = new ArrayList<>(); // create an empty arraylist to store search results
-        for (Jukebox box : arr){  // iterate through the database
-            if (box.getModel().equals(model)){ // compare model name to search keyword
-                out.add(box); // add the Jukebox to the results
-            }
-        }
-        if (out.size() > 0) return out; // if found at least 1 Jukebox return result
-        return null; // otherwise, return null
+        FleetIndex index = getIndex(); // read the snapshot once
+        return index.toJukeboxes(index.rowsOfModel(model)); // no Jukebox means null
     }
     /**
      * This method takes multiple model names simultaneously and looks for all Jukeboxes that correspond to those models.
@@ -133,11 +422,11 @@ public class JukeboxAPI {
      * @author Shuzhao Feng
      */
     public ArrayList<Jukebox> filterByModel(ArrayList<String> models){
+        FleetIndex index = getIndex(); // read the snapshot once
         ArrayList<Jukebox> out = new ArrayList<>(); // create an empty arraylist to store search results
         for (String model : models){ // iterate through each model name
-            ArrayList<Jukebox> temp = filterByModel(model); // find all results corresponding to the model
-            if (temp != null){ // Jukebox was found
-                out.addAll(temp); // add models to the results
+            for (int row : index.rowsOfModel(model)){ // add all Jukeboxes of the model to the results
+                out.add(index.get(row));
             }
         }
         if (out.size() > 0) return out; // if found at least 1 Jukebox return result
@@ -145,63 +434,94 @@ public class JukeboxAPI {
     }
     /**
      * This method taking a component name and looks for all Jukeboxes with this component.
+     * The database is scanned by the {@link FleetScan}, in parallel segments when it is large.
      * @param comp The component looking for.
      * @return An arraylist of search result, null of no Jukebox was found.
      * @author Shuzhao Feng
      */
     public ArrayList<Jukebox> filterByComponent(String comp){
-        ArrayList<Jukebox> out = new ArrayList<>(); // create an empty arraylist to store search results
-        for (Jukebox box : arr) {  // iterate through the database
-            String result = box.getComponent(comp); // verify if the component is available for the Jukebox
-            if (result != null){ // if found valid result
-                out.add(box); // add Jukebox to the results
-            }
-        }
-        if (out.size() > 0) return out; // if found at least 1 Jukebox return result
-        return null; // otherwise, return null
+        FleetIndex index = getIndex(); // read the snapshot once
+        Fleet fleet = index.getFleet();
+        int name = NameDictionary.find(comp); // normalize the component once
+        if (name < 0) return null; // never read, no Jukebox has it
+        return index.toJukeboxes(scan.scan(fleet.size(), row -> fleet.count(row, name) > 0)); // no Jukebox means null
     }
     /**
      * This method takes a Hashmap of requirements and find all Jukeboxes that meet those requirements.
      * Note that the number of a component also matters, as a Jukebox is considered invalid if it has a certain component,
      * but its number of that specific component does not meet the requirement.
+     * <br>The search is answered by the {@link FleetIndex}, so only Jukeboxes owning the rarest required component are visited.
      * @param whatWeNeed The full requirement of the Setting in a Hashmap.
      * @return An arraylist of search results, null if no Jukebox was found.
      * @author Shuzhao Feng
      */
     public ArrayList<Jukebox> filterByComponents(HashMap<String, Integer> whatWeNeed){
         if (whatWeNeed == null || whatWeNeed.isEmpty()) return null; // invalid input
-        ArrayList<Jukebox> out = new ArrayList<>(arr); // create a new arraylist and copy the database to avoid CMException
-        for (Jukebox box : arr) {  // iterate through the database
-            HashMap<String, Integer> whatWeHave = box.getHashedComponents(); // get all that the Jukebox has
-            for (String key : whatWeNeed.keySet()){
-                // remove the Jukebox from the list when: 1-it doesn't contain the component, or 2-it contains fewer components than required
-                if (whatWeHave.get(key) == null || whatWeHave.get(key) < whatWeNeed.get(key)) out.remove(box);
-            }
-        }
-        if (out.size() > 0) return out; // if at least 1 Jukebox remains return result
-        return null; // otherwise, return null
+        FleetIndex index = getIndex(); // read the snapshot once
+        return index.toJukeboxes(index.match(whatWeNeed)); // intersect the posting lists, starting with the rarest component
     }
     /**
-     * This method calls for {@link JukeboxAPI#filterByComponents(HashMap)} and {@link SettingsAPI#getHashedRequires(String)}
-     * to find Jukeboxes that meet the requirement for a specific setting.
+     * This method finds Jukeboxes that meet the requirement for a specific setting.
+     * The answer comes from the bitmap precomputed with {@link JukeboxAPI#filterByComponents(HashMap)} and {@link SettingsAPI#getHashedRequires(String)}.
      * @param id The setting ID.
-     * @return An arraylist of all Jukeboxes satisfying the setting requirement.
+     * @return An arraylist of all Jukeboxes satisfying the setting requirement, null if no Jukebox was found.
      * @author Shuzhao Feng
      */
     public ArrayList<Jukebox> settingId(String id){
-        return filterByComponents(this.settings.getHashedRequires(id)); // filter by components using the value of the setting id.
+        Snapshot snap = this.snapshot; // read the snapshot once
+        BitSet bitmap = snap.getCompatibility(id); // find the precomputed result of the setting
+        if (bitmap == null) return null; // setting not found
+        return snap.getIndex().toJukeboxes(bitmap);
+    }
+    /**
+     * This method keeps the Jukeboxes of a list that meet the requirement for a specific setting,
+     * with a bitwise AND between the list and the precomputed bitmap of the setting.
+     * @param boxes The arraylist to go through, may be null.
+     * @param id The setting ID.
+     * @return An arraylist of all Jukeboxes of the list satisfying the setting requirement, in database order, null if no Jukebox was found.
+     * @author Shuzhao Feng
+     */
+    public ArrayList<Jukebox> filterBySetting(ArrayList<Jukebox> boxes, String id){
+        Snapshot snap = this.snapshot; // read the snapshot once
+        BitSet bitmap = snap.getCompatibility(id); // find the precomputed result of the setting
+        if (bitmap == null || boxes == null) return null; // setting not found, or nothing to filter
+        BitSet out = snap.getIndex().toBitmap(boxes); // convert the list into a bitmap
+        out.and(bitmap); // keep the Jukeboxes present in both
+        return snap.getIndex().toJukeboxes(out);
+    }
+    /**
+     * This method finds the settings supported by some Jukeboxes, e.g. for devices asking what they can enable when they boot.
+     * Every Jukebox is found with the primary key of the {@link FleetIndex}, then compared with the requirement vector
+     * of every setting (see {@link SettingsAPI#getSupported(Fleet, int)}), without going through the database.
+     * Answers are kept by the snapshot until the data changes, see {@link Snapshot#getSupported(int)}.
+     * @param ids The IDs of the Jukeboxes.
+     * @return A map of each ID, in the order of the list, to the sorted IDs of the settings it supports.
+     * @throws NoSuchElementException if a Jukebox is not found.
+     * @author Shuzhao Feng
+     */
+    public LinkedHashMap<String, List<String>> supportedSettings(List<String> ids){
+        Snapshot snap = this.snapshot; // read the snapshot once, all Jukeboxes are answered from the same data
+        LinkedHashMap<String, List<String>> out = new LinkedHashMap<>();
+        for (String id : ids){
+            int row = snap.getIndex().row(id);
+            if (row < 0) throw new NoSuchElementException("No Jukebox with ID " + id);
+            out.put(id, snap.getSupported(row));
+        }
+        return out;
     }
     /**
      * This method takes two arraylists and find elements that is in both arraylists.
+     * The second list is hashed once, so the cost is linear in the size of both lists.
      * @param arr1 The first arraylist to go through.
      * @param arr2 The second arraylist to go through.
      * @return An arraylist of all Jukeboxes that are present in both lists.
      * @author Shuzhao Feng
      */
-    public static ArrayList<Jukebox> filter(ArrayList<Jukebox> arr1, ArrayList<Jukebox> arr2) {
+    public static ArrayList<Jukebox> filter(List<Jukebox> arr1, List<Jukebox> arr2) {
         ArrayList<Jukebox> out = new ArrayList<>(); // create empty arraylist to store results
+        HashSet<Jukebox> set = new HashSet<>(arr2); // hash the second list, Jukeboxes are hashed by ID
         for (Jukebox box : arr1){ // iterate through the Jukeboxes in the first list
-            if (arr2.contains(box)){ // if the Jukebox is also present in the second list
+            if (set.contains(box)){ // if the Jukebox is also present in the second list
                 out.add(box); // add the Jukebox to the result
             }
         }
@@ -219,4 +539,112 @@ public class JukeboxAPI {
         }
         return out;
     }
+    /**
+     * This method skips and limits a search result by number of Jukeboxes, before anything is serialized.
+     * No Jukebox is copied, the page is a view of the result.
+     * @param boxes The search result, may be null.
+     * @param offset The number of Jukeboxes to skip, negative values count as 0.
+     * @param limit The maximum number of Jukeboxes to keep, negative values count as 0.
+     * @return The requested page of the result, an empty list if there is nothing left.
+     * @author Shuzhao Feng
+     */
+    public static List<Jukebox> page(ArrayList<Jukebox> boxes, int offset, int limit){
+        if (boxes == null) return Collections.emptyList(); // no result, nothing to show
+        int from = Math.min(Math.max(offset, 0), boxes.size()); // clamp both bounds to the result
+        int to = from + Math.min(Math.max(limit, 0), boxes.size() - from);
+        return boxes.subList(from, to);
+    }
+    /**
+     * This method writes a list of Jukebox objects as a Json array directly to an output stream,
+     * one Jukebox at a time, without building the whole response in memory.
+     * Every Jukebox is a compact Json object on a line of its own, copied from its fleet (see {@link Jukebox#toJSON(OutputStream)}).
+     * @param boxes The Jukeboxes to write.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @throws IOException may occur while writing to the stream.
+     * @author Shuzhao Feng
+     */
+    public static void writeJSON(List<Jukebox> boxes, OutputStream output) throws IOException {
+        OutputStream out = new BufferedOutputStream(output, 1 << 16); // buffer small writes
+        writeArray(boxes, out, ARRAY_ITEM);
+        out.flush();
+    }
+    /**
+     * This method writes several lists of Jukebox objects as a Json object of named arrays directly to an output stream,
+     * one Jukebox at a time, without building the whole response in memory.
+     * @param pages The Jukeboxes to write, by name, in the order of the map.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @throws IOException may occur while writing to the stream.
+     * @author Shuzhao Feng
+     */
+    public static void writeJSON(Map<String, List<Jukebox>> pages, OutputStream output) throws IOException {
+        OutputStream out = new BufferedOutputStream(output, 1 << 16);
+        out.write('{');
+        boolean first = true;
+        for (Map.Entry<String, List<Jukebox>> e : pages.entrySet()){ // iterate through the lists
+            if (!first) out.write(',');
+            first = false;
+            out.write(OBJECT_ITEM);
+            out.write(JsonBytes.quote(e.getKey())); // names are given by users, escape them
+            out.write(':');
+            out.write(' ');
+            writeArray(e.getValue(), out, NESTED_ITEM);
+        }
+        if (!first) out.write('\n');
+        out.write('}');
+        out.flush();
+    }
+    /**
+     * This method writes Jukeboxes as a Json array, copying the Json object of every Jukebox from its fleet.
+     * @param boxes The Jukeboxes to write.
+     * @param out The buffered stream to write to.
+     * @param item The line break and indentation written before every Jukebox, the closing bracket is indented 2 spaces less.
+     * @throws IOException may occur while writing to the stream.
+     * @author Shuzhao Feng
+     */
+    private static void writeArray(List<Jukebox> boxes, OutputStream out, byte[] item) throws IOException {
+        out.write('[');
+        for (int i = 0; i < boxes.size(); i++){ // iterate through the Jukeboxes
+            if (i > 0) out.write(',');
+            out.write(item);
+            boxes.get(i).toJSON(out); // copy the Jukebox
+        }
+        if (!boxes.isEmpty()) out.write(item, 0, item.length - 2); // same line break, one level up
+        out.write(']');
+    }
+    /**
+     * This method writes a list of Jukebox objects as newline-delimited Json (one compact Json object per line)
+     * directly to an output stream, one Jukebox at a time. Memory stays bounded by the write buffer whatever the size of the list,
+     * and a slow reader slows the writer down, since writes block until the reader makes room.
+     * @param boxes The Jukeboxes to write.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @throws IOException may occur while writing to the stream, e.g. when the reader goes away.
+     * @author Shuzhao Feng
+     */
+    public static void writeNDJSON(List<Jukebox> boxes, OutputStream output) throws IOException {
+        OutputStream out = new BufferedOutputStream(output, 1 << 16); // write in 64 KB chunks
+        for (Jukebox box : boxes){ // iterate through the Jukeboxes
+            box.toJSON(out); // already compact, one per line
+            out.write('\n');
+        }
+        out.flush();
+    }
+    /**
+     * This method writes lists of setting IDs as a Json object of named arrays directly to an output stream.
+     * @param settings The setting IDs to write, by Jukebox ID, in the order of the map.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @throws IOException may occur while writing to the stream.
+     * @author Shuzhao Feng
+     */
+    public static void writeSettings(Map<String, List<String>> settings, OutputStream output) throws IOException {
+        JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+        json.setIndent("  ");
+        json.beginObject();
+        for (Map.Entry<String, List<String>> e : settings.entrySet()){
+            json.name(e.getKey()).beginArray();
+            for (String id : e.getValue()) json.value(id);
+            json.endArray();
+        }
+        json.endObject();
+        json.flush();
+    }
 }
@@ -0,0 +1,100 @@
+package project.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import project.object.Fleet;
+/**
+ * This class defines the part of the Jukebox feed owned by a shard, when the database is split between several nodes.
+ * Every ID is hashed to 32 bits, and the hashes are cut into as many contiguous ranges as there are shards:
+ * a shard keeps the Jukeboxes whose hash falls in its range, and skips the others while reading the feed.
+ * The hash only depends on the ID (and the number of shards), so every node and the {@link ShardCoordinator} agree on the owner of an ID.
+ * <br>The shard of a node is set by the properties jukebox.shard.index and jukebox.shard.count, a single shard owns everything.
+ * <br>It has the following methods:
+ * <br><br>{@link Partition#Partition(int, int)}
+ * <br>{@link Partition#shard(String, int)}
+ * <br>{@link Partition#owns(String)}
+ * <br>{@link Partition#ownsAll(Fleet)}
+ * <br>{@link Partition#getIndex()}
+ * <br>{@link Partition#getCount()}
+ * <br>{@link Partition#toString()}
+ * @author Shuzhao Feng
+ */
+@Component
+public class Partition {
+    public static final Partition ALL = new Partition(0, 1); // a single node, owning the whole feed
+    private final int index, count; // shard of this node, out of count shards
+    /**
+     * This is the constructor of {@link Partition}.
+     * @param index The shard of this node, from 0 to count excluded, set by the property jukebox.shard.index.
+     * @param count The number of shards, set by the property jukebox.shard.count.
+     * @throws IllegalArgumentException if the shard is not one of the shards.
+     * @author Shuzhao Feng
+     */
+    public Partition(@Value("${jukebox.shard.index:0}") int index, @Value("${jukebox.shard.count:1}") int count) {
+        if (count < 1 || index < 0 || index >= count) throw new IllegalArgumentException("Invalid shard " + index + " of " + count);
+        this.index = index;
+        this.count = count;
+    }
+    /**
+     * This method finds the shard owning an ID.
+     * @param id The Jukebox's ID.
+     * @param count The number of shards.
+     * @return The shard owning the ID, from 0 to count excluded.
+     * @author Shuzhao Feng
+     */
+    public static int shard(String id, int count) {
+        int h = id.hashCode(); // specified by String, the same in every JVM
+        h ^= h >>> 16; // spread the bits, IDs often differ in their last characters only
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (int) (((h & 0xFFFFFFFFL) * count) >>> 32); // range of the hash
+    }
+    /**
+     * This method checks whether this shard owns a Jukebox.
+     * @param id The Jukebox's ID.
+     * @return true if the Jukebox belongs to this shard.
+     * @author Shuzhao Feng
+     */
+    public boolean owns(String id) {
+        return count == 1 || shard(id, count) == index;
+    }
+    /**
+     * This method checks whether this shard owns all Jukeboxes of a fleet, e.g. a snapshot file saved by another shard.
+     * @param fleet The fleet to check.
+     * @return true if every Jukebox of the fleet belongs to this shard.
+     * @author Shuzhao Feng
+     */
+    public boolean ownsAll(Fleet fleet) {
+        for (int row = 0; row < fleet.size() && count > 1; row++) {
+            if (!owns(fleet.getId(row))) return false;
+        }
+        return true;
+    }
+    /**
+     * A simple shard getter method.
+     * @return The shard of this node.
+     * @author Shuzhao Feng
+     */
+    public int getIndex() {
+        return index;
+    }
+    /**
+     * A simple shard count getter method.
+     * @return The number of shards.
+     * @author Shuzhao Feng
+     */
+    public int getCount() {
+        return count;
+    }
+    /**
+     * This method describes the partition for logs.
+     * @return The shard and the number of shards, e.g. "shard 1 of 4".
+     * @author Shuzhao Feng
+     */
+    @Override
+    public String toString() {
+        return "shard " + index + " of " + count;
+    }
+}
@@ -7,57 +7,109 @@ import java.io.InputStreamReader;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import java.util.Map;
+import java.util.TreeMap;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import project.object.Fleet;
+import project.object.NameDictionary;
 /**
  * This is a secondary service layer of the application solely to treat setting data.
  * It creates the setting database and takes orders from {@link JukeboxAPI} to assist in selections that involves setting IDs.
  * <br>It contains the following methods:
- * <br><br>{@link SettingsAPI#SettingsAPI()}
+ * <br><br>{@link SettingsAPI#SettingsAPI(URL)}
+ * <br>{@link SettingsAPI#SettingsAPI(InputStream)}
+ * <br>{@link SettingsAPI#SettingsAPI(HashMap)}
  * <br>{@link SettingsAPI#getSettings()}*
  * <br>{@link SettingsAPI#getRequires(String)}
  * <br>{@link SettingsAPI#getRequires(ArrayList)}*
  * <br>{@link SettingsAPI#getHashedRequires(String)}
+ * <br>{@link SettingsAPI#getSupported(Fleet, int)}
  * <br><br>* not used by this project, added for project overall completeness
  * @author Shuzhao Feng
  */
 public class SettingsAPI {
     private final HashMap<String, ArrayList<String>> arr; // database containing all settings
+    private volatile Requirement[] requirements; // requirement vector of every setting, by ID, built on first use
+    /**
+     * The requirement vector of a setting, compared to the component counts of a Jukebox without any lookup by name.
+     * @param id The setting ID.
+     * @param names The distinct required component numbers, see {@link NameDictionary}.
+     * @param counts The number of occurrences required of each component, same order.
+     * @author Shuzhao Feng
+     */
+    private record Requirement(String id, int[] names, int[] counts) {}
     /**
      * This is the constructor of {@link SettingsAPI}.
-     * It reads setting input from the online file and convert it into a hashmap of {id, requirement} pairs.
-     * @throws IOException may occur while reading JSON data from the online source.
+     * It reads setting input from a Json file and convert it into a hashmap of {id, requirement} pairs.
+     * @param url The location of the file, either online (http) or local (file).
+     * @throws IOException may occur while reading JSON data from the source.
+     * @throws RuntimeException may occur if the data is not valid.
+     * @author Shuzhao Feng
+     */
+    public SettingsAPI(URL url) throws IOException{
+        this.arr = new HashMap<>(); // create new Hashmap to store results
+        try (InputStream input = url.openStream()) { // open input stream
+            read(input, arr);
+        } // invalid data is not caught here: a broken feed must never replace valid data
+    }
+    /**
+     * This is the constructor of {@link SettingsAPI} for a setting feed that is already open.
+     * @param input The Json stream. It is not closed.
+     * @throws IOException may occur while reading JSON data from the source, or if the data is not valid Json.
      * @author Shuzhao Feng
      */
-    public SettingsAPI() throws IOException{
+    public SettingsAPI(InputStream input) throws IOException{
         this.arr = new HashMap<>(); // create new Hashmap to store results
-        InputStream input = new URL("http://my-json-server.typicode.com/touchtunes/tech-assignment/settings").openStream(); // open input stream
-        try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)); // create buffered reader
-            StringBuilder build = new StringBuilder(); // create string builder
-            int index; // hold count for character index
-            while ((index = reader.read()) != -1) { // while the reader is not yet empty
-                build.append((char) index); // read next character
+        read(input, arr);
+    }
+    /**
+     * This method reads setting input from a Json stream token by token, without building the Json tree of the feed.
+     * @param input The Json stream, an object holding the list of settings. It is not closed.
+     * @param arr Receives the {id, requirement} pairs.
+     * @throws IOException may occur while reading JSON data from the source, or if the data is not valid Json.
+     * @author Shuzhao Feng
+     */
+    private static void read(InputStream input, HashMap<String, ArrayList<String>> arr) throws IOException{
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16)); // read tokens through a 64 KB buffer
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("settings")) { // field not used by this project
+                reader.skipValue();
+                continue;
             }
-            String s = build.toString(); // convert to string
-            input.close(); // close input stream
-            JsonArray jsonArr = JsonParser.parseString(s).getAsJsonObject().getAsJsonArray("settings"); // map the data into an array of Json elements
-            for (JsonElement je : jsonArr) { // iterate through each Json element
-                JsonObject jsonObj = je.getAsJsonObject(); // create Json object using the data provided
-                String id = jsonObj.getAsJsonPrimitive("id").getAsString(); // find ID
+            reader.beginArray();
+            while (reader.hasNext()) { // iterate through each setting
+                String id = null;
                 ArrayList<String> requires = new ArrayList<>(); // create an empty arraylist to store requirements
-                for (JsonElement e : jsonObj.getAsJsonArray("requires")) { // iterate through each requirement piece
-                    requires.add(e.getAsString()); // add the requirement to the list of requirements
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "id" -> id = reader.nextString(); // find ID
+                        case "requires" -> {
+                            reader.beginArray();
+                            while (reader.hasNext()) requires.add(reader.nextString()); // add the requirement to the list of requirements
+                            reader.endArray();
+                        }
+                        default -> reader.skipValue();
+                    }
                 }
+                reader.endObject();
+                if (id == null) throw new JsonParseException("Setting without ID at " + reader.getPath());
                 arr.put(id, requires); // create key/value pair and add it to the list
             }
-        } catch (Exception e) { // this is a demo assignment, so I don't want to bore anyone with all possible errors that might occur...
-            e.printStackTrace();
+            reader.endArray();
         }
+        reader.endObject();
+    }
+    /**
+     * This is the constructor of {@link SettingsAPI} for data that was already read.
+     * @param arr A hashmap of {id, requirement} pairs.
+     * @author Shuzhao Feng
+     */
+    public SettingsAPI(HashMap<String, ArrayList<String>> arr){
+        this.arr = arr;
     }
     /**
      * A simple setting getter method.
@@ -95,7 +147,9 @@ public class SettingsAPI {
     }
     /**
      * This method return the Setting's requirements in form of a key/value pair to ease manipulation.
-     * @return A hashmap of key/value pair where the key is the String name of the requirements,
+     * Names are normalized like {@link NameDictionary} does, so "PCB" and "pcb" count as the same requirement,
+     * as in the requirement vectors of {@link SettingsAPI#getSupported(Fleet, int)}.
+     * @return A hashmap of key/value pair where the key is the normalized name of the requirements,
      * and the value is the number of occurrences of this requirement in the Setting.
      * @author Shuzhao Feng
      */
@@ -104,7 +158,47 @@ public class SettingsAPI {
         ArrayList<String> setting = getRequires(id); // find the particular setting
         if (setting == null) return null; // id not found
         for (String s : setting){ // iterate over all requirements of the particular setting
-            out.computeIfAbsent(s, s1 -> Collections.frequency(getRequires(id), s1)); // add key/value pair if not yet added
+            out.merge(NameDictionary.normalize(s), 1, Integer::sum); // count the occurrences of every normalized name
+        }
+        return out;
+    }
+    /**
+     * This method builds the requirement vector of every setting once, sorted by setting ID.
+     * Names are numbered even if no Jukebox has them yet, so that a Jukebox patched later is matched too.
+     * @author Shuzhao Feng
+     */
+    private Requirement[] requirements(){
+        Requirement[] out = requirements;
+        if (out != null) return out;
+        TreeMap<String, ArrayList<String>> sorted = new TreeMap<>(arr);
+        out = new Requirement[sorted.size()];
+        int i = 0;
+        for (Map.Entry<String, ArrayList<String>> e : sorted.entrySet()){
+            TreeMap<Integer, Integer> counts = new TreeMap<>(); // component number -> occurrences
+            for (String name : e.getValue()) counts.merge(NameDictionary.encode(name), 1, Integer::sum);
+            out[i++] = new Requirement(e.getKey(), counts.keySet().stream().mapToInt(Integer::intValue).toArray(),
+                    counts.values().stream().mapToInt(Integer::intValue).toArray());
+        }
+        requirements = out; // built twice at worst, by two first readers, with the same result
+        return out;
+    }
+    /**
+     * This method finds the settings a Jukebox supports, comparing the requirement vector of every setting with the
+     * component counts of the Jukebox. It costs the number of settings, whatever the size of the database.
+     * As in {@link FleetIndex#match(Map)}, a setting without any requirement is never supported.
+     * @param fleet The database holding the Jukebox.
+     * @param row The row number of the Jukebox.
+     * @return The IDs of the settings supported by the Jukebox, in ascending order.
+     * @author Shuzhao Feng
+     */
+    public ArrayList<String> getSupported(Fleet fleet, int row){
+        ArrayList<String> out = new ArrayList<>();
+        for (Requirement requirement : requirements()){
+            boolean supported = requirement.names().length > 0;
+            for (int i = 0; supported && i < requirement.names().length; i++){
+                supported = fleet.count(row, requirement.names()[i]) >= requirement.counts()[i];
+            }
+            if (supported) out.add(requirement.id());
         }
         return out;
     }
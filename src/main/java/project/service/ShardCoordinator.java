@@ -0,0 +1,228 @@
+package project.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import project.object.Jukebox;
+import project.query.Query;
+/**
+ * This class answers queries over a database split between several shards (see {@link Partition}), each shard being a node of its own.
+ * A query is sent to every shard at once (scatter), and the results of the shards are merged back in feed order as they arrive (gather),
+ * so the response is the one a single node holding the whole feed would send, byte for byte.
+ * <br>A query on IDs is only sent to the shards owning them, each with its own IDs. Every shard sends the first offset + limit Jukeboxes
+ * of its result, the coordinator skips the offset and stops at the limit of the merged result, closing the other responses.
+ * <br>Shards answer /api/shard with one line per Jukebox: its position in the feed, a space, and its Json object, see
+ * {@link ShardCoordinator#writeShard(List, OutputStream)}. Lines are merged by position, and Json objects are copied without being parsed.
+ * <br>The shards are set by the property jukebox.shard.nodes, the base URLs of the /api endpoint of every shard in shard order, comma separated.
+ * A coordinator may be one of the shards. Without shards, the coordinator is disabled.
+ * <br>It has the following methods:
+ * <br><br>{@link ShardCoordinator#ShardCoordinator(String, Duration)}
+ * <br>{@link ShardCoordinator#isEnabled()}
+ * <br>{@link ShardCoordinator#getNodes()}
+ * <br>{@link ShardCoordinator#scatter(Query)}
+ * <br>{@link ShardCoordinator#gather(List, int, int, OutputStream)}
+ * <br>{@link ShardCoordinator#writeShard(List, OutputStream)}
+ * @author Shuzhao Feng
+ */
+@Service
+public class ShardCoordinator {
+    public static final String MEDIA_TYPE = "application/x-jukebox-shard"; // media type of the responses of a shard
+    private static final byte[] ITEM = "\n  ".getBytes(StandardCharsets.UTF_8); // same layout as JukeboxAPI.writeJSON
+    private final List<URI> nodes; // base URL of every shard, in shard order
+    private final Duration timeout; // maximum time until a shard starts answering
+    private final HttpClient client;
+    /**
+     * This is the constructor of {@link ShardCoordinator}. It does not connect to anything until a query is sent.
+     * @param nodes The base URLs of the /api endpoint of every shard in shard order, comma separated, e.g. "http://localhost:8081/api,http://localhost:8082/api".
+     *              Set by the property jukebox.shard.nodes, empty to disable the coordinator.
+     * @param timeout The maximum time until a shard starts answering, set by the property jukebox.shard.timeout.
+     * @author Shuzhao Feng
+     */
+    @Autowired
+    public ShardCoordinator(@Value("${jukebox.shard.nodes:}") String nodes, @Value("${jukebox.shard.timeout:PT10S}") Duration timeout) {
+        ArrayList<URI> uris = new ArrayList<>();
+        if (nodes != null) {
+            for (String node : nodes.split(",")) {
+                if (!node.isBlank()) uris.add(URI.create(node.trim().replaceAll("/+$", ""))); // without trailing slash
+            }
+        }
+        this.nodes = List.copyOf(uris);
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+    }
+    /**
+     * This method checks whether shards are set.
+     * @return true if queries can be sent to shards.
+     * @author Shuzhao Feng
+     */
+    public boolean isEnabled() {
+        return !nodes.isEmpty();
+    }
+    /**
+     * A simple shard getter method.
+     * @return The base URLs of the shards, in shard order.
+     * @author Shuzhao Feng
+     */
+    public List<URI> getNodes() {
+        return nodes;
+    }
+    /**
+     * This method sends a query to the shards that may hold part of its result, all at once, and waits until every one of them
+     * starts answering. Nothing is read from the responses yet.
+     * @param query The query, its page being the page of the merged result.
+     * @return The responses of the shards, to be merged by {@link ShardCoordinator#gather(List, int, int, OutputStream)}.
+     * @throws IOException if a shard cannot be reached or does not answer with 200, in which case every response is closed.
+     * @author Shuzhao Feng
+     */
+    public List<InputStream> scatter(Query query) throws IOException {
+        List<List<String>> ids = new ArrayList<>(); // shard -> IDs owned, null to send the query as it is
+        for (int i = 0; i < nodes.size(); i++) ids.add(query.getIds() == null ? null : new ArrayList<>());
+        if (query.getIds() != null) {
+            for (String id : query.getIds()) ids.get(Partition.shard(id, nodes.size())).add(id);
+        }
+        long need = (long) query.getOffset() + query.getLimit(); // every shard may hold the whole page
+        int limit = (int) Math.min(need, Integer.MAX_VALUE);
+        ArrayList<CompletableFuture<HttpResponse<InputStream>>> futures = new ArrayList<>();
+        ArrayList<Integer> asked = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            if (ids.get(i) != null && ids.get(i).isEmpty()) continue; // prune, this shard holds none of the IDs
+            URI uri = URI.create(nodes.get(i) + "/shard?" + query.toParameters(ids.get(i), 0, limit));
+            HttpRequest request = HttpRequest.newBuilder(uri).timeout(timeout).header("Accept", MEDIA_TYPE).GET().build();
+            futures.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()));
+            asked.add(i);
+        }
+        ArrayList<InputStream> out = new ArrayList<>();
+        IOException failure = null;
+        for (int i = 0; i < futures.size(); i++) { // every response is opened or closed, even after a failure
+            try {
+                HttpResponse<InputStream> response = futures.get(i).get();
+                if (response.statusCode() == 200 && failure == null) out.add(response.body());
+                else {
+                    response.body().close();
+                    if (failure == null) failure = new IOException("Shard " + asked.get(i) + " answered " + response.statusCode());
+                }
+            } catch (ExecutionException e) {
+                if (failure == null) failure = new IOException("Shard " + asked.get(i) + " could not be reached: " + e.getCause(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) failure = new IOException("Interrupted while waiting for shard " + asked.get(i));
+            }
+        }
+        if (failure != null) {
+            for (InputStream input : out) input.close();
+            throw failure;
+        }
+        return out;
+    }
+    /**
+     * The lines of a shard response, read one at a time.
+     * @author Shuzhao Feng
+     */
+    private static class Lines {
+        private final InputStream in;
+        private long position; // feed position of the current line
+        private byte[] json = new byte[256]; // Json object of the current line
+        private int length;
+        Lines(InputStream in) {
+            this.in = new BufferedInputStream(in, 1 << 16);
+        }
+        boolean next() throws IOException {
+            int b = in.read();
+            if (b < 0) return false; // end of the response
+            long p = 0;
+            for (; b != ' '; b = in.read()) {
+                if (b < '0' || b > '9') throw new IOException("Invalid shard response");
+                p = p * 10 + (b - '0');
+            }
+            length = 0;
+            for (b = in.read(); b != '\n'; b = in.read()) {
+                if (b < 0) throw new EOFException("Truncated shard response");
+                if (length == json.length) json = Arrays.copyOf(json, length * 2);
+                json[length++] = (byte) b;
+            }
+            position = p;
+            return true;
+        }
+    }
+    /**
+     * This method merges the responses of the shards in feed order, and writes the requested page as a Json array,
+     * with the same layout as {@link JukeboxAPI#writeJSON(List, OutputStream)}. The merge stops at the end of the page,
+     * so the shards are only read as far as needed. Memory stays bounded by one line per shard.
+     * @param shards The responses of the shards, each in feed order. They are closed.
+     * @param offset The number of Jukeboxes of the merged result to skip.
+     * @param limit The maximum number of Jukeboxes to write.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @throws IOException may occur while reading a shard or writing to the stream, or if a shard response is not valid.
+     * @author Shuzhao Feng
+     */
+    public static void gather(List<InputStream> shards, int offset, int limit, OutputStream output) throws IOException {
+        try {
+            PriorityQueue<Lines> heads = new PriorityQueue<>(Comparator.comparingLong((Lines lines) -> lines.position)); // next line of every shard
+            for (InputStream shard : shards) {
+                Lines lines = new Lines(shard);
+                if (lines.next()) heads.add(lines);
+            }
+            OutputStream out = new BufferedOutputStream(output, 1 << 16);
+            out.write('[');
+            int skipped = 0, written = 0;
+            while (!heads.isEmpty() && written < limit) {
+                Lines head = heads.poll(); // lowest position of all shards
+                if (skipped < offset) skipped++;
+                else {
+                    if (written++ > 0) out.write(',');
+                    out.write(ITEM);
+                    out.write(head.json, 0, head.length);
+                }
+                if (head.next()) heads.add(head);
+            }
+            if (written > 0) out.write('\n');
+            out.write(']');
+            out.flush();
+        } finally {
+            for (InputStream shard : shards) shard.close();
+        }
+    }
+    /**
+     * This method writes the result of a shard for a coordinator: one line per Jukebox, its position in the feed, a space,
+     * and its compact Json object, copied from its fleet. Jukeboxes must be in feed order.
+     * @param boxes The Jukeboxes to write.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @throws IOException may occur while writing to the stream.
+     * @author Shuzhao Feng
+     */
+    public static void writeShard(List<Jukebox> boxes, OutputStream output) throws IOException {
+        OutputStream out = new BufferedOutputStream(output, 1 << 16);
+        byte[] digits = new byte[10];
+        for (Jukebox box : boxes) {
+            int position = box.getFleet().getPosition(box.getRow()), n = digits.length;
+            do { // digits from the right
+                digits[--n] = (byte) ('0' + position % 10);
+                position /= 10;
+            } while (position > 0);
+            out.write(digits, n, digits.length - n);
+            out.write(' ');
+            box.toJSON(out);
+            out.write('\n');
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,222 @@
+package project.service;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import project.object.Fleet;
+import project.object.Jukebox;
+import project.object.NameDictionary;
+/**
+ * This class holds one immutable version of the data: the Jukeboxes, the settings and every index built over them.
+ * {@link JukeboxAPI} serves a single snapshot at a time, and {@link SnapshotLoader} builds a new one in the background
+ * before swapping it in. A request reads the current snapshot once and keeps using it, so it always sees consistent data
+ * even if a newer snapshot is swapped in meanwhile, without any lock.
+ * <br>A snapshot is never modified, not even by a patch: {@link Snapshot#patch(int[], int[][])} builds the next version
+ * in the time it takes to process the patched rows, sharing everything else with this one.
+ * <br>The settings supported by a Jukebox are found on first request and kept by the snapshot, so a new version of the data starts afresh.
+ * <br>It has the following methods:
+ * <br><br>{@link Snapshot#Snapshot(SettingsAPI, ArrayList)}
+ * <br>{@link Snapshot#Snapshot(SettingsAPI, Fleet)}
+ * <br>{@link Snapshot#Snapshot(SettingsAPI, Fleet, HashMap)}
+ * <br>{@link Snapshot#empty()}
+ * <br>{@link Snapshot#patch(int[], int[][])}
+ * <br>{@link Snapshot#getVersion()}
+ * <br>{@link Snapshot#getTag()}
+ * <br>{@link Snapshot#getLoadedAt()}
+ * <br>{@link Snapshot#getFleet()}
+ * <br>{@link Snapshot#getJukeboxes()}
+ * <br>{@link Snapshot#getSettings()}
+ * <br>{@link Snapshot#getIndex()}
+ * <br>{@link Snapshot#getCompatibility(String)}
+ * <br>{@link Snapshot#getSupported(int)}
+ * @author Shuzhao Feng
+ */
+public class Snapshot {
+    private static final int COMPACT_MIN = 1024; // patched rows always allowed before the fleet is compacted, a sixteenth of the fleet if larger
+    private static final AtomicLong VERSIONS = new AtomicLong(); // source of data versions, shared by all snapshots
+    private static final String EPOCH = Long.toHexString(new SecureRandom().nextLong()); // tells this process apart from restarts and replicas
+    private final long version; // version of the data, different for every snapshot
+    private final long loadedAt; // time at which the snapshot was built, in milliseconds since epoch
+    private final Fleet fleet; // database containing all Jukeboxes
+    private final SettingsAPI settings; // setting api
+    private final FleetIndex index; // inverted component index over the database
+    private final HashMap<String, BitSet> compatibility; // setting ID -> bitmap of the Jukeboxes supporting the setting
+    private final ConcurrentHashMap<Integer, List<String>> supported = new ConcurrentHashMap<>(); // row -> settings supported, filled on request
+    /**
+     * This is the constructor of {@link Snapshot} for a list of Jukeboxes, copied into a new {@link Fleet}.
+     * @param settings The setting api. It must not be modified afterwards.
+     * @param arr The Jukebox database.
+     * @author Shuzhao Feng
+     */
+    public Snapshot(SettingsAPI settings, ArrayList<Jukebox> arr) {
+        this(settings, Fleet.of(arr));
+    }
+    /**
+     * This is the constructor of {@link Snapshot}. It does 2 things:
+     * 1-Build a {@link FleetIndex} over the fleet,
+     * 2-Build, for every setting, a bitmap of the Jukeboxes supporting it, so that setting queries never match components again.
+     * @param settings The setting api. It must not be modified afterwards.
+     * @param fleet The Jukebox database.
+     * @author Shuzhao Feng
+     */
+    public Snapshot(SettingsAPI settings, Fleet fleet) {
+        this(settings, fleet, null);
+    }
+    /**
+     * This is the constructor of {@link Snapshot} for setting bitmaps that were already computed, e.g. read back by {@link SnapshotFile}.
+     * @param settings The setting api. It must not be modified afterwards.
+     * @param fleet The Jukebox database.
+     * @param compatibility Setting ID -> bitmap of the rows supporting the setting, null to compute them.
+     * The bitmaps must have been computed over the same database, and must not be modified afterwards.
+     * @author Shuzhao Feng
+     */
+    public Snapshot(SettingsAPI settings, Fleet fleet, HashMap<String, BitSet> compatibility) {
+        this(settings, fleet, new FleetIndex(fleet), compatibility); // index whatever was read
+    }
+    /**
+     * This is the constructor of {@link Snapshot} for an index that was already built, e.g. patched by {@link Snapshot#patch(int[], int[][])}.
+     * @author Shuzhao Feng
+     */
+    private Snapshot(SettingsAPI settings, Fleet fleet, FleetIndex index, HashMap<String, BitSet> compatibility) {
+        this.version = VERSIONS.incrementAndGet();
+        this.loadedAt = System.currentTimeMillis();
+        this.settings = settings;
+        this.fleet = fleet;
+        this.index = index;
+        if (compatibility == null) {
+            compatibility = new HashMap<>();
+            for (String id : settings.getSettings().keySet()) { // settings are few, precompute each of them once
+                compatibility.put(id, index.toBitmap(index.match(settings.getHashedRequires(id))));
+            }
+        }
+        this.compatibility = compatibility;
+    }
+    /**
+     * This method creates a snapshot without any data, served until the first snapshot is loaded.
+     * @return An empty snapshot.
+     * @author Shuzhao Feng
+     */
+    public static Snapshot empty() {
+        return new Snapshot(new SettingsAPI(new HashMap<>()), Fleet.empty());
+    }
+    /**
+     * This method builds the next version of the data, where the components of a few Jukeboxes are replaced.
+     * The fleet and its index are patched without copying them (see {@link Fleet#patch(int[], int[][])} and {@link FleetIndex#patch(Fleet)}),
+     * and only the patched rows are matched against every setting: a setting bitmap is copied if one of its bits changes,
+     * and shared with this snapshot otherwise. Once more than a sixteenth of the fleet (and at least {@link Snapshot#COMPACT_MIN} rows)
+     * is patched, the fleet is compacted and everything is built again, so lookups never slow down for good.
+     * @param rows The rows to patch, sorted and distinct.
+     * @param components The new component numbers of every row, in the same order.
+     * @return A new snapshot with a new version. This snapshot does not change.
+     * @author Shuzhao Feng
+     */
+    public Snapshot patch(int[] rows, int[][] components) {
+        Fleet patched = fleet.patch(rows, components);
+        if (patched.getPatchedRows().length > Math.max(COMPACT_MIN, patched.size() / 16)) { // lookups would slow down, start over
+            return new Snapshot(settings, patched.compact());
+        }
+        FleetIndex patchedIndex = index.patch(patched);
+        HashMap<String, BitSet> out = new HashMap<>(compatibility);
+        for (String id : settings.getSettings().keySet()) { // settings are few, match every patched row against each of them
+            HashMap<String, Integer> requires = settings.getHashedRequires(id);
+            BitSet bitmap = compatibility.get(id), copy = null;
+            for (int row : rows) {
+                boolean supported = !requires.isEmpty(); // an empty requirement is never met, like in FleetIndex.match
+                for (Map.Entry<String, Integer> e : requires.entrySet()) {
+                    if (patched.count(row, NameDictionary.find(e.getKey())) < e.getValue()) {
+                        supported = false;
+                        break;
+                    }
+                }
+                if (supported == bitmap.get(row)) continue; // still the same answer
+                if (copy == null) copy = (BitSet) bitmap.clone(); // readers of this snapshot keep the previous bitmap
+                copy.set(row, supported);
+            }
+            if (copy != null) out.put(id, copy);
+        }
+        return new Snapshot(settings, patched, patchedIndex, out);
+    }
+    /**
+     * A simple version getter method. Two snapshots never share a version, so cached results can be tagged with it.
+     * @return The version of the data.
+     * @author Shuzhao Feng
+     */
+    public long getVersion() {
+        return this.version;
+    }
+    /**
+     * This method returns a tag of the data that no other snapshot shares, not even one built by another process.
+     * Versions restart from 1 with the process and replicas count on their own, so the version alone would let a client
+     * holding a response of another process take it for the current one; a random epoch of the process comes first.
+     * @return The tag of the data, e.g. 5c1f09a2e37b4d10.42.
+     * @author Shuzhao Feng
+     */
+    public String getTag() {
+        return EPOCH + "." + this.version;
+    }
+    /**
+     * A simple load time getter method.
+     * @return The time at which the snapshot was built, in milliseconds since epoch.
+     * @author Shuzhao Feng
+     */
+    public long getLoadedAt() {
+        return this.loadedAt;
+    }
+    /**
+     * A simple fleet getter method.
+     * @return The columns of the Jukebox database.
+     * @author Shuzhao Feng
+     */
+    public Fleet getFleet() {
+        return this.fleet;
+    }
+    /**
+     * A simple Jukebox getter method.
+     * @return A read-only list of all Jukeboxes, views created as they are read.
+     * @author Shuzhao Feng
+     */
+    public List<Jukebox> getJukeboxes() {
+        return fleet.asList();
+    }
+    /**
+     * A simple setting api getter method.
+     * @return The setting api.
+     * @author Shuzhao Feng
+     */
+    public SettingsAPI getSettings() {
+        return this.settings;
+    }
+    /**
+     * A simple index getter method.
+     * @return The index built over the Jukebox database.
+     * @author Shuzhao Feng
+     */
+    public FleetIndex getIndex() {
+        return this.index;
+    }
+    /**
+     * A simple getter method for the precomputed result of a setting.
+     * @param id The setting ID.
+     * @return A bitmap where bit N is set when the Jukebox at row N supports the setting, null if the setting was not found.
+     * The bitmap is shared and must not be modified.
+     * @author Shuzhao Feng
+     */
+    public BitSet getCompatibility(String id) {
+        return compatibility.get(id);
+    }
+    /**
+     * This method finds the settings a Jukebox supports with {@link SettingsAPI#getSupported(Fleet, int)}, the first time only.
+     * @param row The row number of the Jukebox.
+     * @return A read-only list of the IDs of the settings supported by the Jukebox, in ascending order.
+     * @author Shuzhao Feng
+     */
+    public List<String> getSupported(int row) {
+        return supported.computeIfAbsent(row, r -> Collections.unmodifiableList(settings.getSupported(fleet, r)));
+    }
+}
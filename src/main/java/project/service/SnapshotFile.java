@@ -0,0 +1,186 @@
+package project.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import project.object.Fleet;
+import project.object.NameDictionary;
+/**
+ * This class saves a {@link Snapshot} to a compact binary file and maps it back into memory,
+ * so that a restarting node serves its last data right away, even if the feeds are down.
+ * <br>The file starts with a header of {@link SnapshotFile#HEADER} bytes: magic number, format version, load time,
+ * payload length and CRC32 checksum of the payload. The payload holds:
+ * <br> - a dictionary of the model, component and requirement names, every name being written once,
+ * <br> - the Jukeboxes, as ID, feed position, model number and component numbers,
+ * <br> - the settings, as ID and requirement numbers, followed by the bitmap of the Jukeboxes supporting them,
+ * so that the bitmaps are not computed again at startup. The component index is rebuilt in a single pass.
+ * <br>Names are numbered by the file dictionary, and mapped to {@link NameDictionary} numbers when read,
+ * since those numbers only hold within a process.
+ * <br>All numbers are big-endian, strings are written as their UTF-8 length followed by their bytes.
+ * <br>It has the following methods:
+ * <br><br>{@link SnapshotFile#write(Snapshot, Path)}
+ * <br>{@link SnapshotFile#read(Path)}
+ * @author Shuzhao Feng
+ */
+public class SnapshotFile {
+    public static final int MAGIC = 0x4A4B4258; // "JKBX", marks a snapshot file
+    public static final int FORMAT = 2; // version of the layout, files of another version are not read (2 added feed positions)
+    public static final int HEADER = 32; // magic (4), format (4), load time (8), payload length (8), checksum (8)
+    /**
+     * This class only has static methods.
+     * @author Shuzhao Feng
+     */
+    private SnapshotFile() {}
+    /**
+     * This method writes a snapshot to a file. The file is first written next to the target, then moved over it,
+     * so a crash while writing never leaves a truncated snapshot behind.
+     * @param snapshot The snapshot to save.
+     * @param path The file to write.
+     * @throws IOException may occur while writing the file.
+     * @author Shuzhao Feng
+     */
+    public static void write(Snapshot snapshot, Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.position(HEADER); // the header is written last, once the checksum is known
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(Channels.newOutputStream(channel), crc), 1 << 16));
+            HashMap<String, Integer> names = new HashMap<>(); // name -> number in the file dictionary
+            Fleet fleet = snapshot.getFleet();
+            HashMap<String, ArrayList<String>> settings = snapshot.getSettings().getSettings();
+            int[] local = new int[NameDictionary.size()]; // global number + 1 -> number in the file, 0 if not numbered yet
+            for (int row = 0; row < fleet.size(); row++) { // number every distinct name, numbers are global to this process only
+                local[fleet.getModel(row)] = 1;
+                for (int i = 0; i < fleet.distinct(row); i++) local[fleet.nameAt(row, i)] = 1;
+            }
+            for (int name = 0; name < local.length; name++) {
+                if (local[name] == 1) {
+                    local[name] = names.size();
+                    names.put(NameDictionary.decode(name), names.size());
+                } else local[name] = -1;
+            }
+            for (ArrayList<String> requires : settings.values()) {
+                for (String req : requires) names.putIfAbsent(req, names.size());
+            }
+            String[] dictionary = new String[names.size()];
+            for (Map.Entry<String, Integer> e : names.entrySet()) dictionary[e.getValue()] = e.getKey();
+            out.writeInt(dictionary.length);
+            for (String name : dictionary) writeString(out, name);
+            out.writeInt(fleet.size());
+            for (int row = 0; row < fleet.size(); row++) {
+                writeString(out, fleet.getId(row));
+                out.writeInt(fleet.getPosition(row));
+                out.writeInt(local[fleet.getModel(row)]);
+                int[] comps = fleet.getComponents(row);
+                out.writeInt(comps.length);
+                for (int comp : comps) out.writeInt(local[comp]);
+            }
+            out.writeInt(settings.size());
+            for (Map.Entry<String, ArrayList<String>> e : settings.entrySet()) {
+                writeString(out, e.getKey());
+                out.writeInt(e.getValue().size());
+                for (String req : e.getValue()) out.writeInt(names.get(req));
+                long[] bits = snapshot.getCompatibility(e.getKey()).toLongArray();
+                out.writeInt(bits.length);
+                for (long word : bits) out.writeLong(word);
+            }
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(FORMAT).putLong(snapshot.getLoadedAt()).putLong(channel.position() - HEADER).putLong(crc.getValue()).flip();
+            channel.write(header, 0);
+            channel.force(true); // on disk before it replaces the previous file
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    /**
+     * This method maps a snapshot file into memory, checks its header and checksum, and builds a new snapshot from it.
+     * @param path The file to read.
+     * @return A new snapshot with the data of the file.
+     * @throws IOException may occur while reading the file, or if it is not a valid snapshot file of this format version.
+     * @author Shuzhao Feng
+     */
+    public static Snapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER) throw new IOException("Not a snapshot file: " + path);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) throw new IOException("Not a snapshot file: " + path);
+            int format = buffer.getInt();
+            if (format != FORMAT) throw new IOException("Snapshot format " + format + " is not supported, expected " + FORMAT + ": " + path);
+            buffer.getLong(); // load time of the saved data, the new snapshot is loaded now
+            long length = buffer.getLong(), checksum = buffer.getLong();
+            if (length != channel.size() - HEADER) throw new IOException("Truncated snapshot file: " + path);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice()); // the whole payload, without moving the buffer
+            if (crc.getValue() != checksum) throw new IOException("Corrupted snapshot file: " + path);
+            try {
+                String[] dictionary = new String[buffer.getInt()];
+                int[] global = new int[dictionary.length]; // number in the file -> number in this process
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = readString(buffer);
+                    global[i] = NameDictionary.encode(dictionary[i]);
+                }
+                int n = buffer.getInt();
+                Fleet.Builder builder = new Fleet.Builder();
+                for (int i = 0; i < n; i++) {
+                    String id = readString(buffer);
+                    builder.position(buffer.getInt());
+                    int model = global[buffer.getInt()];
+                    int[] components = new int[buffer.getInt()];
+                    for (int j = 0; j < components.length; j++) components[j] = global[buffer.getInt()];
+                    builder.add(id, model, components);
+                }
+                int s = buffer.getInt();
+                HashMap<String, ArrayList<String>> settings = new HashMap<>();
+                HashMap<String, BitSet> compatibility = new HashMap<>();
+                for (int i = 0; i < s; i++) {
+                    String id = readString(buffer);
+                    int m = buffer.getInt();
+                    ArrayList<String> requires = new ArrayList<>(m);
+                    for (int j = 0; j < m; j++) requires.add(dictionary[buffer.getInt()]);
+                    long[] bits = new long[buffer.getInt()];
+                    buffer.asLongBuffer().get(bits);
+                    buffer.position(buffer.position() + bits.length * Long.BYTES);
+                    settings.put(id, requires);
+                    compatibility.put(id, BitSet.valueOf(bits));
+                }
+                if (buffer.hasRemaining()) throw new IOException("Invalid snapshot file, trailing bytes: " + path);
+                return new Snapshot(new SettingsAPI(settings), builder.build(), compatibility);
+            } catch (RuntimeException e) { // checksum matched but the layout does not, written by a broken writer
+                throw new IOException("Invalid snapshot file: " + path, e);
+            }
+        }
+    }
+    /**
+     * This method writes a string as its UTF-8 length followed by its bytes.
+     * @author Shuzhao Feng
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    /**
+     * This method reads a string written by {@link SnapshotFile#writeString(DataOutputStream, String)}.
+     * @author Shuzhao Feng
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,255 @@
+package project.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import project.object.Fleet;
+/**
+ * This class loads the Jukebox and setting feeds in the background, builds a new {@link Snapshot} from them
+ * and swaps it into {@link JukeboxAPI}. It runs once right after startup, then again after every refresh period,
+ * so startup never waits for the network and the data follows the feeds.
+ * <br>If a feed cannot be read or parsed, the error is logged and the current snapshot keeps being served.
+ * <br>Every snapshot loaded from the feeds is also saved to a {@link SnapshotFile}. On the next start, that file is
+ * read back before the application serves anything, so a restarting node serves its last data within a fraction of
+ * the feed load time, and can start while the feeds are down. The feeds then replace it with the first refresh.
+ * <br>The feeds, the refresh period and the snapshot file are set by the properties jukebox.feed.jukes-url,
+ * jukebox.feed.settings-url, jukebox.feed.refresh-period and jukebox.snapshot.path. Feeds may be online (http) or local (file).
+ * <br>Every load is measured in a {@link MeterRegistry}: jukebox.feed.load times it, tagged with its outcome (success or failure),
+ * and jukebox.feed.size records the bytes read from each feed.
+ * <br>A node that is one of several shards (see {@link Partition}) reads the whole feed, but only keeps the Jukeboxes of its shard.
+ * <br>It has the following methods:
+ * <br><br>{@link SnapshotLoader#SnapshotLoader(JukeboxAPI, String, String, String)}
+ * <br>{@link SnapshotLoader#SnapshotLoader(JukeboxAPI, MeterRegistry, String, String, String)}
+ * <br>{@link SnapshotLoader#SnapshotLoader(JukeboxAPI, MeterRegistry, Partition, String, String, String)}
+ * <br>{@link SnapshotLoader#load(URL, URL)}
+ * <br>{@link SnapshotLoader#load(URL, URL, MeterRegistry)}
+ * <br>{@link SnapshotLoader#load(URL, URL, MeterRegistry, Partition)}
+ * <br>{@link SnapshotLoader#warmStart()}
+ * <br>{@link SnapshotLoader#refresh()}
+ * @author Shuzhao Feng
+ */
+@Component
+public class SnapshotLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotLoader.class);
+    private final JukeboxAPI api; // where new snapshots are swapped in
+    private final String jukesUrl, settingsUrl; // feed locations
+    private final Path snapshotPath; // file the snapshots are saved to, null if they are not saved
+    private final MeterRegistry registry; // where loads are measured
+    private final Partition partition; // Jukeboxes kept by this node
+    /**
+     * This is the constructor of {@link SnapshotLoader}. It does not read anything, loading starts with the first refresh.
+     * Loads are measured in the global registry of Micrometer.
+     * @param api Jukebox API, serving the snapshots.
+     * @param jukesUrl Location of the Jukebox feed.
+     * @param settingsUrl Location of the setting feed.
+     * @param snapshotPath File the snapshots are saved to and read back from at startup, empty to disable it.
+     * @author Shuzhao Feng
+     */
+    public SnapshotLoader(JukeboxAPI api, String jukesUrl, String settingsUrl, String snapshotPath) {
+        this(api, Metrics.globalRegistry, jukesUrl, settingsUrl, snapshotPath);
+    }
+    /**
+     * This is the constructor of {@link SnapshotLoader} for a node keeping the whole feed. It does not read anything, loading starts with the first refresh.
+     * @param api Jukebox API, serving the snapshots.
+     * @param registry Registry the loads are measured in.
+     * @param jukesUrl Location of the Jukebox feed.
+     * @param settingsUrl Location of the setting feed.
+     * @param snapshotPath File the snapshots are saved to and read back from at startup, empty to disable it.
+     * @author Shuzhao Feng
+     */
+    public SnapshotLoader(JukeboxAPI api, MeterRegistry registry, String jukesUrl, String settingsUrl, String snapshotPath) {
+        this(api, registry, Partition.ALL, jukesUrl, settingsUrl, snapshotPath);
+    }
+    /**
+     * This is the constructor of {@link SnapshotLoader} used by Spring. It does not read anything, loading starts with the first refresh.
+     * @param api Jukebox API, serving the snapshots.
+     * @param registry Registry the loads are measured in.
+     * @param partition The shard of this node, whose Jukeboxes are kept.
+     * @param jukesUrl Location of the Jukebox feed.
+     * @param settingsUrl Location of the setting feed.
+     * @param snapshotPath File the snapshots are saved to and read back from at startup, empty to disable it. Every shard needs a file of its own.
+     * @author Shuzhao Feng
+     */
+    @Autowired
+    public SnapshotLoader(JukeboxAPI api, MeterRegistry registry, Partition partition,
+                          @Value("${jukebox.feed.jukes-url:http://my-json-server.typicode.com/touchtunes/tech-assignment/jukes}") String jukesUrl,
+                          @Value("${jukebox.feed.settings-url:http://my-json-server.typicode.com/touchtunes/tech-assignment/settings}") String settingsUrl,
+                          @Value("${jukebox.snapshot.path:jukebox-snapshot.bin}") String snapshotPath) {
+        this.api = api;
+        this.registry = registry;
+        this.partition = partition;
+        this.jukesUrl = jukesUrl;
+        this.settingsUrl = settingsUrl;
+        this.snapshotPath = snapshotPath == null || snapshotPath.isBlank() ? null : Path.of(snapshotPath);
+    }
+    /**
+     * This method reads both feeds and builds a snapshot from them, without swapping it in.
+     * The feeds are parsed as they arrive, each Jukebox going straight into the snapshot, and the ingest throughput is logged.
+     * @param jukes Location of the Jukebox feed.
+     * @param settings Location of the setting feed.
+     * @return A new snapshot.
+     * @throws IOException may occur while reading the feeds.
+     * @throws RuntimeException may occur if a feed is not valid.
+     * @author Shuzhao Feng
+     */
+    public static Snapshot load(URL jukes, URL settings) throws IOException {
+        return load(jukes, settings, Metrics.globalRegistry);
+    }
+    /**
+     * This method reads both feeds and builds a snapshot from them, like {@link SnapshotLoader#load(URL, URL)},
+     * and records the bytes read from each feed in jukebox.feed.size, tagged with the feed (jukes or settings).
+     * @param jukes Location of the Jukebox feed.
+     * @param settings Location of the setting feed.
+     * @param registry Registry the sizes are recorded in.
+     * @return A new snapshot.
+     * @throws IOException may occur while reading the feeds.
+     * @throws RuntimeException may occur if a feed is not valid.
+     * @author Shuzhao Feng
+     */
+    public static Snapshot load(URL jukes, URL settings, MeterRegistry registry) throws IOException {
+        return load(jukes, settings, registry, Partition.ALL);
+    }
+    /**
+     * This method reads both feeds and builds a snapshot from them, like {@link SnapshotLoader#load(URL, URL, MeterRegistry)},
+     * keeping the Jukeboxes of a shard only.
+     * @param jukes Location of the Jukebox feed.
+     * @param settings Location of the setting feed.
+     * @param registry Registry the sizes are recorded in.
+     * @param partition The shard whose Jukeboxes are kept.
+     * @return A new snapshot.
+     * @throws IOException may occur while reading the feeds.
+     * @throws RuntimeException may occur if a feed is not valid.
+     * @author Shuzhao Feng
+     */
+    public static Snapshot load(URL jukes, URL settings, MeterRegistry registry, Partition partition) throws IOException {
+        long start = System.nanoTime();
+        SettingsAPI set;
+        Fleet.Builder builder = new Fleet.Builder();
+        long bytes;
+        try (CountingInputStream input = new CountingInputStream(settings.openStream())) {
+            set = new SettingsAPI(input);
+            bytes = input.count;
+        }
+        size(registry, "settings").record(bytes);
+        int read;
+        try (CountingInputStream input = new CountingInputStream(jukes.openStream())) {
+            read = JukeboxAPI.readJukeboxes(input, builder, partition);
+            bytes += input.count;
+            size(registry, "jukes").record(input.count);
+        }
+        long nanos = Math.max(1, System.nanoTime() - start);
+        LOG.info("Read {} jukeboxes from {} MB of feeds in {} ms ({} MB/s)", read, String.format("%.1f", bytes / 1e6),
+                nanos / 1_000_000, String.format("%.1f", bytes * 1e3 / nanos));
+        if (partition.getCount() > 1) LOG.info("Kept {} jukeboxes for {}", builder.size(), partition);
+        return new Snapshot(set, builder.build());
+    }
+    /**
+     * This method finds the distribution of the sizes of a feed.
+     * @author Shuzhao Feng
+     */
+    private static DistributionSummary size(MeterRegistry registry, String feed) {
+        return DistributionSummary.builder("jukebox.feed.size").description("Size of a feed when it was read").baseUnit("bytes")
+                .tag("feed", feed).register(registry);
+    }
+    /**
+     * A stream counting the bytes read through it, to measure the ingest throughput.
+     * @author Shuzhao Feng
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count; // number of bytes read so far
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+    /**
+     * This method reads back the snapshot file saved by a previous run and swaps it in. It runs once the loader is created,
+     * before the application serves anything. A missing or invalid file is logged and the application starts empty.
+     * @author Shuzhao Feng
+     */
+    @PostConstruct
+    public void warmStart() {
+        if (snapshotPath == null || !Files.exists(snapshotPath)) return; // first start, nothing saved yet
+        long start = System.nanoTime();
+        try {
+            Snapshot snapshot = SnapshotFile.read(snapshotPath);
+            if (!partition.ownsAll(snapshot.getFleet())) throw new IOException("the file was saved by another shard than " + partition);
+            api.swap(snapshot);
+            LOG.info("Read snapshot {} with {} jukeboxes from {} in {} ms", snapshot.getVersion(), snapshot.getJukeboxes().size(),
+                    snapshotPath, (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) { // the feeds will fill the data in
+            LOG.warn("Could not read the snapshot file {}, starting empty: {}", snapshotPath, e.toString());
+        }
+    }
+    /**
+     * This method builds a new snapshot from the feeds and swaps it in, then saves it to the snapshot file. It is scheduled right after startup,
+     * then after every refresh period, on the scheduler thread.
+     * @return true if the new snapshot was swapped in, false if the feeds could not be loaded.
+     * @author Shuzhao Feng
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${jukebox.feed.refresh-period:PT5M}")
+    public boolean refresh() {
+        long start = System.nanoTime();
+        try {
+            Snapshot snapshot = load(new URL(jukesUrl), new URL(settingsUrl), registry, partition);
+            api.swap(snapshot); // requests already running keep the previous snapshot
+            long nanos = System.nanoTime() - start;
+            timer("success").record(nanos, TimeUnit.NANOSECONDS);
+            LOG.info("Loaded snapshot {} with {} jukeboxes and {} settings in {} ms", snapshot.getVersion(),
+                    snapshot.getJukeboxes().size(), snapshot.getSettings().getSettings().size(), nanos / 1_000_000);
+            save(snapshot);
+            return true;
+        } catch (Exception e) { // keep serving the current snapshot
+            timer("failure").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            LOG.warn("Could not load the feeds, keeping snapshot {}: {}", api.getVersion(), e.toString());
+            return false;
+        }
+    }
+    /**
+     * This method finds the timer of the loads with a given outcome.
+     * @author Shuzhao Feng
+     */
+    private Timer timer(String outcome) {
+        return Timer.builder("jukebox.feed.load").description("Time spent reading the feeds and swapping the new snapshot in")
+                .tag("outcome", outcome).register(registry);
+    }
+    /**
+     * This method saves a snapshot to the snapshot file. A failure is only logged, the snapshot is already served.
+     * @param snapshot The snapshot to save.
+     * @author Shuzhao Feng
+     */
+    private void save(Snapshot snapshot) {
+        if (snapshotPath == null) return; // saving disabled
+        try {
+            SnapshotFile.write(snapshot, snapshotPath);
+        } catch (Exception e) {
+            LOG.warn("Could not save snapshot {} to {}: {}", snapshot.getVersion(), snapshotPath, e.toString());
+        }
+    }
+}
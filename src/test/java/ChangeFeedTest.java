@@ -0,0 +1,207 @@
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import project.object.Fleet;
+import project.object.Jukebox;
+import project.service.ChangeFeed;
+import project.service.ComponentChange;
+import project.service.CompatibilityDelta;
+import project.service.JukeboxAPI;
+import project.service.Snapshot;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This is a test class for {@link CompatibilityDelta} and {@link ChangeFeed}. It compares the changes found between random offline databases
+ * with the settings of every Jukebox before and after, and checks what every subscriber receives.
+ * @author Shuzhao Feng
+ */
+class ChangeFeedTest {
+    /**
+     * A subscriber keeping the events it receives.
+     * @author Shuzhao Feng
+     */
+    static class Recorder implements ChangeFeed.Sink {
+        final ArrayList<String> names = new ArrayList<>();
+        final ArrayList<JsonObject> events = new ArrayList<>();
+        boolean broken; // the subscriber cannot be reached
+        int pings;
+        @Override
+        public void send(String name, long version, byte[] data) throws IOException {
+            if (broken) throw new IOException("Gone");
+            String event = new String(data, StandardCharsets.UTF_8);
+            assertFalse(event.contains("\n")); // a single line
+            JsonObject json = JsonParser.parseString(event).getAsJsonObject();
+            assertEquals(version, json.get("version").getAsLong());
+            names.add(name);
+            events.add(json);
+        }
+        @Override
+        public void ping() throws IOException {
+            if (broken) throw new IOException("Gone");
+            pings++;
+        }
+    }
+    /**
+     * This method finds the settings gained and lost by every Jukebox, by comparing the settings of every Jukebox in both snapshots.
+     * @author Shuzhao Feng
+     */
+    static LinkedHashMap<String, List<List<String>>> expected(Snapshot before, Snapshot after){
+        LinkedHashMap<String, List<List<String>>> out = new LinkedHashMap<>(); // ID -> gained, lost
+        for (int row = 0; row < after.getFleet().size(); row++){
+            int old = before.getIndex().row(after.getFleet().getId(row));
+            List<String> was = old < 0 ? List.of() : SupportedSettingsTest.expected(before, old), is = SupportedSettingsTest.expected(after, row);
+            ArrayList<String> gained = new ArrayList<>(is), lost = new ArrayList<>(was);
+            gained.removeAll(was);
+            lost.removeAll(is);
+            if (!gained.isEmpty() || !lost.isEmpty()) out.put(after.getFleet().getId(row), List.of(gained, lost));
+        }
+        for (int row = 0; row < before.getFleet().size(); row++){
+            if (after.getIndex().row(before.getFleet().getId(row)) >= 0) continue;
+            List<String> was = SupportedSettingsTest.expected(before, row);
+            if (!was.isEmpty()) out.put(before.getFleet().getId(row), List.of(List.of(), was));
+        }
+        return out;
+    }
+    /**
+     * This method converts the changes found to the form of {@link ChangeFeedTest#expected(Snapshot, Snapshot)}.
+     * @author Shuzhao Feng
+     */
+    static LinkedHashMap<String, List<List<String>>> found(CompatibilityDelta delta){
+        LinkedHashMap<String, List<List<String>>> out = new LinkedHashMap<>();
+        for (CompatibilityDelta.Change change : delta.getChanges()) out.put(change.id(), List.of(change.gained(), change.lost()));
+        return out;
+    }
+    /**
+     * This method reads the settings gained or lost by the only Jukebox of an event.
+     * @author Shuzhao Feng
+     */
+    static List<String> settings(JsonObject event, String field){
+        ArrayList<String> out = new ArrayList<>();
+        for (JsonElement e : event.getAsJsonArray("changes").get(0).getAsJsonObject().getAsJsonArray(field)) out.add(e.getAsString());
+        return out;
+    }
+    /**
+     * Test the changes between a snapshot and its patched versions, before and after the fleet is compacted.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void patch(){
+        Random random = new Random(42);
+        JukeboxAPI juke = new JukeboxAPI(FleetIndexTest.settings(random), SnapshotFileTest.boxes(random, 3000));
+        ArrayList<ComponentChange> changes = new ArrayList<>();
+        for (int i = 0; i < 50; i++){
+            ArrayList<String> components = new ArrayList<>();
+            for (int j = random.nextInt(5); j > 0; j--) components.add(FleetIndexTest.COMPONENTS[random.nextInt(FleetIndexTest.COMPONENTS.length)]);
+            changes.add(new ComponentChange("id" + random.nextInt(3000), components, null, null));
+        }
+        JukeboxAPI.Patch patch = juke.patch(changes);
+        CompatibilityDelta delta = CompatibilityDelta.of(patch.before(), patch.after());
+        assertEquals(patch.before().getVersion(), delta.getBefore());
+        assertEquals(patch.after().getVersion(), delta.getAfter());
+        assertFalse(delta.isEmpty());
+        assertEquals(expected(patch.before(), patch.after()), found(delta));
+        assertTrue(CompatibilityDelta.of(patch.after(), patch.after()).isEmpty());
+        Snapshot compacted = new Snapshot(patch.after().getSettings(), patch.after().getFleet().compact()); // same rows, other bitmaps
+        assertTrue(CompatibilityDelta.of(patch.after(), compacted).isEmpty());
+        assertEquals(expected(compacted, patch.before()), found(CompatibilityDelta.of(compacted, patch.before())));
+    }
+    /**
+     * Test the changes between two loads of a feed where Jukeboxes moved, were added or removed, and where the settings changed.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void reload(){
+        Random random = new Random(7);
+        ArrayList<Jukebox> boxes = SnapshotFileTest.boxes(random, 3000);
+        Snapshot before = new Snapshot(FleetIndexTest.settings(random), boxes);
+        ArrayList<Jukebox> next = new ArrayList<>(boxes.subList(100, 3000)); // 100 removed
+        for (int i = 0; i < 200; i++){ // 200 changed
+            int k = random.nextInt(next.size());
+            next.set(k, new Jukebox(next.get(k).getId(), next.get(k).getModel(), new ArrayList<>(List.of("pcb", "camera"))));
+        }
+        next.addAll(SnapshotFileTest.boxes(random, 3100).subList(3000, 3100)); // 100 added
+        Collections.shuffle(next, random);
+        Snapshot after = new Snapshot(before.getSettings(), Fleet.of(next));
+        assertEquals(expected(before, after), found(CompatibilityDelta.of(before, after)));
+        Snapshot resettled = new Snapshot(FleetIndexTest.settings(random), Fleet.of(next)); // other requirements, same Jukeboxes
+        assertEquals(expected(after, resettled), found(CompatibilityDelta.of(after, resettled)));
+        assertEquals(expected(Snapshot.empty(), before), found(CompatibilityDelta.of(Snapshot.empty(), before))); // everything gained
+    }
+    /**
+     * Test that every subscriber receives the current version, then the changes it asked for only, and that subscribers gone are dropped.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void subscribers(){
+        Random random = new Random(3);
+        JukeboxAPI juke = new JukeboxAPI(FleetIndexTest.settings(random), SnapshotFileTest.boxes(random, 1000));
+        ChangeFeed feed = new ChangeFeed(juke, Runnable::run); // events are sent before the swap returns
+        Snapshot first = juke.getSnapshot();
+        String setting = first.getSettings().getSettings().keySet().iterator().next();
+        int row = first.getCompatibility(setting).nextSetBit(0);
+        String id = first.getFleet().getId(row), model = first.getFleet().get(row).getModel();
+        Recorder all = new Recorder(), device = new Recorder(), other = new Recorder(), bySetting = new Recorder(), byModel = new Recorder(), gone = new Recorder();
+        Recorder byMixedCase = new Recorder();
+        feed.subscribe(null, null, null, all);
+        ChangeFeed.Subscription subscription = feed.subscribe(List.of(id, "Not a valid ID"), null, null, device);
+        feed.subscribe(List.of(first.getFleet().getId(row == 0 ? 1 : 0)), List.of(), null, other);
+        feed.subscribe(null, null, List.of(setting), bySetting);
+        feed.subscribe(null, List.of(model), null, byModel);
+        feed.subscribe(null, List.of(" " + model.toUpperCase(Locale.ROOT)), null, byMixedCase); // as typed by a user, like /api?model=
+        feed.subscribe(null, null, null, gone);
+        assertEquals(7, feed.getSubscribers());
+        for (Recorder recorder : List.of(all, device, other, bySetting, byModel, byMixedCase, gone)){
+            assertEquals(List.of("version"), recorder.names);
+            assertEquals(first.getVersion(), recorder.events.get(0).get("version").getAsLong());
+        }
+        gone.broken = true;
+        juke.patch(List.of(new ComponentChange(id, List.of(), null, null))); // no component, every setting lost
+        Snapshot second = juke.getSnapshot();
+        assertEquals(6, feed.getSubscribers()); // gone is dropped
+        assertEquals(List.of("version", "changes"), device.names);
+        JsonObject event = device.events.get(1);
+        assertEquals(first.getVersion(), event.get("previous").getAsLong());
+        assertEquals(second.getVersion(), event.get("version").getAsLong());
+        JsonArray changes = event.getAsJsonArray("changes");
+        assertEquals(1, changes.size());
+        JsonObject change = changes.get(0).getAsJsonObject();
+        assertEquals(id, change.get("id").getAsString());
+        assertEquals(model, change.get("model").getAsString());
+        assertEquals(0, change.getAsJsonArray("gained").size());
+        List<String> lost = settings(event, "lost");
+        assertEquals(SupportedSettingsTest.expected(first, row), lost);
+        assertEquals(event, all.events.get(1));
+        assertEquals(event, byModel.events.get(1));
+        assertEquals(event, byMixedCase.events.get(1));
+        assertEquals(List.of("version"), other.names); // another Jukebox
+        assertEquals(List.of(setting), List.of(bySetting.events.get(1).getAsJsonArray("changes").get(0).getAsJsonObject()
+                .getAsJsonArray("lost").get(0).getAsString())); // this setting only
+        juke.patch(List.of(new ComponentChange(id, List.of(), null, null))); // a new version, but nothing changes
+        assertEquals(2, all.events.size());
+        feed.unsubscribe(subscription);
+        feed.unsubscribe(subscription); // already removed
+        juke.patch(List.of(new ComponentChange(id, first.getFleet().get(row).getComponents(), null, null))); // every setting back
+        assertEquals(2, device.events.size());
+        assertEquals(3, all.events.size());
+        assertEquals(second.getVersion(), all.events.get(2).get("previous").getAsLong()); // the last event this subscriber received
+        assertEquals(juke.getVersion(), all.events.get(2).get("version").getAsLong());
+        assertEquals(lost, settings(all.events.get(2), "gained"));
+        feed.heartbeat();
+        assertEquals(1, all.pings);
+        all.broken = true;
+        feed.heartbeat();
+        assertEquals(4, feed.getSubscribers());
+        assertEquals(7 + 5 + 4, feed.getEvents()); // heartbeats excluded, and events not sent
+    }
+}
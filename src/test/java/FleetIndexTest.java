@@ -0,0 +1,181 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import project.object.Fleet;
+import project.object.Jukebox;
+import project.service.FleetIndex;
+import project.service.JukeboxAPI;
+import project.service.SettingsAPI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This is a test class for {@link FleetIndex}. It works on a random offline database,
+ * and compares every indexed search with a plain scan of the same database.
+ * @author Shuzhao Feng
+ */
+class FleetIndexTest {
+    static final String[] COMPONENTS = new String[]{"led_panel", "amplifier", "pcb", "money_receiver", "touchscreen", "camera", "speaker"};
+    ArrayList<Jukebox> boxes;
+    FleetIndex index;
+    /**
+     * Create a new random database before each independent test.
+     * @author Shuzhao Feng
+     */
+    @BeforeEach
+    void set(){
+        Random random = new Random(42); // fixed seed, so that failures can be reproduced
+        this.boxes = new ArrayList<>();
+        for (int i = 0; i < 2000; i++){
+            ArrayList<String> comps = new ArrayList<>();
+            int n = random.nextInt(6);
+            for (int j = 0; j < n; j++){ // add up to 5 random components, repetitions allowed
+                comps.add(COMPONENTS[random.nextInt(COMPONENTS.length)]);
+            }
+            boxes.add(new Jukebox("id" + i, "model" + random.nextInt(4), comps));
+        }
+        this.index = new FleetIndex(Fleet.of(boxes));
+    }
+    /**
+     * This method finds matching rows by scanning every Jukebox, used as a reference.
+     * @author Shuzhao Feng
+     */
+    int[] scan(Map<String, Integer> whatWeNeed){
+        ArrayList<Integer> out = new ArrayList<>();
+        for (int row = 0; row < boxes.size(); row++){
+            HashMap<String, Integer> whatWeHave = boxes.get(row).getHashedComponents();
+            boolean valid = true;
+            for (Map.Entry<String, Integer> e : whatWeNeed.entrySet()){
+                if (whatWeHave.getOrDefault(e.getKey(), 0) < e.getValue()) valid = false;
+            }
+            if (valid) out.add(row);
+        }
+        return out.stream().mapToInt(Integer::intValue).toArray();
+    }
+    /**
+     * Test posting list counts against the database.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void counts(){
+        assertEquals(boxes.size(), index.size());
+        assertEquals(0, index.count("This is not a component", 1));
+        for (String comp : COMPONENTS){
+            for (int need = 1; need <= 3; need++){
+                assertEquals(scan(Map.of(comp, need)).length, index.count(comp, need));
+            }
+        }
+    }
+    /**
+     * Test random requirements against a plain scan.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void match(){
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++){
+            HashMap<String, Integer> whatWeNeed = new HashMap<>();
+            int n = 1 + random.nextInt(3);
+            for (int j = 0; j < n; j++){ // requirements of 1 to 3 components, 1 to 2 of each
+                whatWeNeed.put(COMPONENTS[random.nextInt(COMPONENTS.length)], 1 + random.nextInt(2));
+            }
+            assertArrayEquals(scan(whatWeNeed), index.match(whatWeNeed));
+        }
+        assertEquals(0, index.match(Map.of("pcb", 99)).length); // no jukebox has 99 PCBs
+        assertEquals(0, index.match(new HashMap<>()).length); // input is empty
+        assertNull(index.toJukeboxes(new int[0])); // no result means null
+    }
+    /**
+     * Test ID and model lookups against a plain scan.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void idsAndModels(){
+        JukeboxAPI juke = new JukeboxAPI(settings(new Random(3)), boxes);
+        for (int row = 0; row < boxes.size(); row += 97){
+            assertEquals(boxes.get(row), juke.filterById(boxes.get(row).getId())); // a view over the same row
+            assertEquals(row, index.row(boxes.get(row).getId()));
+        }
+        assertEquals(-1, index.row("Not a valid ID"));
+        assertNull(juke.filterById("Not a valid ID")); // invalid id
+        assertEquals(List.of(boxes.get(5), boxes.get(3)), juke.filterById(new ArrayList<>(List.of("id5", "nope", "id3")))); // keep the order of the IDs
+        ArrayList<Jukebox> expected = new ArrayList<>();
+        for (String model : List.of("model2", "model0")){
+            for (Jukebox box : boxes){
+                if (box.getModel().equals(model)) expected.add(box);
+            }
+        }
+        assertEquals(expected, juke.filterByModel(new ArrayList<>(List.of("model2", "model0"))));
+        assertNull(juke.filterByModel("Not a valid model")); // invalid model
+        assertNull(juke.filterByModel(new ArrayList<>(List.of("how", "about", "models")))); // invalid models
+    }
+    /**
+     * This method creates a few random settings, each requiring 1 to 3 components.
+     * @author Shuzhao Feng
+     */
+    static SettingsAPI settings(Random random){
+        HashMap<String, ArrayList<String>> arr = new HashMap<>();
+        for (int i = 0; i < 8; i++){
+            ArrayList<String> requires = new ArrayList<>();
+            int n = 1 + random.nextInt(3);
+            for (int j = 0; j < n; j++){
+                requires.add(COMPONENTS[random.nextInt(COMPONENTS.length)]);
+            }
+            arr.put("setting" + i, requires);
+        }
+        return new SettingsAPI(arr);
+    }
+    /**
+     * Test precomputed setting bitmaps against a plain scan.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void settingBitmaps(){
+        SettingsAPI set = settings(new Random(3));
+        JukeboxAPI juke = new JukeboxAPI(set, boxes);
+        assertNull(juke.settingId("Not a valid setting ID")); // invalid setting id
+        for (String id : set.getSettings().keySet()){
+            int[] expected = scan(set.getHashedRequires(id));
+            assertEquals(index.toJukeboxes(expected), juke.settingId(id));
+            ArrayList<Jukebox> models = juke.filterByModel("model1");
+            ArrayList<Jukebox> both = new ArrayList<>(); // expected result of model1 AND setting
+            for (int row : expected){
+                if (boxes.get(row).getModel().equals("model1")) both.add(boxes.get(row));
+            }
+            assertEquals(both.isEmpty() ? null : both, juke.filterBySetting(models, id));
+        }
+        assertNull(juke.filterBySetting(null, "setting0")); // nothing to filter
+        assertNull(juke.filterBySetting(boxes, "Not a valid setting ID")); // invalid setting id
+    }
+    /**
+     * Test that requirements differing only by case are counted as one component by the bitmaps, the index,
+     * the requirement vectors and a plain scan alike.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void mixedCase(){
+        HashMap<String, ArrayList<String>> arr = new HashMap<>();
+        arr.put("mixed", new ArrayList<>(List.of("PCB", "pcb", " Camera")));
+        arr.put("upper", new ArrayList<>(List.of("SPEAKER")));
+        SettingsAPI set = new SettingsAPI(arr);
+        assertEquals(Map.of("pcb", 2, "camera", 1), set.getHashedRequires("mixed"));
+        JukeboxAPI juke = new JukeboxAPI(set, boxes);
+        for (String id : arr.keySet()){
+            int[] expected = scan(set.getHashedRequires(id));
+            assertTrue(expected.length > 0);
+            assertEquals(index.toJukeboxes(expected), juke.settingId(id)); // bitmap == scan
+            assertArrayEquals(expected, index.match(set.getHashedRequires(id)));
+            for (int row = 0; row < boxes.size(); row++){
+                assertEquals(Arrays.binarySearch(expected, row) >= 0, juke.getSnapshot().getSupported(row).contains(id));
+            }
+        }
+        HashMap<String, Integer> raw = new HashMap<>();
+        raw.put("PCB", 1);
+        raw.put("pcb", 2);
+        assertArrayEquals(scan(Map.of("pcb", 2)), index.match(raw)); // the same component, both counts must be met
+    }
+}
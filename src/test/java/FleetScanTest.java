@@ -0,0 +1,55 @@
+import org.junit.jupiter.api.Test;
+import project.object.Fleet;
+import project.object.NameDictionary;
+import project.service.FleetScan;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This is a test class for {@link FleetScan}. It compares parallel scans with a serial loop.
+ * How they scale is measured by project.bench.ScanBenchmark.
+ * @author Shuzhao Feng
+ */
+class FleetScanTest {
+    /**
+     * This method creates a random fleet of the given size, directly as component numbers.
+     * @author Shuzhao Feng
+     */
+    static Fleet fleet(Random random, int n){
+        int[] names = new int[FleetIndexTest.COMPONENTS.length];
+        for (int i = 0; i < names.length; i++) names[i] = NameDictionary.encode(FleetIndexTest.COMPONENTS[i]);
+        int model = NameDictionary.encode("model0");
+        Fleet.Builder builder = new Fleet.Builder();
+        for (int i = 0; i < n; i++){
+            int[] comps = new int[random.nextInt(6)];
+            for (int j = 0; j < comps.length; j++) comps[j] = names[random.nextInt(names.length)];
+            builder.add("id" + i, model, comps);
+        }
+        return builder.build();
+    }
+    /**
+     * Test that scans and filters keep the same rows in the same order, whatever the parallelism and the size.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void order(){
+        Fleet fleet = fleet(new Random(42), 200_000);
+        int pcb = NameDictionary.find("pcb");
+        IntPredicate test = row -> fleet.count(row, pcb) >= 2;
+        int[] expected = IntStream.range(0, fleet.size()).filter(test).toArray();
+        int[] candidates = IntStream.range(0, fleet.size()).filter(row -> row % 3 != 0).toArray();
+        int[] filtered = IntStream.of(candidates).filter(test).toArray();
+        for (int parallelism : new int[]{1, 2, 4, 16}){
+            try (FleetScan scan = new FleetScan(parallelism, 0)){
+                assertEquals(parallelism, scan.getParallelism());
+                assertArrayEquals(expected, scan.scan(fleet.size(), test));
+                assertArrayEquals(filtered, scan.filter(candidates, test));
+                assertArrayEquals(new int[]{7}, scan.filter(new int[]{7}, row -> true)); // below the threshold
+                assertEquals(0, scan.scan(0, row -> true).length);
+                assertEquals(0, scan.scan(fleet.size(), row -> false).length);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.Test;
+import project.object.Fleet;
+import project.object.Jukebox;
+import project.object.NameDictionary;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This is a test class for {@link Fleet}, {@link NameDictionary} and the {@link Jukebox} views over a fleet.
+ * @author Shuzhao Feng
+ */
+class FleetTest {
+    /**
+     * Test that names are normalized and numbered once, and that views read their row back in feed order.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void columns(){
+        Fleet fleet = new Fleet.Builder()
+                .add("a", "Fusion", List.of("pcb", " PCB", "camera", "pcb"))
+                .add("b", "fusion ", List.of())
+                .add("c", "virtuo", List.of("speaker"))
+                .build();
+        assertEquals(3, fleet.size());
+        assertEquals(fleet.getModel(0), fleet.getModel(1)); // same model once normalized
+        assertEquals(NameDictionary.find("FUSION"), fleet.getModel(0));
+        assertEquals(-1, NameDictionary.find("This is not a component"));
+        int pcb = NameDictionary.find("pcb");
+        assertEquals(3, fleet.count(0, pcb));
+        assertEquals(0, fleet.count(1, pcb));
+        assertEquals(2, fleet.distinct(0));
+        Jukebox box = fleet.get(0);
+        assertEquals(List.of("pcb", "pcb", "camera", "pcb"), box.getComponents()); // feed order
+        assertEquals("fusion", box.getModel());
+        assertEquals(3, box.countComponent("pcb"));
+        assertEquals("camera", box.getComponent(" Camera"));
+        assertNull(box.getComponent("speaker"));
+        assertEquals(box, fleet.get(0)); // two views over the same row
+        assertEquals(box, new Jukebox("a", "fusion", new ArrayList<>(List.of("pcb", "pcb", "camera", "pcb"))));
+        assertNotEquals(box, fleet.get(1));
+        assertEquals(List.of(fleet.get(0), fleet.get(1), fleet.get(2)), fleet.asList());
+    }
+    /**
+     * Test that upgrading a Jukebox copies it, and never changes the fleet it was read from.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void upgrade(){
+        Fleet fleet = new Fleet.Builder().add("a", "fusion", List.of("pcb")).build();
+        Jukebox box = fleet.get(0);
+        assertEquals("touchscreen", box.addComponent(" Touchscreen "));
+        assertEquals(List.of("pcb", "touchscreen"), box.getComponents());
+        assertNotSame(fleet, box.getFleet());
+        assertEquals(List.of("pcb"), fleet.get(0).getComponents()); // the fleet did not change
+        assertEquals("pcb", box.removeComponent("pcb"));
+        assertEquals(List.of("touchscreen"), box.getComponents());
+        assertNull(box.removeComponent("pcb"));
+    }
+}
@@ -3,6 +3,8 @@ import org.junit.jupiter.api.Test;
 import project.object.Jukebox;
 import project.service.JukeboxAPI;
 import project.service.SettingsAPI;
+import project.service.Snapshot;
+import project.service.SnapshotLoader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -18,14 +20,15 @@ class JUnitTest {
     JukeboxAPI juke;
     SettingsAPI set;
     /**
-     * Create a new database before each independent test.
-     * @throws IOException might occur when reading files online
+     * Create a new database before each independent test, from a local copy of the feeds in the test resources.
+     * @throws IOException might occur when reading files
      * @author Shuzhao Feng
      */
     @BeforeEach
     void set() throws IOException{
-        this.juke = new JukeboxAPI();
-        this.set = new SettingsAPI();
+        Snapshot snapshot = SnapshotLoader.load(getClass().getResource("/jukes.json"), getClass().getResource("/settings.json"));
+        this.juke = new JukeboxAPI(snapshot);
+        this.set = snapshot.getSettings();
     }
     /**
      * Test databases set up conditions.
@@ -0,0 +1,87 @@
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import project.query.Query;
+import project.query.QueryCache;
+import project.query.QueryEngine;
+import project.query.QueryResult;
+import project.service.JukeboxAPI;
+import project.service.Snapshot;
+import project.service.SnapshotLoader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This is a test class for the metrics of the application. It measures an offline database in a {@link SimpleMeterRegistry}.
+ * @author Shuzhao Feng
+ */
+class MetricsTest {
+    /**
+     * Test that queries are timed by shape and by stage, and that their result sizes are recorded.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void query(){
+        Random random = new Random(42);
+        JukeboxAPI api = new JukeboxAPI(new Snapshot(FleetIndexTest.settings(random), SnapshotFileTest.boxes(random, 2000)));
+        MeterRegistry registry = new SimpleMeterRegistry();
+        QueryEngine engine = new QueryEngine(api, registry);
+        QueryResult result = engine.run(new Query(null, new String[]{"model1"}, null, new String[]{"pcb"}, null, null));
+        engine.run(new Query(null, null, null, null, null, null));
+        engine.run(List.of(new Query(new String[]{"id1"}, null, null, null, null, null), new Query(new String[]{"id1"}, null, null, null, null, null)), api.getSnapshot());
+        assertEquals(1, registry.get("jukebox.query").tag("shape", "component+model").timer().count());
+        assertEquals(1, registry.get("jukebox.query").tag("shape", "all").timer().count());
+        assertEquals(2, registry.get("jukebox.query").tag("shape", "id").timer().count()); // the second one shares the result of the first
+        assertEquals(result.size(), registry.get("jukebox.query.results").tag("shape", "component+model").summary().totalAmount());
+        assertEquals(2000, registry.get("jukebox.query.results").tag("shape", "all").summary().totalAmount());
+        assertEquals(2, registry.get("jukebox.query.stage").tag("step", "plan").tag("predicate", "none").timer().count());
+        assertEquals(1, registry.get("jukebox.query.stage").tag("step", "index").tag("predicate", "id").timer().count());
+        assertEquals(1, registry.get("jukebox.query.stage").tag("step", "filter").timers().stream().mapToLong(t -> t.count()).sum());
+    }
+    /**
+     * Test that the gauges of the snapshot and the cache read their current values when scraped.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void gauges(){
+        Random random = new Random(7);
+        JukeboxAPI api = new JukeboxAPI(new Snapshot(FleetIndexTest.settings(random), SnapshotFileTest.boxes(random, 100)));
+        QueryCache cache = new QueryCache(1000);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        api.bindTo(registry);
+        cache.bindTo(registry);
+        assertEquals(100, registry.get("jukebox.snapshot.jukeboxes").gauge().value());
+        assertEquals(api.getVersion(), registry.get("jukebox.snapshot.version").gauge().value());
+        assertTrue(registry.get("jukebox.snapshot.age").gauge().value() >= 0);
+        api.swap(Snapshot.empty());
+        assertEquals(0, registry.get("jukebox.snapshot.jukeboxes").gauge().value()); // follows the swap
+        Query query = new Query(null, null, null, null, null, null);
+        assertNull(cache.get(query, 1));
+        cache.put(query, 1, new byte[10]);
+        assertNotNull(cache.get(query, 1));
+        assertEquals(1, registry.get("jukebox.cache.hits").functionCounter().count());
+        assertEquals(1, registry.get("jukebox.cache.misses").functionCounter().count());
+        assertEquals(10, registry.get("jukebox.cache.weight").gauge().value());
+    }
+    /**
+     * Test that feed loads are timed by outcome and that the feed sizes are recorded.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void load() throws IOException {
+        String jukes = getClass().getResource("/jukes.json").toString(), settings = getClass().getResource("/settings.json").toString();
+        MeterRegistry registry = new SimpleMeterRegistry();
+        JukeboxAPI api = new JukeboxAPI();
+        assertTrue(new SnapshotLoader(api, registry, jukes, settings, "").refresh());
+        assertFalse(new SnapshotLoader(api, registry, jukes + ".missing", settings, "").refresh());
+        assertEquals(1, registry.get("jukebox.feed.load").tag("outcome", "success").timer().count());
+        assertEquals(1, registry.get("jukebox.feed.load").tag("outcome", "failure").timer().count());
+        try (InputStream input = getClass().getResourceAsStream("/jukes.json")){
+            assertEquals(input.readAllBytes().length, registry.get("jukebox.feed.size").tag("feed", "jukes").summary().totalAmount());
+        }
+        assertEquals(2, registry.get("jukebox.feed.size").tag("feed", "settings").summary().count()); // read before the missing feed
+    }
+}
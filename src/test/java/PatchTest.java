@@ -0,0 +1,206 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import project.object.Fleet;
+import project.object.Jukebox;
+import project.object.NameDictionary;
+import project.query.Query;
+import project.query.QueryCache;
+import project.service.ComponentChange;
+import project.service.JukeboxAPI;
+import project.service.Snapshot;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This is a test class for {@link JukeboxAPI#patch(List)}. It patches a random offline database,
+ * and compares every patched snapshot with a snapshot built from scratch over the same Jukeboxes.
+ * @author Shuzhao Feng
+ */
+class PatchTest {
+    ArrayList<Jukebox> boxes;
+    JukeboxAPI juke;
+    /**
+     * Create a new random database before each independent test.
+     * @author Shuzhao Feng
+     */
+    @BeforeEach
+    void set(){
+        Random random = new Random(42);
+        this.boxes = SnapshotFileTest.boxes(random, 2000);
+        this.juke = new JukeboxAPI(FleetIndexTest.settings(random), boxes);
+    }
+    /**
+     * This method creates random changes of random Jukeboxes, using a component that is not in the database yet.
+     * @author Shuzhao Feng
+     */
+    static List<ComponentChange> changes(Random random, int n){
+        ArrayList<ComponentChange> out = new ArrayList<>();
+        String[] names = new String[]{"pcb", "camera", "speaker", " Subwoofer"};
+        for (int i = 0; i < n; i++){
+            String id = "id" + random.nextInt(2000), name = names[random.nextInt(names.length)];
+            out.add(switch (random.nextInt(3)){
+                case 0 -> new ComponentChange(id, List.of(name, name), null, null);
+                case 1 -> new ComponentChange(id, null, List.of(name), null);
+                default -> new ComponentChange(id, null, List.of(name), List.of("pcb", "camera"));
+            });
+        }
+        return out;
+    }
+    /**
+     * This method checks a patched snapshot against a snapshot built from scratch.
+     * @author Shuzhao Feng
+     */
+    static void assertRebuilt(Snapshot patched){
+        Snapshot rebuilt = new Snapshot(patched.getSettings(), Fleet.of(patched.getJukeboxes()));
+        for (String name : List.of("pcb", "camera", "speaker", "subwoofer", "amplifier")){
+            for (int need = 1; need <= 3; need++){
+                assertEquals(rebuilt.getIndex().count(name, need), patched.getIndex().count(name, need));
+                HashMap<String, Integer> whatWeNeed = new HashMap<>();
+                whatWeNeed.put(name, need);
+                assertArrayEquals(rebuilt.getIndex().match(whatWeNeed), patched.getIndex().match(whatWeNeed));
+                whatWeNeed.put("speaker", 1);
+                assertArrayEquals(rebuilt.getIndex().match(whatWeNeed), patched.getIndex().match(whatWeNeed));
+            }
+        }
+        for (String id : patched.getSettings().getSettings().keySet()){
+            assertEquals(rebuilt.getCompatibility(id), patched.getCompatibility(id));
+        }
+        assertEquals(rebuilt.getIndex().row("id1999"), patched.getIndex().row("id1999"));
+    }
+    /**
+     * Test that several rounds of patches give the same indexes and bitmaps as a full rebuild,
+     * and that the previous snapshots never change.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void consistency(){
+        Random random = new Random(7);
+        Snapshot first = juke.getSnapshot();
+        for (int round = 0; round < 20; round++){
+            JukeboxAPI.Patch patch = juke.patch(changes(random, 1 + random.nextInt(40)));
+            assertSame(patch.after(), juke.getSnapshot());
+            assertTrue(patch.after().getVersion() > patch.before().getVersion());
+            assertRebuilt(patch.after());
+        }
+        assertEquals(boxes, first.getJukeboxes()); // readers of the first snapshot still see the original data
+        assertTrue(juke.getSnapshot().getFleet().getPatchedRows().length > 0); // patched in place, not rebuilt
+        juke.patch(List.of(new ComponentChange("id3", List.of(" PCB ", "pcb"), null, null)));
+        assertEquals(List.of("pcb", "pcb"), juke.filterById("id3").getComponents());
+        juke.patch(List.of(new ComponentChange("id3", null, List.of("camera"), List.of("Pcb", "speaker"))));
+        assertEquals(List.of("pcb", "camera"), juke.filterById("id3").getComponents());
+    }
+    /**
+     * Test that a fleet patched too much is compacted.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void compaction(){
+        ArrayList<ComponentChange> changes = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) changes.add(new ComponentChange("id" + i, List.of("speaker"), null, null));
+        Snapshot after = juke.patch(changes).after();
+        assertEquals(0, after.getFleet().getPatchedRows().length);
+        assertRebuilt(after);
+        assertEquals(List.of("speaker"), juke.filterById("id1499").getComponents());
+    }
+    /**
+     * Test that a batch with an unknown Jukebox, an invalid change or too many new names changes nothing, not even the dictionary,
+     * and that repeated patches stop growing the dictionary once the names they may add run out.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void invalid(){
+        long version = juke.getVersion();
+        assertThrows(NoSuchElementException.class, () -> juke.patch(List.of(new ComponentChange("id1", null, List.of("pcb"), null),
+                new ComponentChange("Not a valid ID", null, List.of("pcb"), null))));
+        assertThrows(IllegalArgumentException.class, () -> juke.patch(List.of(new ComponentChange("id1", null, List.of(" "), null))));
+        assertThrows(IllegalArgumentException.class, () -> juke.patch(List.of(new ComponentChange("id1", null, List.of("x".repeat(ComponentChange.MAX_NAME + 1)), null))));
+        int names = NameDictionary.size();
+        ArrayList<String> fresh = new ArrayList<>();
+        for (int i = 0; i <= JukeboxAPI.MAX_NEW_NAMES; i++) fresh.add("Unknown part " + i);
+        assertThrows(IllegalArgumentException.class, () -> juke.patch(List.of(new ComponentChange("id1", fresh.subList(0, 8), null, null),
+                new ComponentChange("id2", null, fresh.subList(8, fresh.size()), null))));
+        assertEquals(names, NameDictionary.size());
+        assertEquals(version, juke.getVersion());
+        assertEquals(boxes.get(1), juke.filterById("id1"));
+        juke.patch(List.of(new ComponentChange("id1", fresh.subList(0, JukeboxAPI.MAX_NEW_NAMES), null, null))); // enough room
+        assertEquals(names + JukeboxAPI.MAX_NEW_NAMES, NameDictionary.size());
+        juke.patch(List.of(new ComponentChange("id3", List.of("subwoofer"), null, null))); // known before the names run out, other tests patch it in
+        names = NameDictionary.size();
+        int patched = JukeboxAPI.getPatchedNames();
+        juke.patch(List.of(new ComponentChange("id2", List.of("Spare part", "SPARE PART"), null, List.of()),
+                new ComponentChange("id4", null, List.of(" spare part"), null))); // one name, whatever the case
+        assertEquals(names + 1, NameDictionary.size());
+        assertEquals(patched + 1, JukeboxAPI.getPatchedNames());
+        int rounds = 0;
+        IllegalArgumentException refused = null;
+        while (refused == null){ // a client patching new names again and again
+            ArrayList<String> more = new ArrayList<>();
+            for (int i = 0; i < JukeboxAPI.MAX_NEW_NAMES; i++) more.add("Part " + rounds + "-" + i);
+            try {
+                juke.patch(List.of(new ComponentChange("id5", more, null, null)));
+                rounds++;
+            } catch (IllegalArgumentException e){
+                refused = e;
+            }
+            assertTrue(rounds <= JukeboxAPI.MAX_PATCHED_NAMES / JukeboxAPI.MAX_NEW_NAMES);
+        }
+        int left = JukeboxAPI.MAX_PATCHED_NAMES - JukeboxAPI.getPatchedNames(); // fewer than a whole patch
+        assertTrue(left < JukeboxAPI.MAX_NEW_NAMES);
+        ArrayList<String> last = new ArrayList<>();
+        for (int i = 0; i < left; i++) last.add("Last part " + i);
+        juke.patch(List.of(new ComponentChange("id5", last, null, null)));
+        assertEquals(JukeboxAPI.MAX_PATCHED_NAMES, JukeboxAPI.getPatchedNames());
+        names = NameDictionary.size();
+        version = juke.getVersion();
+        for (int i = 0; i < 10; i++){
+            String name = "Late part " + i;
+            assertThrows(IllegalArgumentException.class, () -> juke.patch(List.of(new ComponentChange("id6", List.of(name), null, null))));
+        }
+        assertEquals(names, NameDictionary.size()); // the dictionary stopped growing
+        assertEquals(version, juke.getVersion());
+        assertEquals(JukeboxAPI.MAX_PATCHED_NAMES, JukeboxAPI.getPatchedNames());
+        juke.patch(List.of(new ComponentChange("id6", List.of("pcb", "spare part"), null, null))); // known names are still accepted
+        assertEquals(List.of("pcb", "spare part"), juke.filterById("id6").getComponents());
+    }
+    /**
+     * Test that cached results the patch does not affect are carried over to the new version, and the others go stale.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void cache(){
+        QueryCache cache = new QueryCache(1 << 20);
+        Query byId = new Query(new String[]{"id5"}, null, null, null, null, null);
+        Query byComponent = new Query(null, null, null, new String[]{"subwoofer"}, null, null);
+        Query all = new Query(null, null, null, null, null, null);
+        Snapshot before = juke.getSnapshot();
+        for (Query query : List.of(byId, byComponent, all)) cache.put(query, before.getVersion(), new byte[]{1});
+        JukeboxAPI.Patch patch = juke.patch(List.of(new ComponentChange("id7", null, List.of("subwoofer"), null)));
+        assertEquals(1, cache.revalidate(patch.before(), patch.after(), patch.rows()));
+        long version = patch.after().getVersion();
+        assertNotNull(cache.get(byId, version)); // id7 is not part of the result
+        assertNull(cache.get(byComponent, version)); // id7 joined the result
+        assertNull(cache.get(all, version));
+    }
+    /**
+     * Test that patches are applied again to a snapshot loaded from an unchanged feed, and dropped once the feed changed.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void journal(){
+        Snapshot feed = juke.getSnapshot();
+        juke.patch(List.of(new ComponentChange("id1", List.of("subwoofer"), null, null), new ComponentChange("id2", List.of("subwoofer"), null, null)));
+        ArrayList<Jukebox> next = new ArrayList<>(feed.getJukeboxes());
+        next.set(2, new Jukebox("id2", next.get(2).getModel(), new ArrayList<>(List.of("camera")))); // the feed changed id2 meanwhile
+        juke.swap(new Snapshot(feed.getSettings(), next));
+        assertEquals(List.of("subwoofer"), juke.filterById("id1").getComponents());
+        assertEquals(List.of("camera"), juke.filterById("id2").getComponents());
+        assertRebuilt(juke.getSnapshot());
+        juke.swap(new Snapshot(feed.getSettings(), Fleet.of(juke.getJukeboxes()))); // the feed caught up with id1
+        juke.swap(feed); // then went back, the feed wins
+        assertEquals(boxes.get(1), juke.filterById("id1"));
+    }
+}
@@ -0,0 +1,304 @@
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import project.object.Jukebox;
+import project.query.Facets;
+import project.query.Query;
+import project.query.QueryCache;
+import project.query.QueryEngine;
+import project.query.QueryResult;
+import project.service.ComponentChange;
+import project.service.JukeboxAPI;
+import project.service.Snapshot;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This is a test class for {@link QueryEngine}. It works on a random offline database,
+ * and compares every planned query with the filters of {@link JukeboxAPI}.
+ * @author Shuzhao Feng
+ */
+class QueryEngineTest {
+    ArrayList<Jukebox> boxes;
+    JukeboxAPI juke;
+    QueryEngine engine;
+    /**
+     * Create a new random database before each independent test.
+     * @author Shuzhao Feng
+     */
+    @BeforeEach
+    void set(){
+        Random random = new Random(42);
+        this.boxes = new ArrayList<>();
+        for (int i = 0; i < 2000; i++){
+            ArrayList<String> comps = new ArrayList<>();
+            int n = random.nextInt(6);
+            for (int j = 0; j < n; j++){
+                comps.add(FleetIndexTest.COMPONENTS[random.nextInt(FleetIndexTest.COMPONENTS.length)]);
+            }
+            boxes.add(new Jukebox("id" + i, "model" + random.nextInt(4), comps));
+        }
+        this.juke = new JukeboxAPI(FleetIndexTest.settings(random), boxes);
+        this.engine = new QueryEngine(juke);
+    }
+    /**
+     * This method keeps the Jukeboxes of the database present in every non-null list, in database order.
+     * @author Shuzhao Feng
+     */
+    @SafeVarargs
+    final List<Jukebox> expected(ArrayList<Jukebox>... lists){
+        ArrayList<Jukebox> out = new ArrayList<>(boxes);
+        for (ArrayList<Jukebox> list : lists){
+            out = JukeboxAPI.filter(out, list == null ? new ArrayList<>() : list);
+        }
+        return out;
+    }
+    /**
+     * Test every combination of parameters against the filters.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void combinations(){
+        String[] ids = new String[]{"id7", "id1500", "id3", "id42", "nope", "id7"};
+        String[] models = new String[]{"model1", "model3"};
+        ArrayList<Jukebox> byId = juke.filterById(new ArrayList<>(List.of(ids)));
+        ArrayList<Jukebox> byModel = juke.filterByModel(new ArrayList<>(List.of(models)));
+        for (String sid : juke.getSettings().getSettings().keySet()){
+            ArrayList<Jukebox> bySetting = juke.settingId(sid);
+            assertEquals(expected(bySetting), engine.run(new Query(null, null, sid, null, null, null)).page());
+            assertEquals(expected(byModel, bySetting), engine.run(new Query(null, models, sid, null, null, null)).page());
+            assertEquals(expected(byId, bySetting), engine.run(new Query(ids, null, sid, null, null, null)).page());
+            assertEquals(expected(byId, byModel, bySetting), engine.run(new Query(ids, models, sid, null, null, null)).page());
+        }
+        assertEquals(expected(byId), engine.run(new Query(ids, null, null, null, null, null)).page());
+        assertEquals(expected(byModel), engine.run(new Query(null, models, null, null, null, null)).page());
+        assertEquals(expected(byId, byModel), engine.run(new Query(ids, models, null, null, null, null)).page());
+        assertEquals(boxes, engine.run(new Query(null, null, null, null, null, null)).page()); // no parameter, whole database
+        HashMap<String, Integer> whatWeNeed = new HashMap<>();
+        whatWeNeed.put("pcb", 2);
+        whatWeNeed.put("camera", 1);
+        assertEquals(expected(byModel, juke.filterByComponents(whatWeNeed)),
+                engine.run(new Query(null, models, null, new String[]{"pcb:2", "camera", "pcb"}, null, null)).page());
+        assertTrue(engine.run(new Query(null, null, "Not a valid setting ID", null, null, null)).page().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new Query(null, null, null, new String[]{"pcb:many"}, null, null));
+        assertThrows(IllegalArgumentException.class, () -> new Query(null, null, null, new String[]{"pcb:0"}, null, null));
+    }
+    /**
+     * Test queries on several settings, any or all of them, against the setting filters.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void settings(){
+        String[] models = new String[]{"model1", "model3"};
+        ArrayList<Jukebox> byModel = juke.filterByModel(new ArrayList<>(List.of(models)));
+        List<String> sids = new ArrayList<>(juke.getSettings().getSettings().keySet());
+        for (int i = 0; i + 1 < sids.size(); i++){
+            String[] pair = new String[]{sids.get(i), sids.get(i + 1)};
+            ArrayList<Jukebox> all = juke.filterBySetting(juke.settingId(pair[0]), pair[1]);
+            LinkedHashSet<Jukebox> any = new LinkedHashSet<>();
+            if (juke.settingId(pair[0]) != null) any.addAll(juke.settingId(pair[0]));
+            if (juke.settingId(pair[1]) != null) any.addAll(juke.settingId(pair[1]));
+            assertEquals(expected(all), engine.run(new Query(null, null, pair, null, null, null, null)).page()); // all by default
+            assertEquals(expected(all), engine.run(new Query(null, null, pair, "ALL", null, null, null)).page());
+            assertEquals(expected(byModel, all), engine.run(new Query(null, models, pair, "all", null, null, null)).page());
+            assertEquals(expected(new ArrayList<>(any)), engine.run(new Query(null, null, pair, "any", null, null, null)).page());
+            assertEquals(expected(byModel, new ArrayList<>(any)), engine.run(new Query(null, models, pair, "any", null, null, null)).page());
+        }
+        String[] unknown = new String[]{sids.get(0), "Not a valid setting ID"};
+        assertTrue(engine.run(new Query(null, null, unknown, "all", null, null, null)).page().isEmpty());
+        assertEquals(expected(juke.settingId(sids.get(0))), engine.run(new Query(null, null, unknown, "any", null, null, null)).page());
+        assertEquals(new Query(null, null, new String[]{sids.get(0)}, "any", null, null, null), new Query(null, null, sids.get(0), null, null, null));
+        assertThrows(IllegalArgumentException.class, () -> new Query(null, null, unknown, "some", null, null, null));
+    }
+    /**
+     * This method counts the facets of a list of Jukeboxes one by one.
+     * @author Shuzhao Feng
+     */
+    static TreeMap<String, TreeMap<String, Integer>> count(List<Jukebox> boxes, Snapshot snapshot){
+        TreeMap<String, TreeMap<String, Integer>> out = new TreeMap<>();
+        for (String facet : Facets.FACETS) out.put(facet, new TreeMap<>());
+        for (Jukebox box : boxes){
+            out.get("model").merge(box.getModel(), 1, Integer::sum);
+            for (String component : new TreeSet<>(box.getComponents())) out.get("component").merge(component, 1, Integer::sum);
+            for (String id : snapshot.getSettings().getSettings().keySet()){
+                if (snapshot.getCompatibility(id).get(box.getRow())) out.get("setting").merge(id, 1, Integer::sum);
+            }
+        }
+        return out;
+    }
+    /**
+     * Test facet counts of the whole database, read from the index, and of filtered results, before and after a patch.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void facets(){
+        String sid = juke.getSettings().getSettings().keySet().iterator().next();
+        for (int round = 0; round < 2; round++){
+            Snapshot snapshot = juke.getSnapshot();
+            for (Query query : List.of(new Query(null, null, null, null, null, null), new Query(null, new String[]{"model1", "model3"}, null, null, null, null),
+                    new Query(null, null, sid, new String[]{"pcb"}, null, null))){
+                QueryResult result = engine.run(query, snapshot);
+                Facets facets = new Facets(snapshot, result, Facets.FACETS);
+                TreeMap<String, TreeMap<String, Integer>> expected = count(result.page(), snapshot);
+                assertEquals(result.size(), facets.size());
+                for (String facet : Facets.FACETS) assertEquals(expected.get(facet), facets.get(facet));
+            }
+            juke.patch(List.of(new ComponentChange("id3", List.of("subwoofer", "pcb", "pcb"), null, null),
+                    new ComponentChange("id4", List.of(), null, null))); // the second round counts patched rows
+        }
+        Facets models = new Facets(juke.getSnapshot(), engine.run(new Query(null, null, null, null, null, null)), Set.of("model"));
+        assertNull(models.get("component")); // not requested
+        assertThrows(IllegalArgumentException.class, () -> new Facets(juke.getSnapshot(), engine.run(new Query(null, null, null, null, null, null)), Set.of("color")));
+    }
+    /**
+     * Test that equivalent queries are normalized to the same key, and pagination of planned results.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void normalization(){
+        assertEquals(new Query(new String[]{"b", "a", "a"}, null, null, null, null, null), new Query(new String[]{"a", "b"}, null, null, null, 0, null));
+        assertNotEquals(new Query(new String[]{"a"}, null, null, null, null, 5), new Query(new String[]{"a"}, null, null, null, null, 6));
+        List<Jukebox> all = engine.run(new Query(null, new String[]{"model2"}, null, null, null, null)).page();
+        assertEquals(all.subList(3, 13), engine.run(new Query(null, new String[]{"model2"}, null, null, 3, 10)).page());
+        assertTrue(engine.run(new Query(null, new String[]{"model2"}, null, null, all.size(), 10)).page().isEmpty());
+    }
+    /**
+     * Test that the most selective predicate is evaluated first, and that the plan can be written.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void explain() throws IOException {
+        QueryResult result = engine.run(new Query(new String[]{"id7", "id8"}, new String[]{"model0", "model1", "model2"}, "setting0", null, null, null));
+        List<QueryResult.Stage> stages = result.getStages();
+        assertEquals("plan", stages.get(0).step());
+        assertEquals("index", stages.get(1).step());
+        assertTrue(stages.get(1).predicate().startsWith("id")); // 2 IDs are more selective than 3 models
+        assertEquals(4, stages.size());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        result.writePlan(out);
+        JsonObject plan = JsonParser.parseString(out.toString(StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals(result.size(), plan.get("results").getAsInt());
+        assertEquals(4, plan.getAsJsonArray("plan").size());
+    }
+    /**
+     * Test the weight bound, the least recently used eviction and the version tags of the query cache.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void cache() throws IOException {
+        QueryCache cache = new QueryCache(100);
+        Query a = new Query(new String[]{"a"}, null, null, null, null, null), b = new Query(new String[]{"b"}, null, null, null, null, null);
+        Query c = new Query(new String[]{"c"}, null, null, null, null, null);
+        assertNull(cache.get(a, 1));
+        cache.put(a, 1, new byte[40]);
+        cache.put(b, 1, new byte[40]);
+        assertNotNull(cache.get(a, 1)); // a is now more recently used than b
+        cache.put(c, 1, new byte[40]); // too heavy, b is evicted
+        assertNull(cache.get(b, 1));
+        assertNotNull(cache.get(a, 1));
+        assertNotNull(cache.get(c, 1));
+        assertEquals(80, cache.getWeight());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(a, 2)); // the data changed, a is stale
+        assertEquals(40, cache.getWeight());
+        assertEquals(3, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        try (OutputStream out = cache.record(b, 2, target)){ // small response, recorded
+            out.write(new byte[]{1, 2, 3});
+        }
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get(b, 2));
+        try (OutputStream out = cache.record(a, 2, target)){ // response heavier than the cache, streamed only
+            out.write(new byte[150]);
+        }
+        assertNull(cache.get(a, 2));
+        assertEquals(153, target.size()); // everything reached the target
+    }
+    /**
+     * Test that cached responses are compressed once, weigh their compressed body too, and go stale with the data.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void compressedCache() throws IOException {
+        QueryCache cache = new QueryCache(10_000);
+        Query a = new Query(new String[]{"a"}, null, null, null, null, null);
+        byte[] body = "[{\"id\": \"a\"}, {\"id\": \"a\"}, {\"id\": \"a\"}, {\"id\": \"a\"}]".getBytes(StandardCharsets.UTF_8);
+        assertNull(cache.getCompressed(a, 1));
+        cache.put(a, 1, body);
+        byte[] gzip = cache.getCompressed(a, 1);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))){
+            assertArrayEquals(body, in.readAllBytes());
+        }
+        assertSame(gzip, cache.getCompressed(a, 1)); // compressed once, kept with the entry
+        assertArrayEquals(body, cache.get(a, 1));
+        assertEquals(body.length + gzip.length, cache.getWeight());
+        assertNull(cache.getCompressed(a, 2)); // the data changed, a is stale
+        assertEquals(0, cache.getWeight());
+        String etag = a.etag("e.1");
+        assertTrue(etag.startsWith("W/\"e.1-") && etag.endsWith("\""));
+        assertEquals(etag, new Query(new String[]{"a", "a"}, null, null, null, null, null).etag("e.1")); // same normalized query
+        assertNotEquals(etag, a.etag("e.2"));
+        assertNotEquals(etag, a.etag("f.1")); // same version in another process
+        assertNotEquals(etag, new Query(new String[]{"b"}, null, null, null, null, null).etag("e.1"));
+    }
+    /**
+     * Test that two APIs built separately on different data never tag a response the same way,
+     * and that the tag of the data carries more than its version, which restarts with the process.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void etags(){
+        ArrayList<Jukebox> other = new ArrayList<>(boxes.subList(0, 1000));
+        JukeboxAPI first = new JukeboxAPI(FleetIndexTest.settings(new Random(7)), boxes);
+        JukeboxAPI second = new JukeboxAPI(FleetIndexTest.settings(new Random(7)), other);
+        Query query = new Query(null, new String[]{"model1"}, null, null, null, null);
+        Snapshot a = first.getSnapshot(), b = second.getSnapshot();
+        assertNotEquals(a.getTag(), b.getTag());
+        assertNotEquals(query.etag(a.getTag()), query.etag(b.getTag()));
+        assertNotEquals(query.etag(a.getTag(), "binary"), query.etag(b.getTag(), "binary"));
+        for (Snapshot snapshot : List.of(a, b)){
+            String tag = snapshot.getTag();
+            assertTrue(tag.endsWith("." + snapshot.getVersion()));
+            assertFalse(tag.startsWith(".")); // the epoch of the process comes first
+        }
+        assertEquals(a.getTag().substring(0, a.getTag().indexOf('.')), b.getTag().substring(0, b.getTag().indexOf('.'))); // same process
+    }
+    /**
+     * Test that a batch gives the same results as the queries run one by one, and that shared work is done once.
+     * The cost per query of both is compared by project.bench.QueryBenchmark.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void batch(){
+        Random random = new Random(3);
+        ArrayList<Query> queries = new ArrayList<>();
+        List<String> settings = new ArrayList<>(juke.getSettings().getSettings().keySet());
+        for (int i = 0; i < 400; i++){ // a sync cycle: many queries over a few settings and models
+            String[] models = random.nextBoolean() ? null : new String[]{"model" + random.nextInt(4)};
+            String sid = random.nextInt(4) == 0 ? null : settings.get(random.nextInt(settings.size()));
+            queries.add(new Query(null, models, sid, null, 10 * random.nextInt(3), 10));
+        }
+        queries.add(new Query(new String[]{"id7", "id8"}, null, null, null, null, null));
+        List<QueryResult> results = engine.run(queries, juke.getSnapshot());
+        assertEquals(queries.size(), results.size());
+        for (int i = 0; i < queries.size(); i++){
+            assertEquals(engine.run(queries.get(i)).page(), results.get(i).page());
+        }
+        assertTrue(results.stream().anyMatch(r -> !r.getStages().isEmpty() && r.getStages().get(0).step().equals("shared"))); // same filter, another page
+        assertTrue(results.stream().anyMatch(r -> r.getStages().size() > 1 && r.getStages().get(1).step().equals("shared"))); // same first predicate
+    }
+}
@@ -0,0 +1,169 @@
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import project.object.Fleet;
+import project.object.Jukebox;
+import project.object.NameDictionary;
+import project.service.BinaryFormat;
+import project.service.JukeboxAPI;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This is a test class for pagination and serialization of search results. It works on a small offline database.
+ * @author Shuzhao Feng
+ */
+class SerializationTest {
+    ArrayList<Jukebox> boxes;
+    /**
+     * Create a new database before each independent test.
+     * @author Shuzhao Feng
+     */
+    @BeforeEach
+    void set(){
+        this.boxes = new ArrayList<>();
+        for (int i = 0; i < 10; i++){
+            ArrayList<String> comps = new ArrayList<>();
+            for (int j = 0; j < i % 3; j++){ // 0 to 2 components
+                comps.add("pcb");
+            }
+            boxes.add(new Jukebox("id" + i, "model" + (i % 2), comps));
+        }
+    }
+    /**
+     * This method writes Jukeboxes and reads them back as a Json tree.
+     * @author Shuzhao Feng
+     */
+    static JsonArray write(List<Jukebox> boxes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JukeboxAPI.writeJSON(boxes, out);
+        return JsonParser.parseString(out.toString(StandardCharsets.UTF_8)).getAsJsonArray();
+    }
+    /**
+     * Test offset and limit, counted in Jukeboxes.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void pages(){
+        assertEquals(boxes.subList(2, 5), JukeboxAPI.page(boxes, 2, 3));
+        assertEquals(boxes.subList(8, 10), JukeboxAPI.page(boxes, 8, 50)); // limit beyond the end
+        assertTrue(JukeboxAPI.page(boxes, 50, 3).isEmpty()); // offset beyond the end
+        assertEquals(boxes, JukeboxAPI.page(boxes, -1, Integer.MAX_VALUE)); // negative offset counts as 0
+        assertTrue(JukeboxAPI.page(boxes, 0, -1).isEmpty()); // negative limit counts as 0
+        assertTrue(JukeboxAPI.page(null, 0, 10).isEmpty()); // no result
+    }
+    /**
+     * Test the streamed Json against the Jukeboxes.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void json() throws IOException {
+        JsonArray arr = write(JukeboxAPI.page(boxes, 1, 4));
+        assertEquals(4, arr.size());
+        for (int i = 0; i < 4; i++){
+            JsonObject obj = arr.get(i).getAsJsonObject();
+            Jukebox box = boxes.get(i + 1);
+            assertEquals(box.getId(), obj.get("id").getAsString());
+            assertEquals(box.getModel(), obj.get("model").getAsString());
+            assertEquals(box.getComponents().size(), obj.getAsJsonArray("components").size());
+        }
+        assertEquals(0, write(new ArrayList<>()).size()); // an empty page is an empty array
+    }
+    /**
+     * Test the newline-delimited Json export: one compact Jukebox per line, equal to the Json array.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void ndjson() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JukeboxAPI.writeNDJSON(boxes, out);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(boxes.size(), lines.length);
+        JsonArray arr = write(boxes);
+        for (int i = 0; i < lines.length; i++){
+            assertEquals(arr.get(i), JsonParser.parseString(lines[i]));
+        }
+        out.reset();
+        JukeboxAPI.writeNDJSON(new ArrayList<>(), out);
+        assertEquals(0, out.size()); // an empty export is empty
+    }
+    /**
+     * This method writes a Jukebox with Gson, field by field.
+     * @author Shuzhao Feng
+     */
+    static JsonObject gson(Jukebox box) throws IOException {
+        StringWriter str = new StringWriter();
+        box.toJSON(new JsonWriter(str));
+        return JsonParser.parseString(str.toString()).getAsJsonObject();
+    }
+    /**
+     * Test the Json rendered when a fleet is built or patched against Gson, with repeated components and names to escape.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void fragments() throws IOException {
+        Fleet fleet = new Fleet.Builder()
+                .add("a\"b\\c\n\u2028é", "fusion", List.of("pcb", "pcb"))
+                .add("d", "virtuo", List.of())
+                .add("e", "fusion", List.of("camera", "pcb", "camera"))
+                .build();
+        JsonArray arr = write(fleet.asList());
+        for (int i = 0; i < fleet.size(); i++){
+            assertEquals(gson(fleet.get(i)), arr.get(i));
+        }
+        int camera = NameDictionary.encode("camera");
+        Fleet patched = fleet.patch(new int[]{0}, new int[][]{{camera, camera}});
+        assertEquals(gson(patched.get(0)), write(patched.asList()).get(0)); // rendered again once patched
+        assertEquals(arr.get(1), write(patched.asList()).get(1));
+        assertEquals(arr, write(fleet.asList())); // the fleet it was patched from did not change
+        Jukebox box = fleet.get(2);
+        assertEquals(3, JsonParser.parseString(box.componentToJSON()).getAsJsonArray().size()); // repeated last component
+        assertEquals(gson(box), JsonParser.parseString(box.toString()));
+        LinkedHashMap<String, List<Jukebox>> pages = new LinkedHashMap<>();
+        pages.put("\"key\"", fleet.asList().subList(1, 3));
+        pages.put("empty", List.of());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JukeboxAPI.writeJSON(pages, out);
+        JsonObject obj = JsonParser.parseString(out.toString(StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals(arr.get(2), obj.getAsJsonArray("\"key\"").get(1));
+        assertEquals(0, obj.getAsJsonArray("empty").size());
+    }
+    /**
+     * Test that the binary format reads back the Jukeboxes it wrote, smaller than Json, and rejects anything else.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void binary() throws IOException {
+        boxes.add(new Jukebox("idé\"", "Fusion", new ArrayList<>(List.of("camera", "pcb", "camera"))));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryFormat.writeList(boxes, out);
+        byte[] bytes = out.toByteArray();
+        assertEquals(boxes, BinaryFormat.readList(new ByteArrayInputStream(bytes)));
+        out.reset();
+        JukeboxAPI.writeJSON(boxes, out);
+        assertTrue(bytes.length < out.size() / 3); // names are sent once
+        for (int length : new int[]{0, 3, bytes.length - 1}){ // truncated
+            byte[] cut = Arrays.copyOf(bytes, length);
+            assertThrows(IOException.class, () -> BinaryFormat.readList(new ByteArrayInputStream(cut)));
+        }
+        LinkedHashMap<String, List<Jukebox>> pages = new LinkedHashMap<>();
+        pages.put("first", boxes.subList(0, 4));
+        pages.put("empty", List.of());
+        pages.put("last", boxes.subList(4, boxes.size()));
+        out.reset();
+        BinaryFormat.writePages(pages, out);
+        assertEquals(pages, BinaryFormat.readPages(new ByteArrayInputStream(out.toByteArray())));
+        assertThrows(IOException.class, () -> BinaryFormat.readList(new ByteArrayInputStream(out.toByteArray()))); // not a list
+    }
+}
@@ -0,0 +1,194 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import project.object.Fleet;
+import project.object.Jukebox;
+import project.query.Query;
+import project.query.QueryEngine;
+import project.service.JukeboxAPI;
+import project.service.Partition;
+import project.service.SettingsAPI;
+import project.service.ShardCoordinator;
+import project.service.Snapshot;
+import project.service.SnapshotFile;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This is a test class for {@link Partition} and {@link ShardCoordinator}. It splits a random offline database between shards,
+ * and compares the merged results of the shards with the results of a single node holding the whole database.
+ * @author Shuzhao Feng
+ */
+class ShardTest {
+    @TempDir
+    Path dir;
+    /**
+     * This method splits Jukeboxes between shards, keeping their positions in the feed.
+     * @author Shuzhao Feng
+     */
+    static List<JukeboxAPI> split(SettingsAPI settings, List<Jukebox> boxes, int count){
+        ArrayList<Fleet.Builder> builders = new ArrayList<>();
+        for (int i = 0; i < count; i++) builders.add(new Fleet.Builder());
+        for (int p = 0; p < boxes.size(); p++){
+            Jukebox box = boxes.get(p);
+            builders.get(Partition.shard(box.getId(), count)).position(p).add(box);
+        }
+        ArrayList<JukeboxAPI> shards = new ArrayList<>();
+        for (Fleet.Builder builder : builders) shards.add(new JukeboxAPI(new Snapshot(settings, builder.build())));
+        return shards;
+    }
+    /**
+     * This method reads a query from the parameters of the endpoint, the way a shard does.
+     * @author Shuzhao Feng
+     */
+    static Query parse(String parameters){
+        HashMap<String, List<String>> values = new HashMap<>();
+        for (String pair : parameters.split("&")){
+            String[] kv = pair.split("=", 2);
+            values.computeIfAbsent(URLDecoder.decode(kv[0], StandardCharsets.UTF_8), k -> new ArrayList<>())
+                    .add(URLDecoder.decode(kv[1], StandardCharsets.UTF_8));
+        }
+        return new Query(array(values.get("id")), array(values.get("model")), array(values.get("settingid")),
+                values.containsKey("settingmatch") ? values.get("settingmatch").get(0) : null, array(values.get("component")),
+                Integer.valueOf(values.get("offset").get(0)), values.containsKey("limit") ? Integer.valueOf(values.get("limit").get(0)) : null);
+    }
+    /**
+     * This method converts the values of a parameter, null if absent.
+     * @author Shuzhao Feng
+     */
+    private static String[] array(List<String> values){
+        return values == null ? null : values.toArray(new String[0]);
+    }
+    /**
+     * This method answers a query the way a coordinator does, every shard being asked for the first offset + limit Jukeboxes of its IDs.
+     * @author Shuzhao Feng
+     */
+    static byte[] cluster(List<JukeboxAPI> shards, Query query) throws IOException {
+        ArrayList<InputStream> responses = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++){
+            ArrayList<String> ids = null;
+            if (query.getIds() != null){
+                ids = new ArrayList<>();
+                for (String id : query.getIds()) if (Partition.shard(id, shards.size()) == i) ids.add(id);
+                if (ids.isEmpty()) continue; // pruned
+            }
+            Query part = parse(query.toParameters(ids, 0, (int) Math.min((long) query.getOffset() + query.getLimit(), Integer.MAX_VALUE)));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ShardCoordinator.writeShard(new QueryEngine(shards.get(i)).run(part).page(), out);
+            responses.add(new ByteArrayInputStream(out.toByteArray()));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ShardCoordinator.gather(responses, query.getOffset(), query.getLimit(), out);
+        return out.toByteArray();
+    }
+    /**
+     * Test that every ID is owned by exactly one shard, and that shards own similar numbers of IDs.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void owners(){
+        Partition[] partitions = new Partition[4];
+        for (int i = 0; i < 4; i++) partitions[i] = new Partition(i, 4);
+        int[] owned = new int[4];
+        for (int i = 0; i < 40000; i++){
+            int owners = 0;
+            for (int s = 0; s < 4; s++){
+                if (partitions[s].owns("id" + i)){
+                    owners++;
+                    owned[s]++;
+                    assertEquals(s, Partition.shard("id" + i, 4));
+                }
+            }
+            assertEquals(1, owners);
+            assertTrue(Partition.ALL.owns("id" + i));
+        }
+        for (int s = 0; s < 4; s++) assertTrue(owned[s] > 9000 && owned[s] < 11000, "shard " + s + " owns " + owned[s]);
+        assertThrows(IllegalArgumentException.class, () -> new Partition(4, 4));
+        assertThrows(IllegalArgumentException.class, () -> new Partition(0, 0));
+    }
+    /**
+     * Test that the merged results of the shards are the results of a single node, byte for byte, for every kind of query and page.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void gather() throws IOException {
+        Random random = new Random(42);
+        SettingsAPI settings = FleetIndexTest.settings(random);
+        ArrayList<Jukebox> boxes = SnapshotFileTest.boxes(random, 3000);
+        QueryEngine single = new QueryEngine(new JukeboxAPI(settings, boxes));
+        List<JukeboxAPI> shards = split(settings, boxes, 4);
+        int total = 0;
+        for (JukeboxAPI shard : shards) total += shard.getSnapshot().getFleet().size();
+        assertEquals(boxes.size(), total);
+        ArrayList<String> ids = new ArrayList<>();
+        for (int i = 0; i < 50; i++) ids.add("id" + random.nextInt(3000));
+        ids.add("Not a valid ID");
+        List<Query> queries = new ArrayList<>();
+        for (Integer[] page : new Integer[][]{{null, null}, {0, 10}, {25, 10}, {2990, 100}, {5000, 10}}){
+            queries.add(new Query(null, null, null, null, null, page[0], page[1]));
+            queries.add(new Query(null, new String[]{"model1", "model3"}, null, null, null, page[0], page[1]));
+            queries.add(new Query(null, null, settings.getSettings().keySet().toArray(new String[0]), "any", null, page[0], page[1]));
+            queries.add(new Query(null, new String[]{"model2"}, null, null, new String[]{"pcb"}, page[0], page[1]));
+            queries.add(new Query(ids.toArray(new String[0]), null, null, null, null, page[0], page[1]));
+        }
+        for (Query query : queries){
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            JukeboxAPI.writeJSON(single.run(query).page(), expected);
+            assertEquals(expected.toString(StandardCharsets.UTF_8), new String(cluster(shards, query), StandardCharsets.UTF_8), query.key());
+        }
+    }
+    /**
+     * Test that a query sent to a shard is read back as the same query, with the IDs and page of the shard.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void parameters(){
+        Query query = new Query(new String[]{"id1", "a&b=c"}, new String[]{"fusion"}, new String[]{"s1", "s2"}, "any",
+                new String[]{"pcb:2", "camera"}, 5, 10);
+        assertEquals(new Query(new String[]{"a&b=c"}, new String[]{"fusion"}, new String[]{"s1", "s2"}, "any",
+                new String[]{"pcb:2", "camera"}, 0, 15), parse(query.toParameters(List.of("a&b=c"), 0, 15)));
+        assertEquals(new Query(null, new String[]{"fusion"}, new String[]{"s1", "s2"}, "any",
+                new String[]{"pcb:2", "camera"}, 0, null), parse(query.toParameters(null, 0, Integer.MAX_VALUE)));
+        assertFalse(query.toParameters(null, 0, Integer.MAX_VALUE).contains("limit")); // no limit
+    }
+    /**
+     * Test that a shard keeps only its own Jukeboxes from a feed, with their positions, and that a saved shard keeps them too.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void feed() throws IOException {
+        Random random = new Random(7);
+        ArrayList<Jukebox> boxes = SnapshotFileTest.boxes(random, 1000);
+        ByteArrayOutputStream feed = new ByteArrayOutputStream();
+        JukeboxAPI.writeJSON(boxes, feed);
+        Partition partition = new Partition(1, 3);
+        Fleet.Builder builder = new Fleet.Builder();
+        assertEquals(1000, JukeboxAPI.readJukeboxes(new ByteArrayInputStream(feed.toByteArray()), builder, partition));
+        Fleet fleet = builder.build();
+        assertTrue(partition.ownsAll(fleet));
+        assertFalse(new Partition(0, 3).ownsAll(fleet));
+        int row = 0;
+        for (int p = 0; p < boxes.size(); p++){
+            if (!partition.owns(boxes.get(p).getId())) continue;
+            assertEquals(boxes.get(p), fleet.get(row));
+            assertEquals(p, fleet.getPosition(row++));
+        }
+        assertEquals(row, fleet.size());
+        Path file = dir.resolve("shard.bin");
+        SnapshotFile.write(new Snapshot(FleetIndexTest.settings(random), fleet), file);
+        Fleet read = SnapshotFile.read(file).getFleet(), compacted = fleet.compact();
+        for (int i = 0; i < fleet.size(); i++){
+            assertEquals(fleet.getPosition(i), read.getPosition(i));
+            assertEquals(fleet.getPosition(i), compacted.getPosition(i));
+        }
+    }
+}
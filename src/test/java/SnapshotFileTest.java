@@ -0,0 +1,121 @@
+import com.google.gson.stream.JsonWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import project.object.Jukebox;
+import project.service.Snapshot;
+import project.service.SnapshotFile;
+import project.service.SnapshotLoader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This is a test class for {@link SnapshotFile}. It saves random offline databases and reads them back.
+ * @author Shuzhao Feng
+ */
+class SnapshotFileTest {
+    @TempDir
+    Path dir;
+    /**
+     * This method creates a random database of the given size.
+     * @author Shuzhao Feng
+     */
+    static ArrayList<Jukebox> boxes(Random random, int n){
+        ArrayList<Jukebox> boxes = new ArrayList<>();
+        for (int i = 0; i < n; i++){
+            ArrayList<String> comps = new ArrayList<>();
+            for (int j = random.nextInt(6); j > 0; j--){
+                comps.add(FleetIndexTest.COMPONENTS[random.nextInt(FleetIndexTest.COMPONENTS.length)]);
+            }
+            boxes.add(new Jukebox("id" + i, "model" + random.nextInt(4), comps));
+        }
+        return boxes;
+    }
+    /**
+     * Test that a saved snapshot is read back with the same Jukeboxes, settings and setting bitmaps.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void roundTrip() throws IOException {
+        Random random = new Random(42);
+        Snapshot saved = new Snapshot(FleetIndexTest.settings(random), boxes(random, 2000));
+        Path file = dir.resolve("snapshot.bin");
+        SnapshotFile.write(saved, file);
+        Snapshot read = SnapshotFile.read(file);
+        assertTrue(read.getVersion() > saved.getVersion());
+        assertEquals(saved.getJukeboxes(), read.getJukeboxes());
+        assertEquals(saved.getSettings().getSettings(), read.getSettings().getSettings());
+        Snapshot rebuilt = new Snapshot(read.getSettings(), read.getFleet()); // bitmaps computed again
+        for (String id : saved.getSettings().getSettings().keySet()){
+            assertEquals(saved.getCompatibility(id), read.getCompatibility(id));
+            assertEquals(rebuilt.getCompatibility(id), read.getCompatibility(id));
+        }
+        assertEquals(saved.getIndex().row("id1999"), read.getIndex().row("id1999"));
+        SnapshotFile.write(Snapshot.empty(), file); // replaces the previous file
+        assertTrue(SnapshotFile.read(file).getJukeboxes().isEmpty());
+    }
+    /**
+     * Test that corrupted, truncated and foreign files are refused.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void invalid() throws IOException {
+        Random random = new Random(7);
+        Path file = dir.resolve("snapshot.bin");
+        SnapshotFile.write(new Snapshot(FleetIndexTest.settings(random), boxes(random, 100)), file);
+        byte[] bytes = Files.readAllBytes(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")){ // flip a byte of the payload
+            raf.seek(bytes.length / 2);
+            raf.write(bytes[bytes.length / 2] ^ 1);
+        }
+        assertTrue(assertThrows(IOException.class, () -> SnapshotFile.read(file)).getMessage().startsWith("Corrupted"));
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertTrue(assertThrows(IOException.class, () -> SnapshotFile.read(file)).getMessage().startsWith("Truncated"));
+        byte[] other = bytes.clone();
+        other[7] = (byte) (SnapshotFile.FORMAT + 1); // a format version not written yet
+        Files.write(file, other);
+        assertTrue(assertThrows(IOException.class, () -> SnapshotFile.read(file)).getMessage().contains("format " + (SnapshotFile.FORMAT + 1)));
+        Files.write(file, "[{\"id\": \"a json feed\"}]".getBytes());
+        assertTrue(assertThrows(IOException.class, () -> SnapshotFile.read(file)).getMessage().startsWith("Not a snapshot"));
+    }
+    /**
+     * Test that starting up from a snapshot file gives the same data as starting up from the Json feeds.
+     * The startup times are compared by project.bench.IngestionBenchmark.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void startup() throws IOException {
+        Random random = new Random(42);
+        Snapshot saved = new Snapshot(FleetIndexTest.settings(random), boxes(random, 2000));
+        Path jukes = dir.resolve("jukes.json"), settings = dir.resolve("settings.json"), file = dir.resolve("snapshot.bin");
+        try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(jukes))){
+            writer.setIndent("  ");
+            writer.beginArray();
+            for (Jukebox box : saved.getJukeboxes()) box.toJSON(writer);
+            writer.endArray();
+        }
+        try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(settings))){
+            writer.beginObject().name("settings").beginArray();
+            for (Map.Entry<String, ArrayList<String>> e : saved.getSettings().getSettings().entrySet()){
+                writer.beginObject().name("id").value(e.getKey()).name("requires").beginArray();
+                for (String req : e.getValue()) writer.value(req);
+                writer.endArray().endObject();
+            }
+            writer.endArray().endObject();
+        }
+        SnapshotFile.write(saved, file);
+        Snapshot fromFeeds = SnapshotLoader.load(jukes.toUri().toURL(), settings.toUri().toURL());
+        Snapshot fromFile = SnapshotFile.read(file);
+        assertEquals(fromFeeds.getJukeboxes(), fromFile.getJukeboxes());
+        assertEquals(fromFeeds.getSettings().getSettings(), fromFile.getSettings().getSettings());
+        for (String id : saved.getSettings().getSettings().keySet()){
+            assertEquals(fromFeeds.getCompatibility(id), fromFile.getCompatibility(id));
+        }
+    }
+}
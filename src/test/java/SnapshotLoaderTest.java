@@ -0,0 +1,146 @@
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import project.object.Fleet;
+import project.object.Jukebox;
+import project.service.JukeboxAPI;
+import project.service.Snapshot;
+import project.service.SnapshotLoader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This is a test class for {@link SnapshotLoader}. It serves the feeds from a local stand-in HTTP server.
+ * @author Shuzhao Feng
+ */
+class SnapshotLoaderTest {
+    HttpServer server;
+    AtomicReference<byte[]> jukes = new AtomicReference<>(); // body currently served as the Jukebox feed
+    byte[] settings;
+    /**
+     * Start a local server serving the feeds of the test resources.
+     * @author Shuzhao Feng
+     */
+    @BeforeEach
+    void set() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/jukes.json")){
+            jukes.set(in.readAllBytes());
+        }
+        try (InputStream in = getClass().getResourceAsStream("/settings.json")){
+            settings = in.readAllBytes();
+        }
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jukes", exchange -> {
+            byte[] body = jukes.get();
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()){ out.write(body); }
+        });
+        server.createContext("/settings", exchange -> {
+            exchange.sendResponseHeaders(200, settings.length);
+            try (OutputStream out = exchange.getResponseBody()){ out.write(settings); }
+        });
+        server.start();
+    }
+    /**
+     * Stop the local server.
+     * @author Shuzhao Feng
+     */
+    @AfterEach
+    void stop(){
+        server.stop(0);
+    }
+    /**
+     * Test that refreshes swap in new snapshots, and that a broken feed keeps the current one.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void refresh(){
+        String base = "http://localhost:" + server.getAddress().getPort();
+        JukeboxAPI api = new JukeboxAPI(); // starts empty, without any network access
+        assertTrue(api.getJukeboxes().isEmpty());
+        SnapshotLoader loader = new SnapshotLoader(api, base + "/jukes", base + "/settings", "");
+        assertTrue(loader.refresh());
+        Snapshot first = api.getSnapshot();
+        assertEquals(40, first.getJukeboxes().size());
+        assertEquals(7, first.getSettings().getSettings().size());
+        jukes.set("[{\"id\": \"new\", \"model\": \"fusion\", \"components\": []}]".getBytes());
+        assertTrue(loader.refresh());
+        assertNotSame(first, api.getSnapshot());
+        assertTrue(api.getSnapshot().getVersion() > first.getVersion());
+        assertEquals(1, api.getJukeboxes().size());
+        assertEquals(40, first.getJukeboxes().size()); // a request holding the previous snapshot still sees it whole
+        Snapshot second = api.getSnapshot();
+        jukes.set("[{\"id\": \"broken\"".getBytes());
+        assertFalse(loader.refresh()); // broken feed
+        assertSame(second, api.getSnapshot());
+        assertFalse(new SnapshotLoader(api, base + "/nothing", base + "/settings", "").refresh()); // missing feed
+        assertSame(second, api.getSnapshot());
+    }
+    /**
+     * Test that a restarting node serves the snapshot saved by the previous run, even if the feeds are down.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void warmStart(@TempDir Path dir){
+        String base = "http://localhost:" + server.getAddress().getPort();
+        String file = dir.resolve("snapshot.bin").toString();
+        JukeboxAPI first = new JukeboxAPI();
+        new SnapshotLoader(first, base + "/jukes", base + "/settings", file).warmStart(); // first start, no file yet
+        assertTrue(first.getJukeboxes().isEmpty());
+        assertTrue(new SnapshotLoader(first, base + "/jukes", base + "/settings", file).refresh()); // saves the file
+        JukeboxAPI second = new JukeboxAPI();
+        SnapshotLoader loader = new SnapshotLoader(second, base + "/nothing", base + "/settings", file);
+        loader.warmStart();
+        assertEquals(first.getJukeboxes(), second.getJukeboxes());
+        assertFalse(loader.refresh()); // feed down, the saved snapshot keeps being served
+        assertEquals(40, second.getJukeboxes().size());
+    }
+    /**
+     * Test that a feed is read as a stream, with unknown fields skipped and repeated names shared.
+     * The ingest throughput is measured by project.bench.IngestionBenchmark.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void ingest() throws IOException {
+        Path feed = Files.createTempFile("jukes", ".json");
+        try {
+            Random random = new Random(42);
+            int n = 2000;
+            try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(feed))){ // same layout as the online feed
+                writer.setIndent("  ");
+                writer.beginArray();
+                for (int i = 0; i < n; i++){
+                    writer.beginObject().name("id").value("id" + i).name("model").value("model" + random.nextInt(4));
+                    writer.name("serial").beginObject().name("unused").value(i).endObject(); // unknown field
+                    writer.name("components").beginArray();
+                    for (int j = random.nextInt(6); j > 0; j--){
+                        writer.beginObject().name("name").value(FleetIndexTest.COMPONENTS[random.nextInt(FleetIndexTest.COMPONENTS.length)]).endObject();
+                    }
+                    writer.endArray().endObject();
+                }
+                writer.endArray();
+            }
+            Fleet fleet = JukeboxAPI.readJukeboxes(feed.toUri().toURL());
+            assertEquals(n, fleet.size());
+            assertEquals("id" + (n - 1), fleet.getId(n - 1));
+            for (Jukebox box : fleet.asList()){
+                if (box.getModel().equals(fleet.get(0).getModel())) assertSame(fleet.get(0).getModel(), box.getModel()); // one copy of each name
+            }
+        } finally {
+            Files.delete(feed);
+        }
+        assertThrows(JsonParseException.class, () -> JukeboxAPI.readJukeboxes(new ByteArrayInputStream("[{\"model\": \"fusion\"}]".getBytes()), new Fleet.Builder()));
+    }
+}
@@ -0,0 +1,71 @@
+import org.junit.jupiter.api.Test;
+import project.service.ComponentChange;
+import project.service.JukeboxAPI;
+import project.service.Snapshot;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This is a test class for {@link JukeboxAPI#supportedSettings(List)}. It compares the settings found for every Jukebox
+ * of a random offline database with the precomputed setting bitmaps.
+ * @author Shuzhao Feng
+ */
+class SupportedSettingsTest {
+    /**
+     * This method finds the settings of a row from the setting bitmaps of a snapshot.
+     * @author Shuzhao Feng
+     */
+    static List<String> expected(Snapshot snapshot, int row){
+        ArrayList<String> out = new ArrayList<>();
+        for (String id : new TreeSet<>(snapshot.getSettings().getSettings().keySet())){
+            if (snapshot.getCompatibility(id).get(row)) out.add(id);
+        }
+        return out;
+    }
+    /**
+     * Test that every Jukebox gets the settings whose bitmaps hold it, in order, and that the answer is kept by the snapshot.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void bitmaps(){
+        Random random = new Random(42);
+        JukeboxAPI juke = new JukeboxAPI(FleetIndexTest.settings(random), SnapshotFileTest.boxes(random, 2000));
+        Snapshot snapshot = juke.getSnapshot();
+        ArrayList<String> ids = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) ids.add("id" + i);
+        LinkedHashMap<String, List<String>> settings = juke.supportedSettings(ids);
+        assertEquals(ids, new ArrayList<>(settings.keySet())); // in request order
+        for (int i = 0; i < 2000; i++){
+            assertEquals(expected(snapshot, i), settings.get("id" + i));
+        }
+        assertSame(settings.get("id7"), juke.supportedSettings(List.of("id7")).get("id7")); // kept by the snapshot
+        assertThrows(NoSuchElementException.class, () -> juke.supportedSettings(List.of("id1", "Not a valid ID")));
+    }
+    /**
+     * Test that a patched Jukebox gets the settings of its new components, including components never read before.
+     * @author Shuzhao Feng
+     */
+    @Test
+    void patch(){
+        Random random = new Random(7);
+        JukeboxAPI juke = new JukeboxAPI(FleetIndexTest.settings(random), SnapshotFileTest.boxes(random, 100));
+        Snapshot previous = juke.getSnapshot();
+        List<String> before = juke.supportedSettings(List.of("id3")).get("id3");
+        juke.patch(List.of(new ComponentChange("id3", List.of(), null, null)));
+        assertEquals(List.of(), juke.supportedSettings(List.of("id3")).get("id3")); // no component, no setting
+        assertEquals(before, previous.getSupported(previous.getIndex().row("id3"))); // the previous snapshot did not change
+        ArrayList<String> all = new ArrayList<>();
+        for (ArrayList<String> requires : juke.getSnapshot().getSettings().getSettings().values()) all.addAll(requires);
+        juke.patch(List.of(new ComponentChange("id3", all, null, null)));
+        assertEquals(new ArrayList<>(new TreeSet<>(juke.getSnapshot().getSettings().getSettings().keySet())),
+                juke.supportedSettings(List.of("id3")).get("id3")); // every requirement is met
+        for (int i = 0; i < 100; i++){
+            assertEquals(expected(juke.getSnapshot(), i), juke.supportedSettings(List.of("id" + i)).get("id" + i));
+        }
+    }
+}